@@ -0,0 +1,31 @@
+#version 120
+
+uniform sampler2D terrain;
+uniform vec2 tileSize;
+
+varying vec2 texCoord;
+
+void main()
+{
+	vec2 uv;
+	if (texCoord.x < 0.0)
+	{
+		/*
+		 * A merged quad: the texture coordinate holds the tile in the
+		 * terrain texture (in steps of 512) and the position on the quad
+		 * in blocks, negated. Repeat the tile once per block.
+		 */
+		vec2 encoded = -texCoord - 1.0;
+		vec2 tile = floor(encoded / 512.0);
+		vec2 local = encoded - tile * 512.0;
+		uv = (tile + fract(local) * 0.9984) * tileSize;
+	} else
+	{
+		/* Fixed point, see ChunkMeshBuilder.PACKED_TEX_COORD_SCALE */
+		uv = texCoord / 8192.0;
+	}
+
+	vec4 color = texture2D(terrain, uv) * gl_Color;
+	float fog = clamp((gl_Fog.end - gl_FogFragCoord) * gl_Fog.scale, 0.0, 1.0);
+	gl_FragColor = vec4(mix(gl_Fog.color.rgb, color.rgb, fog), color.a);
+}
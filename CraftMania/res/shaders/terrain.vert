@@ -0,0 +1,21 @@
+#version 120
+
+/* The sunlight and block light of the vertex, see ChunkMeshBuilder */
+attribute vec2 light;
+
+uniform float sunlight;
+
+varying vec2 texCoord;
+
+void main()
+{
+	vec4 eyePosition = gl_ModelViewMatrix * gl_Vertex;
+	gl_Position = gl_ProjectionMatrix * eyePosition;
+
+	float value = max(light.y, light.x * sunlight);
+	gl_FrontColor = vec4(gl_Color.rgb * sin(value * 1.5707964), gl_Color.a);
+
+	/* Radial fog, like GL_EYE_RADIAL_NV */
+	gl_FogFragCoord = length(eyePosition.xyz);
+	texCoord = gl_MultiTexCoord0.xy;
+}
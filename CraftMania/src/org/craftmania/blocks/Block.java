@@ -120,7 +120,7 @@ public abstract class Block implements AABBObject
 	public final void destroy()
 	{
 		Game.getInstance().getWorld().getChunkManager().removeBlock(getX(), getY(), getZ());
-		_chunk.needsNewVBO();
+		_chunk.needsNewVBO(getY());
 	}
 	
 	public void destruct()
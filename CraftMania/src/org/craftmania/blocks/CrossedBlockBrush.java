@@ -123,7 +123,7 @@ public class CrossedBlockBrush extends BlockBrush
 	@Override
 	public void storeInVBO(FloatBuffer vbo, float x, float y, float z, LightBuffer lightBuffer)
 	{
-		byte light = lightBuffer.get(1, 1, 1);
+		byte light = lightBuffer.getRaw(1, 1, 1);
 
 		/* Blade 0 */
 		put3f(vbo, x - 0.5f, y + 0.5f, z - 0.5f);
@@ -78,7 +78,7 @@ public class DefaultBlock extends Block
 						createMovementPlugin();
 						addToManualRenderList();
 						_needVisibilityCheck = true;
-						_chunk.needsNewVBO();
+						_chunk.needsNewVBO(getY());
 					}
 					_movement.setFalling(true);
 					_chunk.updateVisibilityFor(getX(), getY(), getZ());
@@ -96,7 +96,7 @@ public class DefaultBlock extends Block
 					_chunk.notifyNeighborsOf(getX(), getY(), getZ());
 					removeFromManualRenderList();
 					_needVisibilityCheck = true;
-					_chunk.needsNewVBO();
+					_chunk.needsNewVBO(getY());
 				}
 			}
 
@@ -239,10 +239,10 @@ public class DefaultBlock extends Block
 				removeFromVisibilityList();
 			}
 
-			_chunk.needsNewVBO();
+			_chunk.needsNewVBO(getY());
 		} else if (preMask != _faceMask)
 		{
-			_chunk.needsNewVBO();
+			_chunk.needsNewVBO(getY());
 		}
 	}
 
@@ -314,8 +314,7 @@ public class DefaultBlock extends Block
 	{
 		if (!isRenderingManually())
 		{
-			_blockType.getDefaultBlockBrush().setFaceMask(_faceMask);
-			_blockType.getDefaultBlockBrush().storeInVBO(vbo, getX() + 0.5f, getY() + 0.5f, getZ() + 0.5f, lightBuffer);
+			_blockType.getDefaultBlockBrush().storeInVBO(vbo, getX() + 0.5f, getY() + 0.5f, getZ() + 0.5f, lightBuffer, _faceMask);
 		}
 	}
 
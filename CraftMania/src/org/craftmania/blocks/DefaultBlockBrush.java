@@ -516,6 +516,15 @@ public final class DefaultBlockBrush extends BlockBrush
 	
 	@Override
 	public void storeInVBO(FloatBuffer vertexBuffer, float x, float y, float z, LightBuffer lightBuffer)
+	{
+		storeInVBO(vertexBuffer, x, y, z, lightBuffer, faceMask);
+	}
+
+	/**
+	 * Stores the given faces in the buffer. Unlike setting the face mask of
+	 * the brush first, this can be used from multiple threads at once.
+	 */
+	public void storeInVBO(FloatBuffer vertexBuffer, float x, float y, float z, LightBuffer lightBuffer, byte faceMask)
 	{
 		float tileSize = 0.0624f;
 		for (int i = 0, bit = 1; i < 6; ++i, bit <<= 1)
@@ -530,104 +539,104 @@ public final class DefaultBlockBrush extends BlockBrush
 				if (side == Side.TOP)
 				{
 					put3f(vertexBuffer, x - 0.5f, y + 0.5f - inset, z + 0.5f);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(1, 2, 1), lightBuffer.get(0, 2, 1), lightBuffer.get(0, 2, 2), lightBuffer.get(1, 2, 2));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(1, 2, 1), lightBuffer.getRaw(0, 2, 1), lightBuffer.getRaw(0, 2, 2), lightBuffer.getRaw(1, 2, 2));
 					put2f(vertexBuffer, uv.x(), uv.y());
 
 					put3f(vertexBuffer, x + 0.5f, y + 0.5f - inset, z + 0.5f);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(1, 2, 1), lightBuffer.get(2, 2, 1), lightBuffer.get(1, 2, 2), lightBuffer.get(2, 2, 2));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(1, 2, 1), lightBuffer.getRaw(2, 2, 1), lightBuffer.getRaw(1, 2, 2), lightBuffer.getRaw(2, 2, 2));
 					put2f(vertexBuffer, uv.x() + tileSize, uv.y());
 
 					put3f(vertexBuffer, x + 0.5f, y + 0.5f - inset, z - 0.5f);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(1, 2, 1), lightBuffer.get(1, 2, 0), lightBuffer.get(2, 2, 0), lightBuffer.get(2, 2, 1));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(1, 2, 1), lightBuffer.getRaw(1, 2, 0), lightBuffer.getRaw(2, 2, 0), lightBuffer.getRaw(2, 2, 1));
 					put2f(vertexBuffer, uv.x() + tileSize, uv.y() + tileSize);
 
 					put3f(vertexBuffer, x - 0.5f, y + 0.5f - inset, z - 0.5f);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(1, 2, 1), lightBuffer.get(0, 2, 1), lightBuffer.get(1, 2, 0), lightBuffer.get(0, 2, 0));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(1, 2, 1), lightBuffer.getRaw(0, 2, 1), lightBuffer.getRaw(1, 2, 0), lightBuffer.getRaw(0, 2, 0));
 					put2f(vertexBuffer, uv.x(), uv.y() + tileSize);
 				} else if (side == Side.LEFT)
 				{
 					put3f(vertexBuffer, x - 0.5f + inset, y - 0.5f, z - 0.5f);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(0, 1, 1), lightBuffer.get(0, 0, 1), lightBuffer.get(0, 1, 0), lightBuffer.get(0, 0, 0));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(0, 1, 1), lightBuffer.getRaw(0, 0, 1), lightBuffer.getRaw(0, 1, 0), lightBuffer.getRaw(0, 0, 0));
 					put2f(vertexBuffer, uv.x(), uv.y() + tileSize);
 
 					put3f(vertexBuffer, x - 0.5f + inset, y - 0.5f, z + 0.5f);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(0, 1, 1), lightBuffer.get(0, 0, 1), lightBuffer.get(0, 1, 2), lightBuffer.get(0, 0, 2));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(0, 1, 1), lightBuffer.getRaw(0, 0, 1), lightBuffer.getRaw(0, 1, 2), lightBuffer.getRaw(0, 0, 2));
 					put2f(vertexBuffer, uv.x() + tileSize, uv.y() + tileSize);
 
 					put3f(vertexBuffer, x - 0.5f + inset, y + 0.5f, z + 0.5f);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(0, 1, 1), lightBuffer.get(0, 1, 2), lightBuffer.get(0, 2, 1), lightBuffer.get(0, 2, 2));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(0, 1, 1), lightBuffer.getRaw(0, 1, 2), lightBuffer.getRaw(0, 2, 1), lightBuffer.getRaw(0, 2, 2));
 					put2f(vertexBuffer, uv.x() + tileSize, uv.y());
 
 					put3f(vertexBuffer, x - 0.5f + inset, y + 0.5f, z - 0.5f);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(0, 1, 1), lightBuffer.get(0, 1, 0), lightBuffer.get(0, 2, 0), lightBuffer.get(0, 2, 1));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(0, 1, 1), lightBuffer.getRaw(0, 1, 0), lightBuffer.getRaw(0, 2, 0), lightBuffer.getRaw(0, 2, 1));
 					put2f(vertexBuffer, uv.x(), uv.y());
 				} else if (side == Side.FRONT)
 				{
 					put3f(vertexBuffer, x - 0.5f, y - 0.5f, z + 0.5f - inset);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(1, 1, 2), lightBuffer.get(0, 0, 2), lightBuffer.get(0, 1, 2), lightBuffer.get(1, 0, 2));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(0, 0, 2), lightBuffer.getRaw(0, 1, 2), lightBuffer.getRaw(1, 0, 2));
 					put2f(vertexBuffer, uv.x(), uv.y() + tileSize);
 
 					put3f(vertexBuffer, x + 0.5f, y - 0.5f, z + 0.5f - inset);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(1, 1, 2), lightBuffer.get(1, 0, 2), lightBuffer.get(2, 1, 2), lightBuffer.get(2, 0, 2));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(1, 0, 2), lightBuffer.getRaw(2, 1, 2), lightBuffer.getRaw(2, 0, 2));
 					put2f(vertexBuffer, uv.x() + tileSize, uv.y() + tileSize);
 
 					put3f(vertexBuffer, x + 0.5f, y + 0.5f, z + 0.5f - inset);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(1, 1, 2), lightBuffer.get(1, 2, 2), lightBuffer.get(2, 2, 2), lightBuffer.get(2, 1, 2));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(1, 2, 2), lightBuffer.getRaw(2, 2, 2), lightBuffer.getRaw(2, 1, 2));
 					put2f(vertexBuffer, uv.x() + tileSize, uv.y());
 
 					put3f(vertexBuffer, x - 0.5f, y + 0.5f, z + 0.5f - inset);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(1, 1, 2), lightBuffer.get(1, 2, 2), lightBuffer.get(0, 1, 2), lightBuffer.get(0, 2, 2));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(1, 2, 2), lightBuffer.getRaw(0, 1, 2), lightBuffer.getRaw(0, 2, 2));
 					put2f(vertexBuffer, uv.x(), uv.y());
 				} else if (side == Side.RIGHT)
 				{
 					put3f(vertexBuffer, x + 0.5f - inset, y + 0.5f, z - 0.5f);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(2, 1, 1), lightBuffer.get(2, 2, 1), lightBuffer.get(2, 1, 0), lightBuffer.get(2, 2, 0));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(2, 1, 1), lightBuffer.getRaw(2, 2, 1), lightBuffer.getRaw(2, 1, 0), lightBuffer.getRaw(2, 2, 0));
 					put2f(vertexBuffer, uv.x(), uv.y());
 
 					put3f(vertexBuffer, x + 0.5f - inset, y + 0.5f, z + 0.5f);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(2, 1, 1), lightBuffer.get(2, 2, 2), lightBuffer.get(2, 2, 1), lightBuffer.get(2, 1, 2));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(2, 1, 1), lightBuffer.getRaw(2, 2, 2), lightBuffer.getRaw(2, 2, 1), lightBuffer.getRaw(2, 1, 2));
 					put2f(vertexBuffer, uv.x() + tileSize, uv.y());
 
 					put3f(vertexBuffer, x + 0.5f - inset, y - 0.5f, z + 0.5f);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(2, 1, 1), lightBuffer.get(2, 0, 2), lightBuffer.get(2, 0, 1), lightBuffer.get(2, 1, 2));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(2, 1, 1), lightBuffer.getRaw(2, 0, 2), lightBuffer.getRaw(2, 0, 1), lightBuffer.getRaw(2, 1, 2));
 					put2f(vertexBuffer, uv.x() + tileSize, uv.y() + tileSize);
 
 					put3f(vertexBuffer, x + 0.5f - inset, y - 0.5f, z - 0.5f);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(2, 1, 1), lightBuffer.get(2, 0, 0), lightBuffer.get(2, 0, 1), lightBuffer.get(2, 1, 0));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(2, 1, 1), lightBuffer.getRaw(2, 0, 0), lightBuffer.getRaw(2, 0, 1), lightBuffer.getRaw(2, 1, 0));
 					put2f(vertexBuffer, uv.x(), uv.y() + tileSize);
 				} else if (side == Side.BACK)
 				{
 					put3f(vertexBuffer, x - 0.5f, y + 0.5f, z - 0.5f + inset);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(1, 1, 0), lightBuffer.get(1, 2, 0), lightBuffer.get(0, 2, 0), lightBuffer.get(0, 1, 0));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(1, 2, 0), lightBuffer.getRaw(0, 2, 0), lightBuffer.getRaw(0, 1, 0));
 					put2f(vertexBuffer, uv.x(), uv.y());
 
 					put3f(vertexBuffer, x + 0.5f, y + 0.5f, z - 0.5f + inset);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(1, 1, 0), lightBuffer.get(1, 2, 0), lightBuffer.get(2, 2, 0), lightBuffer.get(2, 1, 0));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(1, 2, 0), lightBuffer.getRaw(2, 2, 0), lightBuffer.getRaw(2, 1, 0));
 					put2f(vertexBuffer, uv.x() + tileSize, uv.y());
 
 					put3f(vertexBuffer, x + 0.5f, y - 0.5f, z - 0.5f + inset);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(1, 1, 0), lightBuffer.get(1, 0, 0), lightBuffer.get(2, 0, 0), lightBuffer.get(2, 1, 0));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(1, 0, 0), lightBuffer.getRaw(2, 0, 0), lightBuffer.getRaw(2, 1, 0));
 					put2f(vertexBuffer, uv.x() + tileSize, uv.y() + tileSize);
 
 					put3f(vertexBuffer, x - 0.5f, y - 0.5f, z - 0.5f + inset);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(1, 1, 0), lightBuffer.get(1, 0, 0), lightBuffer.get(0, 0, 0), lightBuffer.get(0, 1, 0));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(1, 0, 0), lightBuffer.getRaw(0, 0, 0), lightBuffer.getRaw(0, 1, 0));
 					put2f(vertexBuffer, uv.x(), uv.y() + tileSize);
 				} else if (side == Side.BOTTOM)
 				{
 					put3f(vertexBuffer, x - 0.5f, y - 0.5f + inset, z - 0.5f);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(1, 0, 1), lightBuffer.get(1, 0, 0), lightBuffer.get(0, 0, 0), lightBuffer.get(0, 0, 1));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(1, 0, 1), lightBuffer.getRaw(1, 0, 0), lightBuffer.getRaw(0, 0, 0), lightBuffer.getRaw(0, 0, 1));
 					put2f(vertexBuffer, uv.x(), uv.y());
 
 					put3f(vertexBuffer, x + 0.5f, y - 0.5f + inset, z - 0.5f);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(1, 0, 1), lightBuffer.get(1, 0, 0), lightBuffer.get(2, 0, 0), lightBuffer.get(2, 0, 1));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(1, 0, 1), lightBuffer.getRaw(1, 0, 0), lightBuffer.getRaw(2, 0, 0), lightBuffer.getRaw(2, 0, 1));
 					put2f(vertexBuffer, uv.x() + tileSize, uv.y());
 
 					put3f(vertexBuffer, x + 0.5f, y - 0.5f + inset, z + 0.5f);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(1, 0, 1), lightBuffer.get(1, 0, 2), lightBuffer.get(2, 0, 2), lightBuffer.get(2, 0, 1));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(1, 0, 1), lightBuffer.getRaw(1, 0, 2), lightBuffer.getRaw(2, 0, 2), lightBuffer.getRaw(2, 0, 1));
 					put2f(vertexBuffer, uv.x() + tileSize, uv.y() + tileSize);
 
 					put3f(vertexBuffer, x - 0.5f, y - 0.5f + inset, z + 0.5f);
-					putColorWithLight4(vertexBuffer, color, lightBuffer.get(1, 0, 1), lightBuffer.get(1, 0, 2), lightBuffer.get(0, 0, 2), lightBuffer.get(0, 0, 1));
+					putColorWithLight4(vertexBuffer, color, lightBuffer.getRaw(1, 0, 1), lightBuffer.getRaw(1, 0, 2), lightBuffer.getRaw(0, 0, 2), lightBuffer.getRaw(0, 0, 1));
 					put2f(vertexBuffer, uv.x(), uv.y() + tileSize);
 				}
 			}
@@ -66,7 +66,7 @@ public class Redstone extends Block implements RedstoneLogic
 			return;
 		if (!_powered || power > _power)
 		{
-			_chunk.needsNewVBO();
+			_chunk.needsNewVBO(getY());
 			_power = Math.max(_power, power);
 			_powered = true;
 			refeedNeighbors();
@@ -98,7 +98,7 @@ public class Redstone extends Block implements RedstoneLogic
 			return;
 		if (_powered)
 		{
-			_chunk.needsNewVBO();
+			_chunk.needsNewVBO(getY());
 
 			if (power == _power)
 			{
@@ -176,189 +176,189 @@ public class Redstone extends Block implements RedstoneLogic
 		if ((cons == 1 && (connectedL || connectedR)) || (cons == 2 && (connectedL && connectedR)))
 		{
 			put3f(vbo, x - 0.5f, y, z - 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 0), lightBuffer.get(1, 1, 0), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 0), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_LINE.x() - MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_LINE.y() - MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + 0.5f, y, z - 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(1, 1, 0), lightBuffer.get(2, 1, 0), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(2, 1, 0), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_LINE.x() + MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_LINE.y() - MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + 0.5f, y, z + 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(2, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(2, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_LINE.x() + MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_LINE.y() + MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x - 0.5f, y, z + 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_LINE.x() - MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_LINE.y() + MAXIMUM_TEXTURE_SIZE);
 		} else if ((cons == 1 && (connectedF || connectedB)) || (cons == 2 && (connectedF && connectedB)))
 		{
 			put3f(vbo, x - 0.5f, y, z - 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 0), lightBuffer.get(1, 1, 0), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 0), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_LINE.x() - MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_LINE.y() + MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + 0.5f, y, z - 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(1, 1, 0), lightBuffer.get(2, 1, 0), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(2, 1, 0), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_LINE.x() - MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_LINE.y() - MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + 0.5f, y, z + 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(2, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(2, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_LINE.x() + MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_LINE.y() - MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x - 0.5f, y, z + 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_LINE.x() + MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_LINE.y() + MAXIMUM_TEXTURE_SIZE);
 		} else if (cons == 2 && (connectedL && connectedB))
 		{
 			put3f(vbo, x - 0.5f, y, z - 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 0), lightBuffer.get(1, 1, 0), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 0), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + MINIMUM_TERRAIN_SIZE, y, z - 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(1, 1, 0), lightBuffer.get(2, 1, 0), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(2, 1, 0), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MINIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + MINIMUM_TERRAIN_SIZE, y, z + MINIMUM_TERRAIN_SIZE);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(2, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(2, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MINIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MINIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x - 0.5f, y, z + MINIMUM_TERRAIN_SIZE);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MINIMUM_TEXTURE_SIZE);
 		} else if (cons == 2 && (connectedR && connectedB))
 		{
 			put3f(vbo, x - MINIMUM_TERRAIN_SIZE, y, z - 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 0), lightBuffer.get(1, 1, 0), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 0), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MINIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + 0.5f, y, z - 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(1, 1, 0), lightBuffer.get(2, 1, 0), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(2, 1, 0), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + 0.5f, y, z + MINIMUM_TERRAIN_SIZE);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(2, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(2, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MINIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x - MINIMUM_TERRAIN_SIZE, y, z + MINIMUM_TERRAIN_SIZE);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MINIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MINIMUM_TEXTURE_SIZE);
 		} else if (cons == 2 && (connectedR && connectedF))
 		{
 			put3f(vbo, x - MINIMUM_TERRAIN_SIZE, y, z - MINIMUM_TERRAIN_SIZE);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 0), lightBuffer.get(1, 1, 0), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 0), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MINIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MINIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + 0.5f, y, z - MINIMUM_TERRAIN_SIZE);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(1, 1, 0), lightBuffer.get(2, 1, 0), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(2, 1, 0), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MINIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + 0.5f, y, z + 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(2, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(2, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x - MINIMUM_TERRAIN_SIZE, y, z + 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MINIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MAXIMUM_TEXTURE_SIZE);
 		} else if (cons == 2 && (connectedL && connectedF))
 		{
 			put3f(vbo, x - 0.5f, y, z - MINIMUM_TERRAIN_SIZE);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 0), lightBuffer.get(1, 1, 0), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 0), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MINIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + MINIMUM_TERRAIN_SIZE, y, z - MINIMUM_TERRAIN_SIZE);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(1, 1, 0), lightBuffer.get(2, 1, 0), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(2, 1, 0), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MINIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MINIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + MINIMUM_TERRAIN_SIZE, y, z + 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(2, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(2, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MINIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x - 0.5f, y, z + 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MAXIMUM_TEXTURE_SIZE);
 		} else if (cons == 3 && (connectedR && connectedL && connectedB))
 		{
 			put3f(vbo, x - 0.5f, y, z - 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 0), lightBuffer.get(1, 1, 0), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 0), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + 0.5f, y, z - 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(1, 1, 0), lightBuffer.get(2, 1, 0), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(2, 1, 0), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + 0.5f, y, z + MINIMUM_TERRAIN_SIZE);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(2, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(2, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MINIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x - 0.5f, y, z + MINIMUM_TERRAIN_SIZE);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MINIMUM_TEXTURE_SIZE);
 		} else if (cons == 3 && (connectedR && connectedL && connectedF))
 		{
 			put3f(vbo, x - 0.5f, y, z - MINIMUM_TERRAIN_SIZE);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 0), lightBuffer.get(1, 1, 0), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 0), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MINIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + 0.5f, y, z - MINIMUM_TERRAIN_SIZE);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(1, 1, 0), lightBuffer.get(2, 1, 0), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(2, 1, 0), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MINIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + 0.5f, y, z + 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(2, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(2, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x - 0.5f, y, z + 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MAXIMUM_TEXTURE_SIZE);
 		} else if (cons == 3 && (connectedR && connectedF && connectedB))
 		{
 			put3f(vbo, x - MINIMUM_TERRAIN_SIZE, y, z - 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 0), lightBuffer.get(1, 1, 0), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 0), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MINIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + 0.5f, y, z - 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(1, 1, 0), lightBuffer.get(2, 1, 0), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(2, 1, 0), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + 0.5f, y, z + 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(2, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(2, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x - MINIMUM_TERRAIN_SIZE, y, z + 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MINIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MAXIMUM_TEXTURE_SIZE);
 		} else if (cons == 3 && (connectedL && connectedF && connectedB))
 		{
 			put3f(vbo, x - 0.5f, y, z - 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 0), lightBuffer.get(1, 1, 0), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 0), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + MINIMUM_TERRAIN_SIZE, y, z - 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(1, 1, 0), lightBuffer.get(2, 1, 0), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(2, 1, 0), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MINIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + MINIMUM_TERRAIN_SIZE, y, z + 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(2, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(2, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MINIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x - 0.5f, y, z + 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MAXIMUM_TEXTURE_SIZE);
 		} else if (cons == 4 || cons == 0)
 		{
 			put3f(vbo, x - 0.5f, y, z - 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 0), lightBuffer.get(1, 1, 0), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 0), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + 0.5f, y, z - 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(1, 1, 0), lightBuffer.get(2, 1, 0), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(1, 1, 0), lightBuffer.getRaw(2, 1, 0), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() - MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x + 0.5f, y, z + 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(2, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(2, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(2, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(2, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() + MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MAXIMUM_TEXTURE_SIZE);
 
 			put3f(vbo, x - 0.5f, y, z + 0.5f);
-			putColorWithLight4(vbo, v, lightBuffer.get(1, 1, 1), lightBuffer.get(0, 1, 2), lightBuffer.get(1, 1, 2), lightBuffer.get(0, 1, 1));
+			putColorWithLight4(vbo, v, lightBuffer.getRaw(1, 1, 1), lightBuffer.getRaw(0, 1, 2), lightBuffer.getRaw(1, 1, 2), lightBuffer.getRaw(0, 1, 1));
 			put2f(vbo, TEXTURE_CENTER_CROSS.x() - MAXIMUM_TEXTURE_SIZE, TEXTURE_CENTER_CROSS.y() + MAXIMUM_TEXTURE_SIZE);
 		}
 
@@ -115,8 +115,7 @@ public class RedstoneLamp extends DefaultBlock implements RedstoneLogic
 			super.storeInVBO(vbo, lightBuffer);
 		} else
 		{
-			BRUSH_POWERED.setFaceMask(getFaceMask());
-			BRUSH_POWERED.storeInVBO(vbo, getX() + 0.5f, getY() + 0.5f, getZ() + 0.5f, lightBuffer);
+			BRUSH_POWERED.storeInVBO(vbo, getX() + 0.5f, getY() + 0.5f, getZ() + 0.5f, lightBuffer, getFaceMask());
 		}
 	}
 
@@ -78,6 +78,13 @@ public class Fast3DByteArray
         _array[i] = b;
     }
 
+    /**
+     * Copies all values of an array with the same dimensions into this one.
+     */
+    public void copyFrom(Fast3DByteArray other) {
+        System.arraycopy(other._array, 0, _array, 0, _size);
+    }
+
     /**
      * Returns the size of this array.
      */
@@ -32,6 +32,7 @@ public class Configuration
 {
 
 	/* Predefined viewing distances */
+	public static final float VIEWING_DISTANCE_EXTREME = 180.0f;
 	public static final float VIEWING_DISTANCE_ULTRA = 120.0f;
 	public static final float VIEWING_DISTANCE_FAR = 90.0f;
 	public static final float VIEWING_DISTANCE_NORMAL = 60.0f;
@@ -52,10 +53,19 @@ public class Configuration
 	private String _texturePack;
 	private Vec3f _fogColor;
 	private ControlSettings.KeyboardPreset _keyboard;
+	private boolean _mappedChunkLoading;
+	private boolean _compressChunks;
+	private float _meshUploadBudget;
+	private boolean _greedyMeshing;
+	private boolean _occlusionCulling;
 
 	public Configuration()
 	{
 		_fogColor = new Vec3f(0.75f, 0.75f, 1.0f);
+		_mappedChunkLoading = true;
+		_compressChunks = true;
+		_meshUploadBudget = 3.0f;
+		_occlusionCulling = true;
 	}
 
 	public int getWidth()
@@ -130,6 +140,43 @@ public class Configuration
 		return _texturePack;
 	}
 
+	public boolean getMappedChunkLoading()
+	{
+		return _mappedChunkLoading;
+	}
+
+	public boolean getCompressChunks()
+	{
+		return _compressChunks;
+	}
+
+	/**
+	 * The time in milliseconds the main thread may spend per frame on
+	 * uploading chunk meshes.
+	 */
+	public float getMeshUploadBudget()
+	{
+		return _meshUploadBudget;
+	}
+
+	/**
+	 * Whether coplanar faces of opaque blocks are merged into larger quads.
+	 * This needs the terrain shader.
+	 */
+	public boolean getGreedyMeshing()
+	{
+		return _greedyMeshing;
+	}
+
+	/**
+	 * Whether chunk sections hidden behind other sections are skipped, by
+	 * walking through the sections that can be seen from the camera.
+	 */
+	public boolean getOcclusionCulling()
+	{
+		return _occlusionCulling;
+	}
+
 	public float getFOVY()
 	{
 		return _fovy;
@@ -182,6 +229,21 @@ public class Configuration
 			} else if (p.equals("fovy"))
 			{
 				_fovy = Integer.parseInt(v);
+			} else if (p.equals("mapped_chunk_loading"))
+			{
+				_mappedChunkLoading = Boolean.parseBoolean(v);
+			} else if (p.equals("compress_chunks"))
+			{
+				_compressChunks = Boolean.parseBoolean(v);
+			} else if (p.equals("mesh_upload_budget"))
+			{
+				_meshUploadBudget = Float.parseFloat(v);
+			} else if (p.equals("greedy_meshing"))
+			{
+				_greedyMeshing = Boolean.parseBoolean(v);
+			} else if (p.equals("occlusion_culling"))
+			{
+				_occlusionCulling = Boolean.parseBoolean(v);
 			} else if (p.equals("keyboard"))
 			{
 				_keyboard = KeyboardPreset.valueOf(v.toUpperCase());
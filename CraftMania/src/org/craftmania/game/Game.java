@@ -24,6 +24,7 @@ import java.util.logging.Logger;
 
 import org.craftmania.blocks.BlockManager;
 import org.craftmania.blocks.BlockXMLLoader;
+import org.craftmania.game.PerformanceMonitor.Counter;
 import org.craftmania.game.PerformanceMonitor.Operation;
 import org.craftmania.items.ItemXMLLoader;
 import org.craftmania.math.MathHelper;
@@ -40,6 +41,7 @@ import org.lwjgl.input.Mouse;
 import org.lwjgl.opengl.Display;
 import org.lwjgl.opengl.DisplayMode;
 import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GLContext;
 import org.lwjgl.opengl.NVFogDistance;
 
 public class Game
@@ -163,6 +165,7 @@ public class Game
 		
 		initOpenGL();
 		loadTextures();
+		loadShaders();
 		loadFonts();
 		loadItems();
 		loadBlocks();
@@ -238,6 +241,8 @@ public class Game
 
 	public void render()
 	{
+		PerformanceMonitor.getInstance().endFrame();
+
 		// Clear the screen and depth buffer
 		glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
 
@@ -260,7 +265,9 @@ public class Game
 		infoFont.print(4, _configuration.getHeight() - 20 - 15, "Sleeping: " + String.format("%4d", Game.getInstance().getSleepTime()));
 		infoFont.print(4, _configuration.getHeight() - 20 - 30, "Heap Size: " + MathHelper.bytesToMagaBytes(Runtime.getRuntime().totalMemory()) + " MB");
 		infoFont.print(4, _configuration.getHeight() - 20 - 45, "Heap Use:  " + MathHelper.bytesToMagaBytes(Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) + " MB");
-		infoFont.print(4, _configuration.getHeight() - 20 - 60, "Buffers: " + BufferManager.getInstance().getAliveBuffers());
+		infoFont.print(4, _configuration.getHeight() - 20 - 60, "Buffers: " + BufferManager.getInstance().getAliveBuffers() + " (" + (BufferManager.getInstance().getLiveBytes() >> 10) + " KB live, " + (BufferManager.getInstance().getPooledBytes() >> 10) + " KB pooled)");
+		PerformanceMonitor monitor = PerformanceMonitor.getInstance();
+		infoFont.print(4, _configuration.getHeight() - 20 - 75, "Draw Calls: " + monitor.get(Counter.DRAW_CALLS) + " (" + monitor.get(Counter.BUFFER_BINDS) + " buffer binds, " + monitor.get(Counter.STATE_CHANGES) + " state changes)");
 		
 		Operation[] ops = Operation.values();
 		for (int i = 0; i < ops.length; ++i)
@@ -406,6 +413,7 @@ public class Game
 		BufferManager.getInstance().deleteQueuedBuffers();
 		BlockManager.getInstance().release();
 		TextureStorage.release();
+		ShaderStorage.release();
 		FontStorage.release();
 		Display.destroy();
 	}
@@ -423,6 +431,17 @@ public class Game
 		TextureStorage.loadTexture("environment.clouds", "PNG", "environment/clouds.png");
 	}
 
+	private void loadShaders() throws IOException
+	{
+		if (GLContext.getCapabilities().OpenGL20)
+		{
+			ShaderStorage.loadShader("terrain", "terrain.vert", "terrain.frag");
+		} else
+		{
+			System.out.println("OpenGL 2.0 isn't supported, greedy meshing is disabled and sunlight is baked in the chunk meshes");
+		}
+	}
+
 	private void loadFonts() throws IOException
 	{
 		FontStorage.loadFont("Monospaced_20", "novamono.ttf", 22);
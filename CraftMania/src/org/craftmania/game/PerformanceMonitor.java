@@ -1,5 +1,7 @@
 package org.craftmania.game;
 
+import java.util.Arrays;
+
 import org.craftmania.utilities.MultiTimer;
 
 public class PerformanceMonitor
@@ -16,12 +18,52 @@ public class PerformanceMonitor
 	{
 		RENDER_ALL, RENDER_OPAQUE, RENDER_TRANSLUCENT, RENDER_MANUAL, RENDER_SKY, RENDER_CLOUDS, RENDER_OVERLAY,  UPDATE
 	}
+
+	/**
+	 * Things that are counted per frame.
+	 */
+	public static enum Counter
+	{
+		DRAW_CALLS, BUFFER_BINDS, STATE_CHANGES
+	}
 	
 	private MultiTimer _timer;
+	private int[] _counts;
+	private int[] _lastCounts;
 	
 	public PerformanceMonitor()
 	{
 		_timer = new MultiTimer(Operation.values().length);
+		_counts = new int[Counter.values().length];
+		_lastCounts = new int[Counter.values().length];
+	}
+
+	public void count(Counter counter)
+	{
+		_counts[counter.ordinal()]++;
+	}
+
+	public void count(Counter counter, int amount)
+	{
+		_counts[counter.ordinal()] += amount;
+	}
+
+	/**
+	 * Finishes counting for the current frame. The counts stay available
+	 * through {@link #get(Counter)} during the next frame.
+	 */
+	public void endFrame()
+	{
+		System.arraycopy(_counts, 0, _lastCounts, 0, _counts.length);
+		Arrays.fill(_counts, 0);
+	}
+
+	/**
+	 * Returns the count of the previous frame.
+	 */
+	public int get(Counter counter)
+	{
+		return _lastCounts[counter.ordinal()];
 	}
 	
 	public void start(Operation op)
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.game;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.craftmania.rendering.ShaderProgram;
+
+/**
+ * 
+ * @author martijncourteaux
+ */
+public class ShaderStorage
+{
+
+	private static Map<String, ShaderProgram> map = new HashMap<String, ShaderProgram>();
+
+	public static void release()
+	{
+		for (Entry<String, ShaderProgram> item : map.entrySet())
+		{
+			System.out.printf("Releasing '%s'%n", item.getKey());
+			item.getValue().release();
+		}
+		map.clear();
+	}
+
+	/**
+	 * Loads a shader program from <code>res/shaders/</code>. If the program
+	 * doesn't compile, the error is printed and null is returned.
+	 */
+	public static ShaderProgram loadShader(String id, String vertexResource, String fragmentResource) throws IOException
+	{
+		String vertexSource = readSource(new File("res/shaders/" + vertexResource));
+		String fragmentSource = readSource(new File("res/shaders/" + fragmentResource));
+		try
+		{
+			ShaderProgram program = new ShaderProgram(vertexSource, fragmentSource);
+			map.put(id, program);
+			return program;
+		} catch (IllegalStateException e)
+		{
+			System.err.println("Shader '" + id + "': " + e.getMessage());
+			return null;
+		}
+	}
+
+	private static String readSource(File file) throws IOException
+	{
+		Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		try
+		{
+			StringBuilder source = new StringBuilder();
+			char[] buffer = new char[1024];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+			{
+				source.append(buffer, 0, read);
+			}
+			return source.toString();
+		} finally
+		{
+			in.close();
+		}
+	}
+
+	public static ShaderProgram getShader(String id)
+	{
+		return map.get(id);
+	}
+}
@@ -305,7 +305,7 @@ public class MathHelper
 		return j - cantorY(c);
 	}
 
-	private static int cantorY(int c)
+	public static int cantorY(int c)
 	{
 		int j = (int) (Math.sqrt(0.25 + 2 * c) - 0.5);
 		return c - j * (j + 1) / 2;
@@ -1,6 +1,14 @@
 package org.craftmania.rendering;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.craftmania.rendering.ChunkMeshBuilder.MeshType;
 import org.craftmania.utilities.IntList;
+import org.craftmania.world.Chunk;
+import org.craftmania.world.LightBuffer;
 import org.lwjgl.opengl.GL15;
 
 public class BufferManager
@@ -17,15 +25,34 @@ public class BufferManager
 		return __instance;
 	}
 	
-	private IntList _buffersToDelete;
-	private IntList _buffers;
+	/*
+	 * VBOs are pooled by their capacity, which is a power of two, like the
+	 * buffers of the DirectBufferPool. Bigger buffers aren't pooled.
+	 */
+	private static final int MIN_SIZE_CLASS = 12; // 4 KB
+	private static final int MAX_SIZE_CLASS = 22; // 4 MB
+	private static final long MAX_POOLED_BYTES = 16L * 1024L * 1024L;
+
+	private IntList _buffersToRelease;
+	private IntList[] _freeBuffers;
+	private int _aliveBuffers;
+	private long _liveBytes;
+	private long _pooledBytes;
 	private Thread _mainThread;
+	private List<ChunkMeshUpload> _uploads;
+	private List<ChunkMeshUpload> _uploadsToProcess;
 	
 	private BufferManager()
 	{
 		_mainThread = Thread.currentThread();
-		_buffers = new IntList(512);
-		_buffersToDelete = new IntList(32);
+		_buffersToRelease = new IntList(32);
+		_freeBuffers = new IntList[MAX_SIZE_CLASS + 1];
+		for (int i = MIN_SIZE_CLASS; i <= MAX_SIZE_CLASS; ++i)
+		{
+			_freeBuffers[i] = new IntList(16);
+		}
+		_uploads = new ArrayList<ChunkMeshUpload>();
+		_uploadsToProcess = new ArrayList<ChunkMeshUpload>();
 	}
 	
 	private void verifyThread()
@@ -35,51 +62,260 @@ public class BufferManager
 			throw new IllegalThreadStateException("Trying to access buffer operations from wrong thread");
 		}
 	}
-	
-	public int createBuffer()
+
+	private static int sizeClass(int bytes)
+	{
+		int sizeClass = 32 - Integer.numberOfLeadingZeros(Math.max(bytes, 1) - 1);
+		return Math.max(sizeClass, MIN_SIZE_CLASS);
+	}
+
+	/**
+	 * Returns the capacity of the buffer that is used for the given number of
+	 * bytes.
+	 */
+	public static int getBufferCapacity(int bytes)
+	{
+		return 1 << sizeClass(bytes);
+	}
+
+	/**
+	 * Returns a VBO with the given capacity, see
+	 * {@link #getBufferCapacity(int)}. It is reused from the pool if possible.
+	 * The buffer is left bound to GL_ARRAY_BUFFER.
+	 */
+	public int acquireBuffer(int capacity)
 	{
 		verifyThread();
-		int buffer = GL15.glGenBuffers();
-		_buffers.add(buffer);
+		int sizeClass = sizeClass(capacity);
+		int buffer;
+		if (sizeClass <= MAX_SIZE_CLASS && _freeBuffers[sizeClass].size() > 0)
+		{
+			IntList free = _freeBuffers[sizeClass];
+			buffer = free.get(free.size() - 1);
+			free.removeIndex(free.size() - 1);
+			_pooledBytes -= capacity;
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, buffer);
+		} else
+		{
+			buffer = GL15.glGenBuffers();
+			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, buffer);
+			GL15.glBufferData(GL15.GL_ARRAY_BUFFER, capacity, GL15.GL_STATIC_DRAW);
+			_aliveBuffers++;
+		}
+		_liveBytes += capacity;
 		return buffer;
 	}
-	
-	public void deleteBuffer(int buffer)
+
+	/**
+	 * Gives a VBO back to the pool. This can be called from any thread: the
+	 * buffers released by other threads are handled in
+	 * {@link #deleteQueuedBuffers()}.
+	 */
+	public void releaseBuffer(int buffer, int capacity)
 	{
 		if (_mainThread == Thread.currentThread())
 		{
-			deleteBufferDirect(buffer);
+			releaseBufferDirect(buffer, capacity);
 		} else
 		{
-			_buffersToDelete.add(buffer);
+			synchronized (_buffersToRelease)
+			{
+				_buffersToRelease.add(buffer);
+				_buffersToRelease.add(capacity);
+			}
 		}
 	}
 
-	private void deleteBufferDirect(int buffer)
+	private void releaseBufferDirect(int buffer, int capacity)
 	{
-		GL15.glDeleteBuffers(buffer);
-		_buffers.removeValue(buffer);
+		_liveBytes -= capacity;
+		int sizeClass = sizeClass(capacity);
+		if (sizeClass <= MAX_SIZE_CLASS && _pooledBytes + capacity <= MAX_POOLED_BYTES)
+		{
+			_freeBuffers[sizeClass].add(buffer);
+			_pooledBytes += capacity;
+		} else
+		{
+			GL15.glDeleteBuffers(buffer);
+			_aliveBuffers--;
+		}
 	}
 	
+	/**
+	 * Handles the buffers released by other threads.
+	 * 
+	 * @return the number of released buffers
+	 */
 	public int deleteQueuedBuffers()
 	{
-		int count = _buffersToDelete.size();
-		
-		if (count == 0)
+		synchronized (_buffersToRelease)
+		{
+			int count = _buffersToRelease.size() / 2;
+			for (int i = 0; i < count; ++i)
+			{
+				releaseBufferDirect(_buffersToRelease.get(i * 2), _buffersToRelease.get(i * 2 + 1));
+			}
+			_buffersToRelease.clear();
+			return count;
+		}
+	}
+	
+	/**
+	 * Queues meshes built by a worker thread. They are uploaded by the main
+	 * thread in {@link #uploadQueuedMeshes(float, float, long)}.
+	 */
+	public void queueUpload(ChunkMeshUpload upload)
+	{
+		synchronized (_uploads)
+		{
+			_uploads.add(upload);
+		}
+	}
+
+	/**
+	 * Uploads the queued meshes, closest to the given position first, until
+	 * the time budget is used. At least one mesh is uploaded per call.
+	 * 
+	 * @return the number of uploaded meshes
+	 */
+	public int uploadQueuedMeshes(final float x, final float z, long budgetNanos)
+	{
+		verifyThread();
+		synchronized (_uploads)
+		{
+			_uploadsToProcess.addAll(_uploads);
+			_uploads.clear();
+		}
+		if (_uploadsToProcess.isEmpty())
+		{
 			return 0;
-		
-		for (int i = 0; i < count; ++i)
+		}
+
+		Collections.sort(_uploadsToProcess, new Comparator<ChunkMeshUpload>()
+		{
+			@Override
+			public int compare(ChunkMeshUpload o1, ChunkMeshUpload o2)
+			{
+				return Float.compare(distanceSquared(o1.getChunk(), x, z), distanceSquared(o2.getChunk(), x, z));
+			}
+		});
+
+		long start = System.nanoTime();
+		int count = 0;
+		while (count < _uploadsToProcess.size())
 		{
-			deleteBufferDirect(_buffersToDelete.get(i));
+			upload(_uploadsToProcess.get(count));
+			++count;
+			if (System.nanoTime() - start > budgetNanos)
+			{
+				break;
+			}
 		}
-		_buffersToDelete.clear();
-		
+		_uploadsToProcess.subList(0, count).clear();
+
 		return count;
 	}
-	
+
+	public int getQueuedUploads()
+	{
+		synchronized (_uploads)
+		{
+			return _uploads.size() + _uploadsToProcess.size();
+		}
+	}
+
+	private static float distanceSquared(Chunk chunk, float x, float z)
+	{
+		float xDiff = chunk.getAbsoluteX() + Chunk.CHUNK_SIZE_HORIZONTAL / 2 - x;
+		float zDiff = chunk.getAbsoluteZ() + Chunk.CHUNK_SIZE_HORIZONTAL / 2 - z;
+		return xDiff * xDiff + zDiff * zDiff;
+	}
+
+	private void upload(ChunkMeshUpload upload)
+	{
+		Chunk chunk = upload.getChunk();
+		if (chunk.isDestroying() || chunk.getMeshGeneration() != upload.getMeshGeneration())
+		{
+			/* The chunk got unloaded while building */
+			upload.release();
+			chunk.meshBuildFinished();
+			return;
+		}
+
+		ChunkMesh mesh = chunk.getMesh();
+		if (mesh == null)
+		{
+			mesh = new ChunkMesh();
+			chunk.setMesh(mesh);
+		}
+
+		int sections = upload.getSections();
+		for (int section = 0; section < Chunk.SECTION_COUNT; ++section)
+		{
+			if ((sections & (1 << section)) == 0)
+			{
+				continue;
+			}
+			for (MeshType meshType : MeshType.values())
+			{
+				int vertexCount = upload.getVertexCount(section, meshType);
+				if (vertexCount == 0)
+				{
+					mesh.destroy(section, meshType);
+					continue;
+				}
+
+				/* Keep the old buffer if the new vertices fit without wasting half of it */
+				int bytes = vertexCount * ChunkMeshBuilder.PACKED_VERTEX_SIZE;
+				int capacity = getBufferCapacity(bytes);
+				int vbo = mesh.getVBO(section, meshType);
+				int oldCapacity = mesh.getCapacity(section, meshType);
+				if (vbo > 0 && (bytes > oldCapacity || oldCapacity > capacity * 2))
+				{
+					mesh.destroy(section, meshType);
+					vbo = 0;
+				}
+				if (vbo > 0)
+				{
+					GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+				} else
+				{
+					vbo = acquireBuffer(capacity);
+					mesh.setVBO(section, meshType, vbo, capacity);
+				}
+				GL15.glBufferSubData(GL15.GL_ARRAY_BUFFER, 0, upload.getData(section, meshType));
+				mesh.setVertexCount(section, meshType, vertexCount);
+			}
+			mesh.setSectionBounds(section, chunk.getAbsoluteX(), chunk.getAbsoluteZ(), upload.getSectionMinY(section), upload.getSectionMaxY(section));
+		}
+		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+
+		/* Manually rendered blocks use the light the mesh was built with */
+		LightBuffer old = chunk.setLightBuffer(upload.takeLightBuffer());
+		ChunkMeshBuilder.releaseLightBuffer(old);
+		upload.release();
+		chunk.meshBuildFinished();
+	}
+
 	public int getAliveBuffers()
 	{
-		return _buffers.size();
+		return _aliveBuffers;
+	}
+
+	/**
+	 * Returns the capacity of the VBOs in use, in bytes.
+	 */
+	public long getLiveBytes()
+	{
+		return _liveBytes;
+	}
+
+	/**
+	 * Returns the capacity of the VBOs waiting in the pool, in bytes.
+	 */
+	public long getPooledBytes()
+	{
+		return _pooledBytes;
 	}
 	
 }
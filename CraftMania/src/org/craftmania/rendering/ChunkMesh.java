@@ -15,59 +15,127 @@
  ******************************************************************************/
 package org.craftmania.rendering;
 
+import org.craftmania.datastructures.AABB;
+import org.craftmania.math.Vec3f;
 import org.craftmania.rendering.ChunkMeshBuilder.MeshType;
+import org.craftmania.world.Chunk;
 
+/**
+ * The VBOs of a chunk. Each section of {@link Chunk#SECTION_HEIGHT} blocks high
+ * has its own VBOs, so a change only rebuilds the sections around it, and
+ * sections outside the view frustum aren't drawn.
+ */
 public class ChunkMesh
 {
-	private int _vertexCount[];
-	private int[] _vbos;
+	private int[][] _vertexCount;
+	private int[][] _vbos;
+	private int[][] _capacity;
+	private AABB[] _sectionAABBs;
 
-	public ChunkMesh(int[] vertexCount, int[] vbos)
+	public ChunkMesh()
 	{
-		super();
-		this._vertexCount = vertexCount;
-		this._vbos = vbos;
+		_vbos = new int[Chunk.SECTION_COUNT][MeshType.values().length];
+		_vertexCount = new int[Chunk.SECTION_COUNT][MeshType.values().length];
+		_capacity = new int[Chunk.SECTION_COUNT][MeshType.values().length];
+		_sectionAABBs = new AABB[Chunk.SECTION_COUNT];
 	}
 
-	public ChunkMesh()
+	/**
+	 * @param capacity
+	 *            the capacity of the buffer in bytes, it is reused as long as
+	 *            the mesh fits
+	 */
+	public void setVBO(int section, MeshType meshType, int vbo, int capacity)
 	{
-		_vbos = new int[MeshType.values().length];
-		_vertexCount = new int[MeshType.values().length];
+		this._vbos[section][meshType.ordinal()] = vbo;
+		this._capacity[section][meshType.ordinal()] = capacity;
 	}
 
-	public void setVBO(MeshType meshType, int vbo)
+	public void setVertexCount(int section, MeshType meshType, int vertexCount)
 	{
-		this._vbos[meshType.ordinal()] = vbo;
+		this._vertexCount[section][meshType.ordinal()] = vertexCount;
 	}
 
-	public void setVertexCount(MeshType meshType, int vertexCount)
+	public int getVBO(int section, MeshType meshType)
 	{
-		this._vertexCount[meshType.ordinal()] = vertexCount;
+		return _vbos[section][meshType.ordinal()];
 	}
 
-	public int getVBO(MeshType meshType)
+	public int getVertexCount(int section, MeshType meshType)
 	{
-		return _vbos[meshType.ordinal()];
+		return _vertexCount[section][meshType.ordinal()];
 	}
 
-	public int getVertexCount(MeshType meshType)
+	public int getCapacity(int section, MeshType meshType)
 	{
-		return _vertexCount[meshType.ordinal()];
+		return _capacity[section][meshType.ordinal()];
 	}
 
-	public synchronized void destroy(MeshType meshType)
+	/**
+	 * Returns true if any section has vertices of the given type.
+	 */
+	public boolean hasVertices(MeshType meshType)
 	{
-		if (_vbos[meshType.ordinal()] != 0 && _vbos[meshType.ordinal()] != -1)
+		for (int section = 0; section < Chunk.SECTION_COUNT; ++section)
 		{
-			BufferManager.getInstance().deleteBuffer(_vbos[meshType.ordinal()]);
-			_vbos[meshType.ordinal()] = 0;
-			_vertexCount[meshType.ordinal()] = 0;
+			if (_vbos[section][meshType.ordinal()] > 0)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the box around the blocks of the section, or null if the section
+	 * has no visible blocks.
+	 */
+	public AABB getSectionAABB(int section)
+	{
+		return _sectionAABBs[section];
+	}
+
+	/**
+	 * Sets the box around the visible blocks of the section, which spans the
+	 * width of the chunk and the given heights.
+	 */
+	public void setSectionBounds(int section, int absX, int absZ, int minY, int maxY)
+	{
+		if (minY > maxY)
+		{
+			_sectionAABBs[section] = null;
+			return;
+		}
+		AABB aabb = _sectionAABBs[section];
+		if (aabb == null)
+		{
+			aabb = new AABB(new Vec3f(), new Vec3f());
+			_sectionAABBs[section] = aabb;
+		}
+		float halfSize = Chunk.CHUNK_SIZE_HORIZONTAL * 0.5f;
+		aabb.getPosition().set(absX + halfSize, (minY + maxY + 1) * 0.5f, absZ + halfSize);
+		aabb.getDimensions().set(halfSize, (maxY + 1 - minY) * 0.5f, halfSize);
+		aabb.recalcVertices();
+	}
+
+	public synchronized void destroy(int section, MeshType meshType)
+	{
+		int[] vbos = _vbos[section];
+		if (vbos[meshType.ordinal()] != 0 && vbos[meshType.ordinal()] != -1)
+		{
+			BufferManager.getInstance().releaseBuffer(vbos[meshType.ordinal()], _capacity[section][meshType.ordinal()]);
+			vbos[meshType.ordinal()] = 0;
+			_vertexCount[section][meshType.ordinal()] = 0;
+			_capacity[section][meshType.ordinal()] = 0;
 		}
 	}
 
 	public void destroyAllMeshes()
 	{
-		destroy(MeshType.OPAQUE);
-		destroy(MeshType.TRANSLUCENT);
+		for (int section = 0; section < Chunk.SECTION_COUNT; ++section)
+		{
+			destroy(section, MeshType.OPAQUE);
+			destroy(section, MeshType.TRANSLUCENT);
+		}
 	}
 }
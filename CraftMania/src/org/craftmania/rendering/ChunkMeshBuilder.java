@@ -15,21 +15,28 @@
  ******************************************************************************/
 package org.craftmania.rendering;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.craftmania.Side;
 import org.craftmania.blocks.Block;
 import org.craftmania.blocks.BlockManager;
 import org.craftmania.blocks.BlockType;
+import org.craftmania.blocks.DefaultBlockBrush;
+import org.craftmania.game.Game;
+import org.craftmania.game.ShaderStorage;
 import org.craftmania.math.MathHelper;
+import org.craftmania.math.Vec2f;
 import org.craftmania.math.Vec3f;
 import org.craftmania.math.Vec3i;
-import org.craftmania.utilities.IntList;
 import org.craftmania.world.Chunk;
 import org.craftmania.world.ChunkData;
 import org.craftmania.world.LightBuffer;
-import org.lwjgl.opengl.GL11;
-import org.lwjgl.opengl.GL15;
 
 public class ChunkMeshBuilder
 {
@@ -37,15 +44,32 @@ public class ChunkMeshBuilder
 	
 	public static final Vec3f COLOR_WHITE = new Vec3f(1, 1, 1);
 
-	public static final int STRIDE = 8;
+	public static final int STRIDE = 10;
 	public static final int POSITION_SIZE = 3;
 	public static final int POSITION_OFFSET = 0;
 	public static final int COLOR_SIZE = 3;
 	public static final int COLOR_OFFSET = POSITION_OFFSET + POSITION_SIZE;
+	public static final int LIGHT_SIZE = 2;
+	public static final int LIGHT_OFFSET = COLOR_OFFSET + COLOR_SIZE;
 	public static final int TEX_COORD_SIZE = 2;
-	public static final int TEX_COORD_OFFSET = COLOR_OFFSET + COLOR_SIZE;
+	public static final int TEX_COORD_OFFSET = LIGHT_OFFSET + LIGHT_SIZE;
 	public static final int FLOAT_SIZE = 4;
 
+	/*
+	 * The layout of the uploaded vertices. Blocks store the float layout above
+	 * in a staging buffer, which is packed into 16 bytes per vertex:
+	 * chunk-relative position as 3 fixed point shorts, sunlight and block
+	 * light as unsigned bytes, RGBA color as unsigned bytes and texture
+	 * coordinates as 2 fixed point shorts.
+	 */
+	public static final int PACKED_VERTEX_SIZE = 16;
+	public static final int PACKED_POSITION_OFFSET = 0;
+	public static final int PACKED_LIGHT_OFFSET = 6;
+	public static final int PACKED_COLOR_OFFSET = 8;
+	public static final int PACKED_TEX_COORD_OFFSET = 12;
+	public static final float PACKED_POSITION_SCALE = 64.0f;
+	public static final float PACKED_TEX_COORD_SCALE = 8192.0f;
+
 	public static enum MeshType
 	{
 		OPAQUE, TRANSLUCENT
@@ -53,22 +77,200 @@ public class ChunkMeshBuilder
 
 	private static BlockManager _blockManager = BlockManager.getInstance();
 
-	private static int USED_SIZE = 0;
 	private static boolean SMOOTH_LIGHTING = true;
 
-	public static void generateChunkMesh(Chunk chunk, MeshType meshType)
+	private static final int MAX_POOLED_LIGHT_BUFFERS = 8;
+	private static final List<LightBuffer> _lightBufferPool = new ArrayList<LightBuffer>();
+
+	/**
+	 * Merged quads store their texture coordinates as
+	 * <code>GREEDY_UV_BASE + tile * GREEDY_UV_TILE_STEP + blocks</code>. The
+	 * terrain shader decodes them and repeats the tile once per block.
+	 */
+	public static final float GREEDY_UV_BASE = 2.0f;
+	public static final float GREEDY_UV_TILE_STEP = 512.0f;
+
+	private static final ThreadLocal<FloatBuffer> _stagingBuffer = new ThreadLocal<FloatBuffer>();
+
+	private static final ThreadLocal<int[]> _greedyKeys = new ThreadLocal<int[]>()
 	{
-		if (DEBUG)
-		System.out.println("Building " + meshType.name() + " Mesh for " + chunk.toString() + "...");
+		@Override
+		protected int[] initialValue()
+		{
+			return new int[Chunk.BLOCK_COUNT];
+		}
+	};
+
+	private static final AtomicLong _naiveVertexCount = new AtomicLong();
+	private static final AtomicLong _builtVertexCount = new AtomicLong();
+	private static final AtomicLong _buildTime = new AtomicLong();
+	private static final AtomicLong _buildCount = new AtomicLong();
+
+	/**
+	 * Returns true if opaque meshes are built with merged quads. This needs
+	 * the terrain shader to be loaded.
+	 */
+	public static boolean isGreedyMeshing()
+	{
+		return Game.getInstance().getConfiguration().getGreedyMeshing() && ShaderStorage.getShader("terrain") != null;
+	}
+
+	/**
+	 * Returns true if the terrain shader applies the sunlight of the world,
+	 * so meshes don't have to be rebuilt when it changes. Without the shader,
+	 * the light is baked into the vertex colors.
+	 */
+	public static boolean isSunlightSeparated()
+	{
+		return ShaderStorage.getShader("terrain") != null;
+	}
+
+	/**
+	 * Returns the number of vertices all built meshes would have had with one
+	 * quad per face.
+	 */
+	public static long getNaiveVertexCount()
+	{
+		return _naiveVertexCount.get();
+	}
 
-		/* Make sure there are no list edits anymore */
-		chunk.performListChanges();
+	/**
+	 * Returns the number of vertices of all built meshes.
+	 */
+	public static long getBuiltVertexCount()
+	{
+		return _builtVertexCount.get();
+	}
 
-		ChunkMesh mesh = chunk.getMesh();
-		mesh.destroy(meshType);
+	/**
+	 * Returns the average time it took to build the meshes of a chunk, in
+	 * nanoseconds.
+	 */
+	public static long getAverageBuildTime()
+	{
+		long count = _buildCount.get();
+		if (count == 0)
+		{
+			return 0;
+		}
+		return _buildTime.get() / count;
+	}
+
+	/**
+	 * Builds the vertex data of the meshes of the given sections of the chunk
+	 * into pooled buffers. This doesn't use OpenGL, so it can run on any
+	 * thread. Returns null if the chunk changed while building.
+	 * 
+	 * @param visibleBlocks
+	 *            a snapshot of the visible blocks of the chunk
+	 * @param minY
+	 *            the lowest visible block of the chunk
+	 * @param maxY
+	 *            the highest visible block of the chunk
+	 * @param sections
+	 *            the sections to build, one bit per section
+	 */
+	public static ChunkMeshUpload buildChunkMeshes(Chunk chunk, int[] visibleBlocks, int minY, int maxY, int sections)
+	{
+		long start = System.nanoTime();
+		LightBuffer lightBuffer = acquireLightBuffer();
+		if (sections == Chunk.ALL_SECTIONS)
+		{
+			lightBuffer.buffer(chunk, minY, maxY);
+		} else
+		{
+			/*
+			 * The light of the other sections didn't change since the last
+			 * build, only buffer the light around the sections to build.
+			 */
+			lightBuffer.copyFrom(chunk.getLightBuffer());
+			for (int section = 0; section < Chunk.SECTION_COUNT; ++section)
+			{
+				if ((sections & (1 << section)) != 0)
+				{
+					int sectionY = section * Chunk.SECTION_HEIGHT;
+					lightBuffer.buffer(chunk, Math.max(0, sectionY - 1), Math.min(Chunk.CHUNK_SIZE_VERTICAL - 1, sectionY + Chunk.SECTION_HEIGHT));
+				}
+			}
+		}
+
+		ChunkMeshUpload upload = new ChunkMeshUpload(chunk, lightBuffer, sections);
+		try
+		{
+			int[][] sectionBlocks = splitSections(visibleBlocks, sections);
+			for (int section = 0; section < Chunk.SECTION_COUNT; ++section)
+			{
+				int[] blocks = sectionBlocks[section];
+				if (blocks == null)
+				{
+					continue;
+				}
+				buildChunkMesh(chunk, section, MeshType.OPAQUE, blocks, lightBuffer, upload);
+				buildChunkMesh(chunk, section, MeshType.TRANSLUCENT, blocks, lightBuffer, upload);
+
+				int sectionMinY = Chunk.CHUNK_SIZE_VERTICAL, sectionMaxY = -1;
+				for (int i = 0; i < blocks.length; ++i)
+				{
+					int y = (blocks[i] / Chunk.CHUNK_SIZE_HORIZONTAL) % Chunk.CHUNK_SIZE_VERTICAL;
+					sectionMinY = Math.min(sectionMinY, y);
+					sectionMaxY = Math.max(sectionMaxY, y);
+				}
+				upload.setSectionBounds(section, sectionMinY, sectionMaxY);
+			}
+		} catch (BufferOverflowException e)
+		{
+			/* A block became visible after counting the vertices */
+			upload.release();
+			return null;
+		}
+		_buildTime.addAndGet(System.nanoTime() - start);
+		_buildCount.incrementAndGet();
+		return upload;
+	}
+
+	/**
+	 * Splits the visible blocks per section, keeping their order. Sections
+	 * that aren't built get null.
+	 */
+	private static int[][] splitSections(int[] visibleBlocks, int sections)
+	{
+		int[] counts = new int[Chunk.SECTION_COUNT];
+		for (int i = 0; i < visibleBlocks.length; ++i)
+		{
+			counts[sectionOf(visibleBlocks[i])]++;
+		}
+		int[][] result = new int[Chunk.SECTION_COUNT][];
+		for (int section = 0; section < Chunk.SECTION_COUNT; ++section)
+		{
+			if ((sections & (1 << section)) != 0)
+			{
+				result[section] = new int[counts[section]];
+				counts[section] = 0;
+			}
+		}
+		for (int i = 0; i < visibleBlocks.length; ++i)
+		{
+			int section = sectionOf(visibleBlocks[i]);
+			if (result[section] != null)
+			{
+				result[section][counts[section]++] = visibleBlocks[i];
+			}
+		}
+		return result;
+	}
+
+	private static int sectionOf(int blockIndex)
+	{
+		return ((blockIndex / Chunk.CHUNK_SIZE_HORIZONTAL) % Chunk.CHUNK_SIZE_VERTICAL) / Chunk.SECTION_HEIGHT;
+	}
+
+	private static void buildChunkMesh(Chunk chunk, int section, MeshType meshType, int[] visibleBlocks, LightBuffer lightBuffer, ChunkMeshUpload upload)
+	{
+		if (DEBUG)
+		System.out.println("Building " + meshType.name() + " Mesh of section " + section + " for " + chunk.toString() + "...");
 
 		/* Compute vertex count */
-		int vertexCount = chunk.getVertexCount(meshType);
+		int vertexCount = chunk.getVertexCount(meshType, visibleBlocks);
 		if (DEBUG)
 		System.out.println("\tVertex Count = " + vertexCount);
 		/*
@@ -79,63 +281,40 @@ public class ChunkMeshBuilder
 		{
 			return;
 		}
-		mesh.setVertexCount(meshType, vertexCount);
-
-		/* Create a buffer */
-		int vbo = BufferManager.getInstance().createBuffer();
-		mesh.setVBO(meshType, vbo);
 
-		/* Bind the buffer */
-		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+		/* Get a buffer to write to */
+		FloatBuffer vertexBuffer = getStagingBuffer(vertexCount * STRIDE);
 
-		/* Allocate size for the buffer */
-		int size = vertexCount * STRIDE * FLOAT_SIZE;
-		GL15.glBufferData(GL15.GL_ARRAY_BUFFER, size, GL15.GL_STATIC_DRAW);
-		
-		if (DEBUG)
-		System.out.println("\tCreate VBO: " + vbo + " with size = " + size + " (ERROR: " + GL11.glGetError() + ")");
-
-		/* Get the native buffer to write to */
-		ByteBuffer byteBuffer = GL15.glMapBuffer(GL15.GL_ARRAY_BUFFER, GL15.GL_WRITE_ONLY, size, null);
-		if (byteBuffer == null)
+		/*
+		 * Merge the faces of default blocks first. The faces that are left
+		 * are stored one quad per face below.
+		 */
+		byte[] faceMasks = null;
+		if (meshType == MeshType.OPAQUE && isGreedyMeshing())
 		{
-			System.out.println("\tCouldn't create a native VBO!: GL Error Code = " + GL11.glGetError());
-
-			GL15.glUnmapBuffer(GL15.GL_ARRAY_BUFFER);
-			GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
-
-			mesh.destroy(meshType);
-			Thread.dumpStack();
-			mesh.setVBO(meshType, -1);
-			mesh.setVertexCount(meshType, 0);
-
-			return;
+			visibleBlocks = visibleBlocks.clone();
+			Arrays.sort(visibleBlocks);
+			faceMasks = storeGreedyQuads(chunk, visibleBlocks, lightBuffer, vertexBuffer);
 		}
 
-		FloatBuffer vertexBuffer = byteBuffer.asFloatBuffer();
-
-		/* Store all vertices in the buffer */
-		USED_SIZE = 0;
-
 		/* Local temporary variables, used to speed up */
-		IntList blockList = chunk.getVisibleBlocks();
+		ChunkData data = chunk.getChunkData();
 		int blockIndex = -1;
 		byte blockType = 0;
+		byte faceMask = 0;
 		boolean special = false;
 		Vec3i vec = new Vec3i();
 		BlockType type;
 		Block block = null;
-		LightBuffer lightBuffer = chunk.getLightBuffer();
-		byte faceMask = 0;
 
 		/* Iterate over the blocks */
-		for (int i = 0; i < blockList.size(); ++i)
+		for (int i = 0; i < visibleBlocks.length; ++i)
 		{
-			blockIndex = blockList.get(i);
-			blockType = chunk.getChunkData().getBlockType(blockIndex);
+			blockIndex = visibleBlocks[i];
+			blockType = data.getBlockType(blockIndex);
 			if (blockType == 0)
 				continue;
-			special = chunk.getChunkData().isSpecial(blockIndex);
+			special = data.isSpecial(blockIndex);
 			type = _blockManager.getBlockType(blockType);
 
 			if ((meshType == MeshType.OPAQUE && !type.isTranslucent() && type.hasNormalAABB()) || (meshType == MeshType.TRANSLUCENT && (type.isTranslucent() || !type.hasNormalAABB())))
@@ -152,7 +331,7 @@ public class ChunkMeshBuilder
 
 				if (special)
 				{
-					block = chunk.getChunkData().getSpecialBlock(blockIndex);
+					block = data.getSpecialBlock(blockIndex);
 					if (block.isVisible())
 					{
 						block.storeInVBO(vertexBuffer, lightBuffer);
@@ -164,76 +343,428 @@ public class ChunkMeshBuilder
 						type.getCrossedBlockBrush().storeInVBO(vertexBuffer, vec.x() + 0.5f, vec.y() + 0.5f, vec.z() + 0.5f, lightBuffer);
 					} else
 					{
-						faceMask = chunk.getChunkData().getFaceMask(blockIndex);
-						type.getDefaultBlockBrush().setFaceMask(faceMask);
-						type.getBrush().storeInVBO(vertexBuffer, vec.x() + 0.5f, vec.y() + 0.5f, vec.z() + 0.5f, lightBuffer);
+						faceMask = faceMasks == null ? data.getFaceMask(blockIndex) : faceMasks[i];
+						type.getDefaultBlockBrush().storeInVBO(vertexBuffer, vec.x() + 0.5f, vec.y() + 0.5f, vec.z() + 0.5f, lightBuffer, faceMask);
 					}
 				}
 			}
 		}
 
 		/* Perform a check */
-		if (USED_SIZE != STRIDE * FLOAT_SIZE * mesh.getVertexCount(meshType))
+		int storedVertexCount = vertexBuffer.position() / STRIDE;
+		if (faceMasks == null && storedVertexCount != vertexCount)
 		{
-			System.out.println("\t[WARNING!]: Used size = " + USED_SIZE);
-			System.out.println("\t[WARNING!]: Vertex count = " + USED_SIZE / STRIDE / FLOAT_SIZE);
-			mesh.setVertexCount(meshType, USED_SIZE / STRIDE / FLOAT_SIZE);
+			System.out.println("\t[WARNING!]: Vertex count = " + storedVertexCount + " instead of " + vertexCount);
 		}
 
+		/* Pack the vertices into the buffer that gets uploaded */
+		ByteBuffer byteBuffer = DirectBufferPool.getInstance().acquire(storedVertexCount * PACKED_VERTEX_SIZE);
+		upload.setData(section, meshType, byteBuffer, 0);
+		packVertices(vertexBuffer.array(), storedVertexCount, chunk.getAbsoluteX(), chunk.getAbsoluteZ(), byteBuffer, !isSunlightSeparated(), chunk.getWorld().getSunlight());
 		byteBuffer.flip();
+		upload.setData(section, meshType, byteBuffer, storedVertexCount);
+
+		_naiveVertexCount.addAndGet(vertexCount);
+		_builtVertexCount.addAndGet(storedVertexCount);
+	}
+
+	/**
+	 * Merges the faces of opaque default blocks with the same type and light
+	 * into larger quads and stores them in the buffer. Only faces with the
+	 * same light on all their corners are merged, so the smooth lighting
+	 * doesn't change.
+	 * 
+	 * @param blocks
+	 *            the visible blocks, sorted
+	 * @return the faces of each block that still have to be stored
+	 */
+	private static byte[] storeGreedyQuads(Chunk chunk, int[] blocks, LightBuffer lightBuffer, FloatBuffer vertexBuffer)
+	{
+		ChunkData data = chunk.getChunkData();
+		int[] keys = _greedyKeys.get();
+		byte[] faceMasks = new byte[blocks.length];
+		byte[] types = new byte[blocks.length];
+		DefaultBlockBrush[] brushes = new DefaultBlockBrush[blocks.length];
+		Vec3i vec = new Vec3i();
+
+		/* Find the blocks of which the faces can be merged */
+		for (int i = 0; i < blocks.length; ++i)
+		{
+			int blockData = data.getBlockData(blocks[i]);
+			types[i] = (byte) ((blockData & 0xFF0000) >>> 16);
+			faceMasks[i] = ChunkData.dataGetFaceMask(blockData);
+			if (types[i] == 0 || ChunkData.dataIsSpecial(blockData))
+			{
+				continue;
+			}
+			BlockType type = _blockManager.getBlockType(types[i]);
+			if (!type.isTranslucent() && type.hasNormalAABB() && !type.isCrossed())
+			{
+				brushes[i] = type.getDefaultBlockBrush();
+			}
+		}
+
+		try
+		{
+			for (Side side : Side.values())
+			{
+				int bit = 1 << side.ordinal();
+				Vec3i normal = side.getNormal();
+
+				/* Mark the faces that can be merged, per block */
+				for (int i = 0; i < blocks.length; ++i)
+				{
+					if (brushes[i] == null || (faceMasks[i] & bit) == 0 || brushes[i].getInset(side) != 0.0f)
+					{
+						continue;
+					}
+					ChunkData.indexToPosition(blocks[i], vec);
+					lightBuffer.setReferencePoint(vec.x() + chunk.getAbsoluteX(), vec.y(), vec.z() + chunk.getAbsoluteZ());
+					int light = getUniformLight(lightBuffer, normal);
+					if (light == -1)
+					{
+						continue;
+					}
+					keys[blocks[i]] = 0x10000 | ((types[i] & 0xFF) << 8) | light;
+					faceMasks[i] &= ~bit;
+				}
+
+				/*
+				 * Grow a rectangle from each marked face. The blocks are sorted, so
+				 * the faces before it in the slice are already used.
+				 */
+				int innerStep, innerLimit, outerStep, outerLimit;
+				if (normal.y() != 0)
+				{
+					innerStep = 1;
+					innerLimit = Chunk.CHUNK_SIZE_HORIZONTAL;
+					outerStep = Chunk.CHUNK_SIZE_HORIZONTAL * Chunk.CHUNK_SIZE_VERTICAL;
+					outerLimit = Chunk.CHUNK_SIZE_HORIZONTAL;
+				} else if (normal.x() != 0)
+				{
+					innerStep = 1;
+					innerLimit = Chunk.CHUNK_SIZE_HORIZONTAL;
+					outerStep = Chunk.CHUNK_SIZE_HORIZONTAL;
+					outerLimit = Chunk.CHUNK_SIZE_VERTICAL;
+				} else
+				{
+					innerStep = Chunk.CHUNK_SIZE_HORIZONTAL;
+					innerLimit = Chunk.CHUNK_SIZE_VERTICAL;
+					outerStep = Chunk.CHUNK_SIZE_HORIZONTAL * Chunk.CHUNK_SIZE_VERTICAL;
+					outerLimit = Chunk.CHUNK_SIZE_HORIZONTAL;
+				}
+
+				for (int i = 0; i < blocks.length; ++i)
+				{
+					int start = blocks[i];
+					int key = keys[start];
+					if (key == 0)
+					{
+						continue;
+					}
+					ChunkData.indexToPosition(start, vec);
+					int inner = normal.z() != 0 ? vec.y() : vec.z();
+					int outer = normal.y() != 0 || normal.z() != 0 ? vec.x() : vec.y();
+
+					int width = 1;
+					while (inner + width < innerLimit && keys[start + width * innerStep] == key)
+					{
+						++width;
+					}
+					int height = 1;
+					grow: while (outer + height < outerLimit)
+					{
+						int row = start + height * outerStep;
+						for (int w = 0; w < width; ++w)
+						{
+							if (keys[row + w * innerStep] != key)
+							{
+								break grow;
+							}
+						}
+						++height;
+					}
+					for (int h = 0; h < height; ++h)
+					{
+						for (int w = 0; w < width; ++w)
+						{
+							keys[start + h * outerStep + w * innerStep] = 0;
+						}
+					}
 
-		GL15.glUnmapBuffer(GL15.GL_ARRAY_BUFFER);
-		GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+					/* The box covered by the merged faces */
+					int x0 = vec.x(), y0 = vec.y(), z0 = vec.z();
+					int x1 = x0 + 1, y1 = y0 + 1, z1 = z0 + 1;
+					if (normal.y() != 0)
+					{
+						z1 = z0 + width;
+						x1 = x0 + height;
+					} else if (normal.x() != 0)
+					{
+						z1 = z0 + width;
+						y1 = y0 + height;
+					} else
+					{
+						y1 = y0 + width;
+						x1 = x0 + height;
+					}
 
+					storeGreedyQuad(vertexBuffer, side, _blockManager.getBlockType((byte) (key >>> 8)).getDefaultBlockBrush(), (byte) (key & 0xFF), chunk.getAbsoluteX(), chunk.getAbsoluteZ(), x0, y0, z0, x1, y1, z1);
+				}
+			}
+		} catch (RuntimeException e)
+		{
+			/* Leave the keys clean for the next mesh built by this thread */
+			for (int i = 0; i < blocks.length; ++i)
+			{
+				keys[blocks[i]] = 0;
+			}
+			throw e;
+		}
+		return faceMasks;
 	}
 
+	/**
+	 * Returns the raw light of the face if the 9 light values around it are
+	 * equal, -1 otherwise.
+	 */
+	private static int getUniformLight(LightBuffer lightBuffer, Vec3i normal)
+	{
+		int cx = 1 + normal.x(), cy = 1 + normal.y(), cz = 1 + normal.z();
+		byte light = lightBuffer.getRaw(cx, cy, cz);
+		if (!SMOOTH_LIGHTING)
+		{
+			return light & 0xFF;
+		}
+		for (int a = -1; a <= 1; ++a)
+		{
+			for (int b = -1; b <= 1; ++b)
+			{
+				byte l;
+				if (normal.x() != 0)
+				{
+					l = lightBuffer.getRaw(cx, cy + a, cz + b);
+				} else if (normal.y() != 0)
+				{
+					l = lightBuffer.getRaw(cx + a, cy, cz + b);
+				} else
+				{
+					l = lightBuffer.getRaw(cx + a, cy + b, cz);
+				}
+				if (l != light)
+				{
+					return -1;
+				}
+			}
+		}
+		return light & 0xFF;
+	}
+
+	/**
+	 * Stores one face of the box in the buffer, with the corners in the same
+	 * order as {@link DefaultBlockBrush#storeInVBO}. The coordinates are
+	 * relative to the chunk.
+	 */
+	private static void storeGreedyQuad(FloatBuffer vertexBuffer, Side side, DefaultBlockBrush brush, byte light, int absX, int absZ, int x0, int y0, int z0, int x1, int y1, int z1)
+	{
+		Vec3f color = brush.getColorFor(side);
+		Vec2f tile = brush.getTexturePositionInGridFor(side);
+		switch (side)
+		{
+		case TOP:
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x0, y1, z1);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x1, y1, z1);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x1, y1, z0);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x0, y1, z0);
+			break;
+		case LEFT:
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x0, y0, z0);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x0, y0, z1);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x0, y1, z1);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x0, y1, z0);
+			break;
+		case FRONT:
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x0, y0, z1);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x1, y0, z1);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x1, y1, z1);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x0, y1, z1);
+			break;
+		case RIGHT:
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x1, y1, z0);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x1, y1, z1);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x1, y0, z1);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x1, y0, z0);
+			break;
+		case BACK:
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x0, y1, z0);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x1, y1, z0);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x1, y0, z0);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x0, y0, z0);
+			break;
+		case BOTTOM:
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x0, y0, z0);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x1, y0, z0);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x1, y0, z1);
+			putGreedyVertex(vertexBuffer, side, color, light, tile, absX, absZ, x0, y0, z1);
+			break;
+		}
+	}
+
+	private static void putGreedyVertex(FloatBuffer vertexBuffer, Side side, Vec3f color, byte light, Vec2f tile, int absX, int absZ, int x, int y, int z)
+	{
+		put3f(vertexBuffer, absX + x, y, absZ + z);
+		putColorWithLight4(vertexBuffer, color, light, light, light, light);
+
+		/* The position on the face in blocks, oriented like the texture */
+		float u, v;
+		switch (side)
+		{
+		case TOP:
+			u = x;
+			v = Chunk.CHUNK_SIZE_HORIZONTAL - z;
+			break;
+		case BOTTOM:
+			u = x;
+			v = z;
+			break;
+		case LEFT:
+		case RIGHT:
+			u = z;
+			v = Chunk.CHUNK_SIZE_VERTICAL - y;
+			break;
+		default:
+			u = x;
+			v = Chunk.CHUNK_SIZE_VERTICAL - y;
+			break;
+		}
+		put2f(vertexBuffer, GREEDY_UV_BASE + tile.x() * GREEDY_UV_TILE_STEP + u, GREEDY_UV_BASE + tile.y() * GREEDY_UV_TILE_STEP + v);
+	}
+
+	/**
+	 * Returns the staging buffer of this thread, cleared and with room for at
+	 * least the given number of floats.
+	 */
+	private static FloatBuffer getStagingBuffer(int floats)
+	{
+		FloatBuffer buffer = _stagingBuffer.get();
+		if (buffer == null || buffer.capacity() < floats)
+		{
+			buffer = FloatBuffer.wrap(new float[MathHelper.getPowerOfTwoBiggerThan(floats)]);
+			_stagingBuffer.set(buffer);
+		}
+		buffer.clear();
+		buffer.limit(floats);
+		return buffer;
+	}
+
+	/**
+	 * Packs vertices in the float layout into the packed layout. Without the
+	 * terrain shader, the light is baked into the color with the given
+	 * sunlight.
+	 */
+	private static void packVertices(float[] vertices, int vertexCount, int absX, int absZ, ByteBuffer packed, boolean bakeLight, float sun)
+	{
+		for (int i = 0, offset = 0; i < vertexCount; ++i, offset += STRIDE)
+		{
+			float sunlight = vertices[offset + LIGHT_OFFSET];
+			float blockLight = vertices[offset + LIGHT_OFFSET + 1];
+			float value = 1.0f;
+			if (bakeLight)
+			{
+				value = MathHelper.sin(Math.max(blockLight, sunlight * sun) * MathHelper.f_PI_div_2);
+			}
+
+			putPackedPosition(packed, vertices[offset + POSITION_OFFSET] - absX, vertices[offset + POSITION_OFFSET + 1], vertices[offset + POSITION_OFFSET + 2] - absZ);
+			putPackedLight(packed, sunlight, blockLight);
+			putPackedColor(packed, vertices[offset + COLOR_OFFSET] * value, vertices[offset + COLOR_OFFSET + 1] * value, vertices[offset + COLOR_OFFSET + 2] * value);
+			putPackedTexCoord(packed, vertices[offset + TEX_COORD_OFFSET], vertices[offset + TEX_COORD_OFFSET + 1]);
+		}
+	}
+
+	private static LightBuffer acquireLightBuffer()
+	{
+		synchronized (_lightBufferPool)
+		{
+			if (!_lightBufferPool.isEmpty())
+			{
+				return _lightBufferPool.remove(_lightBufferPool.size() - 1);
+			}
+		}
+		return new LightBuffer();
+	}
+
+	public static void releaseLightBuffer(LightBuffer lightBuffer)
+	{
+		if (lightBuffer == null)
+		{
+			return;
+		}
+		synchronized (_lightBufferPool)
+		{
+			if (_lightBufferPool.size() < MAX_POOLED_LIGHT_BUFFERS)
+			{
+				_lightBufferPool.add(lightBuffer);
+			}
+		}
+	}
+
+	/**
+	 * Stores the color and the light of a vertex. The light values are raw
+	 * (see {@link LightBuffer#getRaw(int, int, int)}): the sunlight and the
+	 * block light are stored separately, so the sunlight of the world can be
+	 * applied when rendering.
+	 */
 	public static void putColorWithLight4(FloatBuffer vertexBuffer, Vec3f vec, byte light, byte light1, byte light2, byte light3)
 	{
-		float value;
+		float sunlight, blockLight;
 
 		if (SMOOTH_LIGHTING)
 		{
-			value = light + light1 + light2 + light3;
-			value /= 120.0001f;
+			sunlight = (sunlightOf(light) + sunlightOf(light1) + sunlightOf(light2) + sunlightOf(light3)) / 120.0001f;
+			blockLight = (blockLightOf(light) + blockLightOf(light1) + blockLightOf(light2) + blockLightOf(light3)) / 120.0001f;
 		} else
 		{
-			value = light / 30.001f;
+			sunlight = sunlightOf(light) / 30.001f;
+			blockLight = blockLightOf(light) / 30.001f;
 		}
-		value = MathHelper.sin(value * MathHelper.f_PI_div_2);
-		vertexBuffer.put(vec.x() * value);
-		vertexBuffer.put(vec.y() * value);
-		vertexBuffer.put(vec.z() * value);
-		USED_SIZE += 3 * FLOAT_SIZE;
+		putVec3f(vertexBuffer, vec);
+		vertexBuffer.put(sunlight);
+		vertexBuffer.put(blockLight);
 	}
 
 	public static void putColorWithLight3(FloatBuffer vertexBuffer, Vec3f vec, byte light, byte light1, byte light2)
 	{
-		float value;
+		float sunlight, blockLight;
 
 		if (SMOOTH_LIGHTING)
 		{
-			value = light + light1 + light2;
-			value /= 90.0001f;
+			sunlight = (sunlightOf(light) + sunlightOf(light1) + sunlightOf(light2)) / 90.0001f;
+			blockLight = (blockLightOf(light) + blockLightOf(light1) + blockLightOf(light2)) / 90.0001f;
 		} else
 		{
-			value = light / 30.001f;
+			sunlight = sunlightOf(light) / 30.001f;
+			blockLight = blockLightOf(light) / 30.001f;
 		}
-		
-		value = MathHelper.sin(value * MathHelper.f_PI_div_2);
-		vertexBuffer.put(vec.x() * value);
-		vertexBuffer.put(vec.y() * value);
-		vertexBuffer.put(vec.z() * value);
-		USED_SIZE += 3 * FLOAT_SIZE;
+		putVec3f(vertexBuffer, vec);
+		vertexBuffer.put(sunlight);
+		vertexBuffer.put(blockLight);
 	}
 
 	public static void putColorWithLight(FloatBuffer vertexBuffer, Vec3f vec, byte light)
 	{
-		float value;
-		value = light / 30.001f;
-		vertexBuffer.put(vec.x() * value);
-		vertexBuffer.put(vec.y() * value);
-		vertexBuffer.put(vec.z() * value);
-		USED_SIZE += 3 * FLOAT_SIZE;
+		putVec3f(vertexBuffer, vec);
+		vertexBuffer.put(sunlightOf(light) / 30.001f);
+		vertexBuffer.put(blockLightOf(light) / 30.001f);
+	}
+
+	private static int sunlightOf(byte light)
+	{
+		return ((light & 0xF0) >>> 4) * 2;
+	}
+
+	private static int blockLightOf(byte light)
+	{
+		return (light & 0xF) * 2;
 	}
 
 	public static void putVec3f(FloatBuffer vertexBuffer, Vec3f vec)
@@ -241,7 +772,6 @@ public class ChunkMeshBuilder
 		vertexBuffer.put(vec.x());
 		vertexBuffer.put(vec.y());
 		vertexBuffer.put(vec.z());
-		USED_SIZE += 3 * FLOAT_SIZE;
 	}
 
 	public static void put3f(FloatBuffer vertexBuffer, float f0, float f1, float f2)
@@ -249,21 +779,54 @@ public class ChunkMeshBuilder
 		vertexBuffer.put(f0);
 		vertexBuffer.put(f1);
 		vertexBuffer.put(f2);
-		USED_SIZE += 3 * FLOAT_SIZE;
 	}
 
 	public static void put2f(FloatBuffer vertexBuffer, float f0, float f1)
 	{
 		vertexBuffer.put(f0);
 		vertexBuffer.put(f1);
-		USED_SIZE += 2 * FLOAT_SIZE;
 
 	}
 
-	public static void generateChunkMeshes(Chunk chunk)
+	/**
+	 * Stores a chunk-relative position as fixed point shorts.
+	 */
+	public static void putPackedPosition(ByteBuffer vertexBuffer, float x, float y, float z)
 	{
-		chunk.getLightBuffer().buffer(chunk);
-		generateChunkMesh(chunk, MeshType.OPAQUE);
-		generateChunkMesh(chunk, MeshType.TRANSLUCENT);
+		vertexBuffer.putShort((short) Math.round(x * PACKED_POSITION_SCALE));
+		vertexBuffer.putShort((short) Math.round(y * PACKED_POSITION_SCALE));
+		vertexBuffer.putShort((short) Math.round(z * PACKED_POSITION_SCALE));
+	}
+
+	public static void putPackedLight(ByteBuffer vertexBuffer, float sunlight, float blockLight)
+	{
+		vertexBuffer.put((byte) Math.round(MathHelper.clamp(sunlight, 0.0f, 1.0f) * 255.0f));
+		vertexBuffer.put((byte) Math.round(MathHelper.clamp(blockLight, 0.0f, 1.0f) * 255.0f));
+	}
+
+	public static void putPackedColor(ByteBuffer vertexBuffer, float r, float g, float b)
+	{
+		vertexBuffer.put((byte) Math.round(MathHelper.clamp(r, 0.0f, 1.0f) * 255.0f));
+		vertexBuffer.put((byte) Math.round(MathHelper.clamp(g, 0.0f, 1.0f) * 255.0f));
+		vertexBuffer.put((byte) Math.round(MathHelper.clamp(b, 0.0f, 1.0f) * 255.0f));
+		vertexBuffer.put((byte) 0xFF);
+	}
+
+	/**
+	 * Stores texture coordinates as fixed point shorts. Texture coordinates
+	 * of merged quads become negative:
+	 * <code>-1 - (tile * GREEDY_UV_TILE_STEP + blocks)</code>.
+	 */
+	public static void putPackedTexCoord(ByteBuffer vertexBuffer, float u, float v)
+	{
+		if (u >= GREEDY_UV_BASE)
+		{
+			vertexBuffer.putShort((short) -Math.round(u - GREEDY_UV_BASE + 1.0f));
+			vertexBuffer.putShort((short) -Math.round(v - GREEDY_UV_BASE + 1.0f));
+		} else
+		{
+			vertexBuffer.putShort((short) Math.round(u * PACKED_TEX_COORD_SCALE));
+			vertexBuffer.putShort((short) Math.round(v * PACKED_TEX_COORD_SCALE));
+		}
 	}
 }
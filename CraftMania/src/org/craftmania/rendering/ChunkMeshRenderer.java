@@ -15,78 +15,186 @@
  ******************************************************************************/
 package org.craftmania.rendering;
 
+import static org.craftmania.rendering.ChunkMeshBuilder.*;
+
+import org.craftmania.datastructures.ViewFrustum;
+import org.craftmania.game.PerformanceMonitor;
+import org.craftmania.game.PerformanceMonitor.Counter;
+import org.craftmania.game.ShaderStorage;
 import org.craftmania.game.TextureStorage;
 import org.craftmania.rendering.ChunkMeshBuilder.MeshType;
 import org.craftmania.world.Chunk;
 import org.lwjgl.opengl.ARBVertexBufferObject;
 import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL20;
+import org.newdawn.slick.opengl.Texture;
 
+/**
+ * Renders the chunk meshes in passes. The GL state of a pass is set up once in
+ * {@link #beginPass(MeshType, float)}, so drawing a chunk only binds its
+ * buffers and sets the vertex pointers.
+ */
 public class ChunkMeshRenderer
 {
-	public static final int STRIDE = 8;
-	public static final int POSITION_SIZE = 3;
-	public static final int POSITION_OFFSET = 0;
-	public static final int COLOR_SIZE = 3;
-	public static final int COLOR_OFFSET = POSITION_OFFSET + POSITION_SIZE;
-	public static final int TEX_COORD_SIZE = 2;
-	public static final int TEX_COORD_OFFSET = COLOR_OFFSET + COLOR_SIZE;
-	public static final int FLOAT_SIZE = 4;
-
-	public static void renderChunkMesh(Chunk chunk, MeshType meshType)
+	private static MeshType _pass;
+	private static int _lightAttribute = -1;
+	private static ShaderProgram _shader;
+
+	/**
+	 * Sets up the GL state to render the meshes of the given type.
+	 */
+	public static void beginPass(MeshType meshType, float sunlight)
 	{
-		if (chunk.getMesh().getVBO(meshType) <= 0)
-		{
-			return;
-		}
+		PerformanceMonitor monitor = PerformanceMonitor.getInstance();
+		_pass = meshType;
 
 		/* Bind the correct texture */
 		GL11.glEnable(GL11.GL_TEXTURE_2D);
 		TextureStorage.getTexture("terrain").bind();
+		monitor.count(Counter.STATE_CHANGES, 2);
+
+		_shader = null;
+		_lightAttribute = -1;
+		if (ChunkMeshBuilder.isSunlightSeparated())
+		{
+			_shader = bindTerrainShader(sunlight);
+			monitor.count(Counter.STATE_CHANGES, 4);
+		}
 
 		if (meshType == MeshType.OPAQUE)
 		{
 			GL11.glDisable(GL11.GL_BLEND);
+			monitor.count(Counter.STATE_CHANGES);
 		} else if (meshType == MeshType.TRANSLUCENT)
 		{
 			GL11.glDisable(GL11.GL_CULL_FACE);
 			GL11.glEnable(GL11.GL_BLEND);
 			GL11.glEnable(GL11.GL_ALPHA_TEST);
 			GL11.glAlphaFunc(GL11.GL_GREATER, 0.0f);
+			monitor.count(Counter.STATE_CHANGES, 4);
 		}
 
-		ChunkMesh mesh = chunk.getMesh();
-
-		/* Bind the buffer */
-		ARBVertexBufferObject.glBindBufferARB(ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, mesh.getVBO(meshType));
-
 		/* Enable the different kinds of data in the buffer */
 		GL11.glEnableClientState(GL11.GL_VERTEX_ARRAY);
 		GL11.glEnableClientState(GL11.GL_COLOR_ARRAY);
 		GL11.glEnableClientState(GL11.GL_TEXTURE_COORD_ARRAY);
+		monitor.count(Counter.STATE_CHANGES, 3);
+		if (_shader != null)
+		{
+			_lightAttribute = _shader.getAttributeLocation("light");
+			GL20.glEnableVertexAttribArray(_lightAttribute);
+			monitor.count(Counter.STATE_CHANGES);
+		}
 
-		// System.out.println("Chunk Vertices = " + mesh.getVertexCount());
+		/* The texture coordinates are fixed point */
+		GL11.glMatrixMode(GL11.GL_TEXTURE);
+		GL11.glPushMatrix();
+		GL11.glLoadIdentity();
+		GL11.glScalef(1.0f / PACKED_TEX_COORD_SCALE, 1.0f / PACKED_TEX_COORD_SCALE, 1.0f);
+		GL11.glMatrixMode(GL11.GL_MODELVIEW);
+	}
 
-		/* Define the starting positions */
-		GL11.glVertexPointer(POSITION_SIZE, GL11.GL_FLOAT, STRIDE * FLOAT_SIZE, POSITION_OFFSET * FLOAT_SIZE);
-		GL11.glTexCoordPointer(TEX_COORD_SIZE, GL11.GL_FLOAT, STRIDE * FLOAT_SIZE, TEX_COORD_OFFSET * FLOAT_SIZE);
-		GL11.glColorPointer(COLOR_SIZE, GL11.GL_FLOAT, STRIDE * FLOAT_SIZE, COLOR_OFFSET * FLOAT_SIZE);
+	/**
+	 * Restores the GL state changed by {@link #beginPass(MeshType, float)}.
+	 */
+	public static void endPass()
+	{
+		PerformanceMonitor monitor = PerformanceMonitor.getInstance();
 
-		/* Draw the buffer */
-		GL11.glDrawArrays(GL11.GL_QUADS, 0, mesh.getVertexCount(meshType));
+		GL11.glMatrixMode(GL11.GL_TEXTURE);
+		GL11.glPopMatrix();
+		GL11.glMatrixMode(GL11.GL_MODELVIEW);
 
 		/* Unbind the buffer */
 		ARBVertexBufferObject.glBindBufferARB(ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, 0);
 
-		/* Disable the different kindds of data */
+		/* Disable the different kinds of data */
 		GL11.glDisableClientState(GL11.GL_VERTEX_ARRAY);
 		GL11.glDisableClientState(GL11.GL_COLOR_ARRAY);
 		GL11.glDisableClientState(GL11.GL_TEXTURE_COORD_ARRAY);
+		monitor.count(Counter.STATE_CHANGES, 4);
+		if (_lightAttribute != -1)
+		{
+			GL20.glDisableVertexAttribArray(_lightAttribute);
+			monitor.count(Counter.STATE_CHANGES);
+		}
 
-		if (meshType == MeshType.TRANSLUCENT)
+		if (_pass == MeshType.TRANSLUCENT)
 		{
 			GL11.glEnable(GL11.GL_CULL_FACE);
 			GL11.glDisable(GL11.GL_ALPHA_TEST);
+			monitor.count(Counter.STATE_CHANGES, 2);
+		}
+		if (_shader != null)
+		{
+			ShaderProgram.unbind();
+			monitor.count(Counter.STATE_CHANGES);
+		}
+		_pass = null;
+		_shader = null;
+		_lightAttribute = -1;
+	}
+
+	/**
+	 * Renders the sections of the mesh of the chunk that are visible and in
+	 * the view frustum. This has to be called between beginning and ending a
+	 * pass of the same mesh type.
+	 */
+	public static void renderChunkMesh(Chunk chunk, MeshType meshType, ViewFrustum frustum)
+	{
+		ChunkMesh mesh = chunk.getMesh();
+		if (meshType != _pass || !mesh.hasVertices(meshType))
+		{
+			return;
+		}
+		PerformanceMonitor monitor = PerformanceMonitor.getInstance();
+
+		/* The positions are fixed point and relative to the chunk */
+		GL11.glPushMatrix();
+		GL11.glTranslatef(chunk.getAbsoluteX(), 0.0f, chunk.getAbsoluteZ());
+		GL11.glScalef(1.0f / PACKED_POSITION_SCALE, 1.0f / PACKED_POSITION_SCALE, 1.0f / PACKED_POSITION_SCALE);
+
+		int visibleSections = chunk.getVisibleSections();
+		for (int section = 0; section < Chunk.SECTION_COUNT; ++section)
+		{
+			int vbo = mesh.getVBO(section, meshType);
+			if (vbo <= 0 || (visibleSections & (1 << section)) == 0 || !frustum.intersects(mesh.getSectionAABB(section)))
+			{
+				continue;
+			}
+
+			/* Bind the buffer and define the starting positions */
+			ARBVertexBufferObject.glBindBufferARB(ARBVertexBufferObject.GL_ARRAY_BUFFER_ARB, vbo);
+			GL11.glVertexPointer(3, GL11.GL_SHORT, PACKED_VERTEX_SIZE, PACKED_POSITION_OFFSET);
+			GL11.glTexCoordPointer(2, GL11.GL_SHORT, PACKED_VERTEX_SIZE, PACKED_TEX_COORD_OFFSET);
+			GL11.glColorPointer(4, GL11.GL_UNSIGNED_BYTE, PACKED_VERTEX_SIZE, PACKED_COLOR_OFFSET);
+			if (_lightAttribute != -1)
+			{
+				GL20.glVertexAttribPointer(_lightAttribute, 2, GL11.GL_UNSIGNED_BYTE, true, PACKED_VERTEX_SIZE, PACKED_LIGHT_OFFSET);
+			}
+			monitor.count(Counter.BUFFER_BINDS);
+
+			/* Draw the buffer */
+			GL11.glDrawArrays(GL11.GL_QUADS, 0, mesh.getVertexCount(section, meshType));
+			monitor.count(Counter.DRAW_CALLS);
 		}
+
+		GL11.glPopMatrix();
+	}
+
+	/**
+	 * Binds the terrain shader, which applies the sunlight and repeats the
+	 * texture over the quads of greedy meshes.
+	 */
+	private static ShaderProgram bindTerrainShader(float sunlight)
+	{
+		ShaderProgram shader = ShaderStorage.getShader("terrain");
+		Texture terrain = TextureStorage.getTexture("terrain");
+		shader.bind();
+		GL20.glUniform1i(shader.getUniformLocation("terrain"), 0);
+		GL20.glUniform1f(shader.getUniformLocation("sunlight"), sunlight);
+		GL20.glUniform2f(shader.getUniformLocation("tileSize"), 16.0f / terrain.getImageWidth(), 16.0f / terrain.getImageHeight());
+		return shader;
 	}
 
 }
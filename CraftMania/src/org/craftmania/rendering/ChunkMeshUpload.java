@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.rendering;
+
+import java.nio.ByteBuffer;
+
+import org.craftmania.rendering.ChunkMeshBuilder.MeshType;
+import org.craftmania.world.Chunk;
+import org.craftmania.world.LightBuffer;
+
+/**
+ * The vertex data of a chunk built on a worker thread, waiting to be uploaded
+ * into VBOs by the main thread.
+ * 
+ * @author martijncourteaux
+ * 
+ */
+public class ChunkMeshUpload
+{
+	private Chunk _chunk;
+	private LightBuffer _lightBuffer;
+	private ByteBuffer[][] _data;
+	private int[][] _vertexCount;
+	private int[] _minY;
+	private int[] _maxY;
+	private int _sections;
+	private int _meshGeneration;
+
+	/**
+	 * @param sections
+	 *            the sections that were built, one bit per section
+	 */
+	public ChunkMeshUpload(Chunk chunk, LightBuffer lightBuffer, int sections)
+	{
+		_chunk = chunk;
+		_lightBuffer = lightBuffer;
+		_sections = sections;
+		_data = new ByteBuffer[Chunk.SECTION_COUNT][MeshType.values().length];
+		_vertexCount = new int[Chunk.SECTION_COUNT][MeshType.values().length];
+		_minY = new int[Chunk.SECTION_COUNT];
+		_maxY = new int[Chunk.SECTION_COUNT];
+	}
+
+	public Chunk getChunk()
+	{
+		return _chunk;
+	}
+
+	/**
+	 * Returns the light buffer the mesh was built with. It belongs to the
+	 * caller afterwards.
+	 */
+	public LightBuffer takeLightBuffer()
+	{
+		LightBuffer lightBuffer = _lightBuffer;
+		_lightBuffer = null;
+		return lightBuffer;
+	}
+
+	public int getMeshGeneration()
+	{
+		return _meshGeneration;
+	}
+
+	public void setMeshGeneration(int meshGeneration)
+	{
+		_meshGeneration = meshGeneration;
+	}
+
+	public int getSections()
+	{
+		return _sections;
+	}
+
+	public void setData(int section, MeshType meshType, ByteBuffer data, int vertexCount)
+	{
+		_data[section][meshType.ordinal()] = data;
+		_vertexCount[section][meshType.ordinal()] = vertexCount;
+	}
+
+	public ByteBuffer getData(int section, MeshType meshType)
+	{
+		return _data[section][meshType.ordinal()];
+	}
+
+	public int getVertexCount(int section, MeshType meshType)
+	{
+		return _vertexCount[section][meshType.ordinal()];
+	}
+
+	/**
+	 * Sets the heights of the lowest and the highest visible block in the
+	 * section. The minimum is bigger than the maximum if there are none.
+	 */
+	public void setSectionBounds(int section, int minY, int maxY)
+	{
+		_minY[section] = minY;
+		_maxY[section] = maxY;
+	}
+
+	public int getSectionMinY(int section)
+	{
+		return _minY[section];
+	}
+
+	public int getSectionMaxY(int section)
+	{
+		return _maxY[section];
+	}
+
+	/**
+	 * Gives the vertex data and the light buffer back to their pools.
+	 */
+	public void release()
+	{
+		for (int section = 0; section < _data.length; ++section)
+		{
+			for (int i = 0; i < _data[section].length; ++i)
+			{
+				DirectBufferPool.getInstance().release(_data[section][i]);
+				_data[section][i] = null;
+				_vertexCount[section][i] = 0;
+			}
+		}
+		ChunkMeshBuilder.releaseLightBuffer(takeLightBuffer());
+	}
+}
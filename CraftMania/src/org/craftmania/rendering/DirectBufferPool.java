@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps direct ByteBuffers for reuse, so the mesh builders don't allocate
+ * native memory for every mesh. The buffers are grouped by their capacity,
+ * which is always a power of two.
+ * 
+ * @author martijncourteaux
+ * 
+ */
+public class DirectBufferPool
+{
+	private static final int MIN_SIZE_CLASS = 12; // 4 KB
+	private static final int MAX_SIZE_CLASS = 24; // 16 MB
+	private static final long MAX_POOLED_BYTES = 32L * 1024L * 1024L;
+
+	private static DirectBufferPool __instance;
+
+	public static synchronized DirectBufferPool getInstance()
+	{
+		if (__instance == null)
+		{
+			__instance = new DirectBufferPool();
+		}
+		return __instance;
+	}
+
+	private List<List<ByteBuffer>> _free;
+	private long _pooledBytes;
+
+	private DirectBufferPool()
+	{
+		_free = new ArrayList<List<ByteBuffer>>();
+		for (int i = 0; i <= MAX_SIZE_CLASS; ++i)
+		{
+			_free.add(new ArrayList<ByteBuffer>());
+		}
+	}
+
+	private static int sizeClass(int bytes)
+	{
+		int sizeClass = 32 - Integer.numberOfLeadingZeros(Math.max(bytes, 1) - 1);
+		return Math.max(sizeClass, MIN_SIZE_CLASS);
+	}
+
+	/**
+	 * Returns a cleared, native ordered buffer with at least the given
+	 * capacity.
+	 */
+	public ByteBuffer acquire(int bytes)
+	{
+		int sizeClass = sizeClass(bytes);
+		if (sizeClass <= MAX_SIZE_CLASS)
+		{
+			synchronized (this)
+			{
+				List<ByteBuffer> free = _free.get(sizeClass);
+				if (!free.isEmpty())
+				{
+					ByteBuffer buffer = free.remove(free.size() - 1);
+					_pooledBytes -= buffer.capacity();
+					buffer.clear();
+					return buffer;
+				}
+			}
+		}
+		return ByteBuffer.allocateDirect(1 << Math.min(sizeClass, 30)).order(ByteOrder.nativeOrder());
+	}
+
+	public void release(ByteBuffer buffer)
+	{
+		if (buffer == null)
+		{
+			return;
+		}
+		int sizeClass = sizeClass(buffer.capacity());
+		if (sizeClass > MAX_SIZE_CLASS || buffer.capacity() != (1 << sizeClass))
+		{
+			return;
+		}
+		synchronized (this)
+		{
+			if (_pooledBytes + buffer.capacity() <= MAX_POOLED_BYTES)
+			{
+				_free.get(sizeClass).add(buffer);
+				_pooledBytes += buffer.capacity();
+			}
+		}
+	}
+
+	public synchronized long getPooledBytes()
+	{
+		return _pooledBytes;
+	}
+}
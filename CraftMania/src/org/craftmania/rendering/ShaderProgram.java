@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.rendering;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL20;
+
+/**
+ * A GLSL program made of a vertex and a fragment shader.
+ * 
+ * @author martijncourteaux
+ * 
+ */
+public class ShaderProgram
+{
+	private int _program;
+	private int _vertexShader;
+	private int _fragmentShader;
+
+	/**
+	 * Compiles and links the program.
+	 * 
+	 * @throws IllegalStateException
+	 *             if compiling or linking fails
+	 */
+	public ShaderProgram(String vertexSource, String fragmentSource)
+	{
+		_vertexShader = compileShader(GL20.GL_VERTEX_SHADER, vertexSource);
+		_fragmentShader = compileShader(GL20.GL_FRAGMENT_SHADER, fragmentSource);
+
+		_program = GL20.glCreateProgram();
+		GL20.glAttachShader(_program, _vertexShader);
+		GL20.glAttachShader(_program, _fragmentShader);
+		GL20.glLinkProgram(_program);
+		if (GL20.glGetProgrami(_program, GL20.GL_LINK_STATUS) == GL11.GL_FALSE)
+		{
+			String log = GL20.glGetProgramInfoLog(_program, 4096);
+			release();
+			throw new IllegalStateException("Linking shader program failed: " + log);
+		}
+	}
+
+	private static int compileShader(int type, String source)
+	{
+		int shader = GL20.glCreateShader(type);
+		GL20.glShaderSource(shader, source);
+		GL20.glCompileShader(shader);
+		if (GL20.glGetShaderi(shader, GL20.GL_COMPILE_STATUS) == GL11.GL_FALSE)
+		{
+			String log = GL20.glGetShaderInfoLog(shader, 4096);
+			GL20.glDeleteShader(shader);
+			throw new IllegalStateException("Compiling shader failed: " + log);
+		}
+		return shader;
+	}
+
+	public void bind()
+	{
+		GL20.glUseProgram(_program);
+	}
+
+	public static void unbind()
+	{
+		GL20.glUseProgram(0);
+	}
+
+	public int getUniformLocation(String name)
+	{
+		return GL20.glGetUniformLocation(_program, name);
+	}
+
+	public int getAttributeLocation(String name)
+	{
+		return GL20.glGetAttribLocation(_program, name);
+	}
+
+	public void release()
+	{
+		if (_program != 0)
+		{
+			GL20.glDeleteProgram(_program);
+			_program = 0;
+		}
+		if (_vertexShader != 0)
+		{
+			GL20.glDeleteShader(_vertexShader);
+			_vertexShader = 0;
+		}
+		if (_fragmentShader != 0)
+		{
+			GL20.glDeleteShader(_fragmentShader);
+			_fragmentShader = 0;
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.utilities;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream reading from the remaining bytes of a ByteBuffer, without
+ * copying them.
+ * 
+ * @author martijncourteaux
+ * 
+ */
+public class ByteBufferInputStream extends InputStream
+{
+
+	private ByteBuffer _buffer;
+
+	public ByteBufferInputStream(ByteBuffer buffer)
+	{
+		_buffer = buffer;
+	}
+
+	@Override
+	public int read()
+	{
+		if (!_buffer.hasRemaining())
+		{
+			return -1;
+		}
+		return _buffer.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len)
+	{
+		if (len == 0)
+		{
+			return 0;
+		}
+		if (!_buffer.hasRemaining())
+		{
+			return -1;
+		}
+		len = Math.min(len, _buffer.remaining());
+		_buffer.get(b, off, len);
+		return len;
+	}
+
+	@Override
+	public int available()
+	{
+		return _buffer.remaining();
+	}
+}
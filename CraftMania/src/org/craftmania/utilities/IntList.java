@@ -140,6 +140,17 @@ public class IntList
 
 	}
 
+	/**
+	 * Returns a copy of the values in this list, without the buffered
+	 * modifications.
+	 */
+	public int[] toArray()
+	{
+		int[] array = new int[_size];
+		System.arraycopy(_data, 0, array, 0, _size);
+		return array;
+	}
+
 	@Override
 	public String toString()
 	{
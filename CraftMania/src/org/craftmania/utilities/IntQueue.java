@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.utilities;
+
+/**
+ * A FIFO queue of ints, stored in a ring buffer which grows when it is full.
+ * 
+ * @author martijncourteaux
+ * 
+ */
+public class IntQueue
+{
+
+	private int[] _data;
+	private int _head;
+	private int _tail;
+	private int _size;
+
+	public IntQueue()
+	{
+		this(1024);
+	}
+
+	public IntQueue(int initialCapacity)
+	{
+		/* Use a power of two, so the indices can be wrapped with a mask */
+		_data = new int[Integer.highestOneBit(Math.max(initialCapacity, 2) - 1) << 1];
+	}
+
+	public void add(int value)
+	{
+		if (_size == _data.length)
+		{
+			grow();
+		}
+		_data[_tail] = value;
+		_tail = (_tail + 1) & (_data.length - 1);
+		_size++;
+	}
+
+	public int poll()
+	{
+		int value = _data[_head];
+		_head = (_head + 1) & (_data.length - 1);
+		_size--;
+		return value;
+	}
+
+	public boolean isEmpty()
+	{
+		return _size == 0;
+	}
+
+	public int size()
+	{
+		return _size;
+	}
+
+	public void clear()
+	{
+		_head = 0;
+		_tail = 0;
+		_size = 0;
+	}
+
+	private void grow()
+	{
+		int[] data = new int[_data.length << 1];
+		int firstPart = _data.length - _head;
+		System.arraycopy(_data, _head, data, 0, firstPart);
+		System.arraycopy(_data, 0, data, firstPart, _head);
+		_head = 0;
+		_tail = _size;
+		_data = data;
+	}
+}
@@ -61,6 +61,58 @@ public final class PerlinNoise
 				lerp(v, lerp(u, grad(p[AA + 1], x, y, z - 1), grad(p[BA + 1], x - 1, y, z - 1)), lerp(u, grad(p[AB + 1], x, y - 1, z - 1), grad(p[BB + 1], x - 1, y - 1, z - 1))));
 	}
 
+	/**
+	 * Fills the output with the noise of a grid of {@code width} by
+	 * {@code depth} samples. Sample (i, j) is taken at ((x + i) * scale, (y +
+	 * j) * scale) and stored at index i * depth + j. The values are the same
+	 * as the ones of {@link #noise(float, float)}, but everything that only
+	 * depends on one axis is computed once per row or column.
+	 */
+	public void noise(int x, int y, int width, int depth, float scale, float[] output)
+	{
+		int[] cellY = new int[depth];
+		float[] fracY = new float[depth];
+		float[] fadeY = new float[depth];
+		for (int j = 0; j < depth; ++j)
+		{
+			float fy = (y + j) * scale;
+			int flY = MathHelper.floor(fy);
+			cellY[j] = flY & 255;
+			fracY[j] = fy - flY;
+			fadeY[j] = fade(fracY[j]);
+		}
+
+		for (int i = 0; i < width; ++i)
+		{
+			float fx = (x + i) * scale;
+			int flX = MathHelper.floor(fx);
+			int pX0 = p[flX & 255];
+			int pX1 = p[(flX & 255) + 1];
+			float x0 = fx - flX;
+			float x1 = x0 - 1;
+			float u = fade(x0);
+			int offset = i * depth;
+
+			for (int j = 0; j < depth; ++j)
+			{
+				int Y = cellY[j];
+				float y0 = fracY[j];
+				float y1 = y0 - 1;
+				int h00 = p[p[pX0 + Y]] & 15;
+				int h10 = p[p[pX1 + Y]] & 15;
+				int h01 = p[p[pX0 + Y + 1]] & 15;
+				int h11 = p[p[pX1 + Y + 1]] & 15;
+				float g00 = GRAD_X[h00] * x0 + GRAD_Y[h00] * y0;
+				float g10 = GRAD_X[h10] * x1 + GRAD_Y[h10] * y0;
+				float g01 = GRAD_X[h01] * x0 + GRAD_Y[h01] * y1;
+				float g11 = GRAD_X[h11] * x1 + GRAD_Y[h11] * y1;
+				float a = g00 + u * (g10 - g00);
+				float b = g01 + u * (g11 - g01);
+				output[offset + j] = a + fadeY[j] * (b - a);
+			}
+		}
+	}
+
 	static float fade(float t)
 	{
 		return t * t * t * (t * (t * 6 - 15) + 10);
@@ -89,6 +141,19 @@ public final class PerlinNoise
 		}
 	}
 
+	/* The gradients in the plane z = 0 are linear: grad(h, x, y, 0) = GRAD_X[h] * x + GRAD_Y[h] * y */
+	private static final float[] GRAD_X = new float[16];
+	private static final float[] GRAD_Y = new float[16];
+
+	static
+	{
+		for (int h = 0; h < 16; ++h)
+		{
+			GRAD_X[h] = grad(h, 1, 0, 0);
+			GRAD_Y[h] = grad(h, 0, 1, 0);
+		}
+	}
+
 	private int p[] = new int[512];
 
 }
\ No newline at end of file
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.utilities;
+
+/**
+ * Compares sampling a grid of Perlin noise one sample at a time with the grid
+ * method of {@link PerlinNoise}, on grids of the size of a chunk plus one at
+ * the scales the world provider uses. Run it with the main method.
+ * 
+ * @author martijncourteaux
+ */
+public class PerlinNoiseBenchmark
+{
+
+	private static final int SIZE = 17;
+	private static final float[] SCALES = { 0.01f, 0.05f, 0.1f, 0.2f };
+	private static final int GRIDS = 20000;
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args)
+	{
+		PerlinNoise noise = new PerlinNoise(args.length > 0 ? Long.parseLong(args[0]) : 1L);
+		float[] samples = new float[SIZE * SIZE];
+		float[] grid = new float[SIZE * SIZE];
+
+		long sampleTime = 0, gridTime = 0;
+		boolean same = true;
+		float sink = 0;
+		for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; ++round)
+		{
+			long start = System.nanoTime();
+			for (int g = 0; g < GRIDS; ++g)
+			{
+				float scale = SCALES[g % SCALES.length];
+				int x = g * SIZE, z = -g * SIZE;
+				for (int i = 0; i < SIZE; ++i)
+				{
+					for (int j = 0; j < SIZE; ++j)
+					{
+						samples[i * SIZE + j] = noise.noise((x + i) * scale, (z + j) * scale);
+					}
+				}
+				sink += samples[g % samples.length];
+			}
+			long middle = System.nanoTime();
+			for (int g = 0; g < GRIDS; ++g)
+			{
+				float scale = SCALES[g % SCALES.length];
+				noise.noise(g * SIZE, -g * SIZE, SIZE, SIZE, scale, grid);
+				sink += grid[g % grid.length];
+			}
+			long end = System.nanoTime();
+			if (round >= WARMUP_ROUNDS)
+			{
+				sampleTime += middle - start;
+				gridTime += end - middle;
+			}
+
+			/* The last grid of both loops has to be the same */
+			for (int i = 0; i < grid.length; ++i)
+			{
+				same &= Float.floatToIntBits(grid[i]) == Float.floatToIntBits(samples[i]);
+			}
+		}
+
+		System.out.println(GRIDS + " grids of " + SIZE + "x" + SIZE + ", " + ROUNDS + " rounds after " + WARMUP_ROUNDS + " warmup rounds, checksum " + sink);
+		System.out.println(String.format("Per sample %8.3f ms", sampleTime / (ROUNDS * 1000000.0d)));
+		System.out.println(String.format("Grid       %8.3f ms", gridTime / (ROUNDS * 1000000.0d)));
+		System.out.println("Same noise: " + (same ? "yes" : "no"));
+	}
+}
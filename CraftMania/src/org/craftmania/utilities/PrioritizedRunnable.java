@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.utilities;
+
+/**
+ * A runnable of which the priority can change while it is waiting in a
+ * {@link ThreadPool}. The priority is asked again every time the pool picks
+ * its next runnable, the lowest value runs first.
+ * 
+ * @author martijncourteaux
+ * 
+ */
+public interface PrioritizedRunnable extends Runnable
+{
+	public int getPriority();
+
+	/**
+	 * Cancelled runnables are dropped by the pool without running them.
+	 */
+	public boolean isCancelled();
+}
@@ -16,19 +16,34 @@
 package org.craftmania.utilities;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.PriorityQueue;
 
+/**
+ * A class of tasks that run in the shared {@link WorkerPool}, with at most a
+ * given number of them at the same time. Tasks with the lowest priority value
+ * run first. The priority of a {@link PrioritizedRunnable} is asked again each
+ * time a task is picked.
+ */
 public class ThreadPool
 {
+	private WorkerPool _workerPool;
 	private int _maximumThreads;
-	private volatile int _runningThreads;
-	private List<WaitingRunnable> _waitingRunnables;
+	private int _runningThreads;
+	private PriorityQueue<WaitingRunnable> _waitingRunnables;
+	private List<PrioritizedRunnable> _prioritizedRunnables;
 
 	public ThreadPool(int maximumThreads)
 	{
+		this(WorkerPool.getInstance(), maximumThreads);
+	}
+
+	public ThreadPool(WorkerPool workerPool, int maximumThreads)
+	{
+		_workerPool = workerPool;
 		_maximumThreads = maximumThreads;
-		_waitingRunnables = new ArrayList<WaitingRunnable>();
+		_waitingRunnables = new PriorityQueue<WaitingRunnable>();
+		_prioritizedRunnables = new ArrayList<PrioritizedRunnable>();
 	}
 
 	public void addThread(Runnable runnable, int priority)
@@ -36,33 +51,105 @@ public class ThreadPool
 		synchronized (this)
 		{
 			_waitingRunnables.add(new WaitingRunnable(runnable, priority));
-			Collections.sort(_waitingRunnables);
 		}
 		manage();
 	}
 
+	public void addThread(PrioritizedRunnable runnable)
+	{
+		synchronized (this)
+		{
+			_prioritizedRunnables.add(runnable);
+		}
+		manage();
+	}
+
+	/**
+	 * Hands the best waiting runnables to the worker pool, as long as the
+	 * maximum isn't reached.
+	 */
 	private synchronized void manage()
 	{
-		if (_runningThreads < _maximumThreads && !_waitingRunnables.isEmpty())
+		while (_runningThreads < _maximumThreads)
 		{
-			final WaitingRunnable logic = _waitingRunnables.remove(_waitingRunnables.size() - 1);
-			Thread t = new Thread(new Runnable()
+			WaitingRunnable logic = pollBestPrioritized();
+			if (logic == null)
+			{
+				logic = _waitingRunnables.poll();
+			}
+			if (logic == null)
+			{
+				break;
+			}
+			++_runningThreads;
+			final Runnable runnable = logic._runnable;
+			_workerPool.execute(new Runnable()
 			{
 
 				@Override
 				public void run()
 				{
-					++_runningThreads;
-					logic._runnable.run();
-					--_runningThreads;
-					manage();
+					try
+					{
+						runnable.run();
+					} finally
+					{
+						finished();
+					}
+				}
+			}, logic._priority);
+		}
+	}
+
+	/**
+	 * Removes the prioritized runnable with the lowest current priority, if it
+	 * goes before the best fixed priority runnable. Cancelled runnables are
+	 * dropped on the way.
+	 */
+	private WaitingRunnable pollBestPrioritized()
+	{
+		int bestIndex = -1;
+		int bestPriority = 0;
+		for (int i = _prioritizedRunnables.size() - 1; i >= 0; --i)
+		{
+			PrioritizedRunnable runnable = _prioritizedRunnables.get(i);
+			if (runnable.isCancelled())
+			{
+				_prioritizedRunnables.remove(i);
+				if (bestIndex > i)
+				{
+					--bestIndex;
 				}
-			});
-			t.setPriority(Thread.MIN_PRIORITY);
-			t.start();
+				continue;
+			}
+			int priority = runnable.getPriority();
+			if (bestIndex == -1 || priority < bestPriority)
+			{
+				bestIndex = i;
+				bestPriority = priority;
+			}
+		}
+		if (bestIndex == -1)
+		{
+			return null;
+		}
+		WaitingRunnable fixed = _waitingRunnables.peek();
+		if (fixed != null && fixed._priority < bestPriority)
+		{
+			return null;
 		}
+		return new WaitingRunnable(_prioritizedRunnables.remove(bestIndex), bestPriority);
 	}
-	
+
+	private void finished()
+	{
+		synchronized (this)
+		{
+			--_runningThreads;
+		}
+		manage();
+	}
+
 	private static class WaitingRunnable implements Comparable<WaitingRunnable>
 	{
 		private Runnable _runnable;
@@ -77,13 +164,16 @@ public class ThreadPool
 		@Override
 		public int compareTo(WaitingRunnable o)
 		{
-			return o._priority - _priority;
+			return _priority < o._priority ? -1 : (_priority == o._priority ? 0 : 1);
 		}
-		
-		
 	}
 
-	public boolean isFull()
+	public synchronized int getWaitingCount()
+	{
+		return _waitingRunnables.size() + _prioritizedRunnables.size();
+	}
+
+	public synchronized boolean isFull()
 	{
 		return _maximumThreads == _runningThreads;
 	}
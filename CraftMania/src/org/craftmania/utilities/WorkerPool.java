@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.utilities;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed set of long-lived worker threads. Every worker has its own priority
+ * queue, tasks with the lowest priority value run first. A worker that runs
+ * out of tasks steals the best task of another worker.
+ * 
+ * @author martijncourteaux
+ * 
+ */
+public class WorkerPool
+{
+	private static WorkerPool __instance;
+
+	public static synchronized WorkerPool getInstance()
+	{
+		if (__instance == null)
+		{
+			__instance = new WorkerPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+		}
+		return __instance;
+	}
+
+	private Worker[] _workers;
+	private AtomicInteger _queuedTasks;
+	private AtomicInteger _nextWorker;
+	private AtomicLong _stolenTasks;
+	private final Object _signal;
+
+	public WorkerPool(int workerCount)
+	{
+		System.out.println("Worker Pool Size: " + workerCount);
+		_queuedTasks = new AtomicInteger();
+		_nextWorker = new AtomicInteger();
+		_stolenTasks = new AtomicLong();
+		_signal = new Object();
+		_workers = new Worker[workerCount];
+		for (int i = 0; i < workerCount; ++i)
+		{
+			_workers[i] = new Worker(i);
+		}
+		for (int i = 0; i < workerCount; ++i)
+		{
+			_workers[i].start();
+		}
+	}
+
+	/**
+	 * Queues a task. A task queued from a worker goes to the queue of that
+	 * worker, other tasks are spread over the workers.
+	 */
+	public void execute(Runnable runnable, int priority)
+	{
+		Task task = new Task(runnable, priority);
+		Thread current = Thread.currentThread();
+		Worker worker;
+		if (current instanceof Worker && ((Worker) current)._pool == this)
+		{
+			worker = (Worker) current;
+		} else
+		{
+			worker = _workers[(_nextWorker.getAndIncrement() & 0x7FFFFFFF) % _workers.length];
+		}
+		synchronized (worker._queue)
+		{
+			worker._queue.add(task);
+		}
+		_queuedTasks.incrementAndGet();
+		synchronized (_signal)
+		{
+			_signal.notify();
+		}
+	}
+
+	public int getWorkerCount()
+	{
+		return _workers.length;
+	}
+
+	public int getQueuedTaskCount()
+	{
+		return _queuedTasks.get();
+	}
+
+	public long getStolenTaskCount()
+	{
+		return _stolenTasks.get();
+	}
+
+	private Task take(Worker worker) throws InterruptedException
+	{
+		while (true)
+		{
+			Task task = poll(worker);
+			if (task == null)
+			{
+				for (int i = 1; i < _workers.length && task == null; ++i)
+				{
+					task = poll(_workers[(worker._index + i) % _workers.length]);
+				}
+				if (task != null)
+				{
+					_stolenTasks.incrementAndGet();
+				}
+			}
+			if (task != null)
+			{
+				_queuedTasks.decrementAndGet();
+				return task;
+			}
+			synchronized (_signal)
+			{
+				if (_queuedTasks.get() == 0)
+				{
+					_signal.wait();
+				}
+			}
+		}
+	}
+
+	private static Task poll(Worker worker)
+	{
+		synchronized (worker._queue)
+		{
+			return worker._queue.poll();
+		}
+	}
+
+	private class Worker extends Thread
+	{
+		private final WorkerPool _pool;
+		private final int _index;
+		private final PriorityQueue<Task> _queue;
+
+		public Worker(int index)
+		{
+			super("Worker-" + index);
+			_pool = WorkerPool.this;
+			_index = index;
+			_queue = new PriorityQueue<Task>();
+			setDaemon(true);
+			setPriority(Thread.MIN_PRIORITY);
+		}
+
+		@Override
+		public void run()
+		{
+			while (true)
+			{
+				Task task;
+				try
+				{
+					task = take(this);
+				} catch (InterruptedException e)
+				{
+					return;
+				}
+				try
+				{
+					task._runnable.run();
+				} catch (Throwable t)
+				{
+					t.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private static class Task implements Comparable<Task>
+	{
+		private Runnable _runnable;
+		private int _priority;
+
+		public Task(Runnable runnable, int priority)
+		{
+			_runnable = runnable;
+			_priority = priority;
+		}
+
+		@Override
+		public int compareTo(Task o)
+		{
+			return _priority < o._priority ? -1 : (_priority == o._priority ? 0 : 1);
+		}
+	}
+}
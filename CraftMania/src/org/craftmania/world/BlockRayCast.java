@@ -0,0 +1,335 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.world;
+
+import org.craftmania.blocks.Block;
+import org.craftmania.blocks.BlockManager;
+import org.craftmania.blocks.BlockType;
+import org.craftmania.datastructures.AABB;
+import org.craftmania.math.MathHelper;
+import org.craftmania.math.Vec3f;
+import org.craftmania.math.Vec3i;
+
+/**
+ * Casts a ray through the block grid, visiting the blocks in the order the ray
+ * passes through them (Amanatides and Woo), and stops at the first block that
+ * is hit. Full blocks are hit as soon as the ray enters their cell, blocks
+ * with a smaller box are tested against that box. The results are stored in
+ * this object, so casting doesn't allocate anything.
+ * 
+ * @author martijncourteaux
+ */
+public class BlockRayCast
+{
+
+	private static final BlockManager _blockManager = BlockManager.getInstance();
+
+	private boolean _hit;
+	private Vec3i _blockPosition;
+	private Vec3i _normal;
+	private Vec3i _adjacentBlockPosition;
+	private Vec3f _hitPoint;
+	private float _distance;
+	private byte _blockType;
+	private Block _specialBlock;
+
+	public BlockRayCast()
+	{
+		_blockPosition = new Vec3i();
+		_normal = new Vec3i();
+		_adjacentBlockPosition = new Vec3i();
+		_hitPoint = new Vec3f();
+	}
+
+	/**
+	 * Casts the ray. The blocks are looked up starting from the given chunk.
+	 * 
+	 * @param direction
+	 *            the normalised direction of the ray
+	 * @return true if a block was hit within the maximum distance
+	 */
+	public boolean cast(Chunk chunk, Vec3f origin, Vec3f direction, float maxDistance)
+	{
+		_hit = false;
+		_blockType = 0;
+		_specialBlock = null;
+
+		float ox = origin.x(), oy = origin.y(), oz = origin.z();
+		float dx = direction.x(), dy = direction.y(), dz = direction.z();
+
+		int x = MathHelper.floor(ox);
+		int y = MathHelper.floor(oy);
+		int z = MathHelper.floor(oz);
+
+		int stepX = dx > 0.0f ? 1 : (dx < 0.0f ? -1 : 0);
+		int stepY = dy > 0.0f ? 1 : (dy < 0.0f ? -1 : 0);
+		int stepZ = dz > 0.0f ? 1 : (dz < 0.0f ? -1 : 0);
+
+		/* The ray distance needed to cross one block on each axis */
+		float deltaX = stepX != 0 ? Math.abs(1.0f / dx) : Float.POSITIVE_INFINITY;
+		float deltaY = stepY != 0 ? Math.abs(1.0f / dy) : Float.POSITIVE_INFINITY;
+		float deltaZ = stepZ != 0 ? Math.abs(1.0f / dz) : Float.POSITIVE_INFINITY;
+
+		/* The ray distance to the next block boundary on each axis */
+		float maxX = stepX > 0 ? (x + 1 - ox) * deltaX : (stepX < 0 ? (ox - x) * deltaX : Float.POSITIVE_INFINITY);
+		float maxY = stepY > 0 ? (y + 1 - oy) * deltaY : (stepY < 0 ? (oy - y) * deltaY : Float.POSITIVE_INFINITY);
+		float maxZ = stepZ > 0 ? (z + 1 - oz) * deltaZ : (stepZ < 0 ? (oz - z) * deltaZ : Float.POSITIVE_INFINITY);
+
+		/* The face through which the ray entered the current block */
+		int nx = 0, ny = 0, nz = 0;
+		float t = 0.0f;
+
+		while (t <= maxDistance)
+		{
+			if ((y < 0 && stepY <= 0) || (y >= Chunk.CHUNK_SIZE_VERTICAL && stepY >= 0))
+			{
+				break;
+			}
+			if (testBlock(chunk, x, y, z, nx, ny, nz, t, origin, direction, maxDistance))
+			{
+				_hit = true;
+				_blockPosition.set(x, y, z);
+				_adjacentBlockPosition.set(x + _normal.x(), y + _normal.y(), z + _normal.z());
+				_hitPoint.set(origin).addFactor(direction, _distance);
+				return true;
+			}
+
+			if (maxX < maxY && maxX < maxZ)
+			{
+				t = maxX;
+				maxX += deltaX;
+				x += stepX;
+				nx = -stepX;
+				ny = nz = 0;
+			} else if (maxY < maxZ)
+			{
+				t = maxY;
+				maxY += deltaY;
+				y += stepY;
+				ny = -stepY;
+				nx = nz = 0;
+			} else
+			{
+				t = maxZ;
+				maxZ += deltaZ;
+				z += stepZ;
+				nz = -stepZ;
+				nx = ny = 0;
+			}
+		}
+		return false;
+	}
+
+	private boolean testBlock(Chunk chunk, int x, int y, int z, int nx, int ny, int nz, float t, Vec3f origin, Vec3f direction, float maxDistance)
+	{
+		byte type = chunk.getBlockTypeAbsolute(x, y, z, false, false, false);
+		if (type == 0 || type == -1)
+		{
+			return false;
+		}
+
+		if (chunk.isBlockSpecialAbsolute(x, y, z))
+		{
+			Block block = chunk.getSpecialBlockAbsolute(x, y, z);
+			if (block == null || block.isMoving())
+			{
+				return false;
+			}
+			AABB aabb = block.getAABB();
+			if (!intersect(aabb.minX(), aabb.minY(), aabb.minZ(), aabb.maxX(), aabb.maxY(), aabb.maxZ(), origin, direction, maxDistance))
+			{
+				return false;
+			}
+			_specialBlock = block;
+		} else
+		{
+			BlockType blockType = _blockManager.getBlockType(type);
+			Vec3f center = blockType.getCenter();
+			Vec3f dim = blockType.getDimensions();
+			boolean full = dim.x() == 0.5f && dim.y() == 0.5f && dim.z() == 0.5f && center.x() == 0.5f && center.y() == 0.5f && center.z() == 0.5f;
+
+			/*
+			 * A full block is hit where the ray enters its cell. The block the
+			 * ray starts in has no entry face, so it goes through the box test.
+			 */
+			if (full && (nx != 0 || ny != 0 || nz != 0))
+			{
+				_distance = t;
+				_normal.set(nx, ny, nz);
+			} else
+			{
+				float cx = x + center.x(), cy = y + center.y(), cz = z + center.z();
+				if (!intersect(cx - dim.x(), cy - dim.y(), cz - dim.z(), cx + dim.x(), cy + dim.y(), cz + dim.z(), origin, direction, maxDistance))
+				{
+					return false;
+				}
+			}
+		}
+		_blockType = type;
+		return true;
+	}
+
+	/**
+	 * Intersects the ray with a box using the slab method. On a hit the
+	 * distance and the normal of the face that was hit are stored. If the ray
+	 * starts inside the box, the face where it leaves the box is used.
+	 */
+	private boolean intersect(float minX, float minY, float minZ, float maxX, float maxY, float maxZ, Vec3f origin, Vec3f direction, float maxDistance)
+	{
+		float near = Float.NEGATIVE_INFINITY, far = Float.POSITIVE_INFINITY;
+		int nearAxis = -1, farAxis = -1;
+		float o, d, min, max;
+
+		for (int axis = 0; axis < 3; ++axis)
+		{
+			if (axis == 0)
+			{
+				o = origin.x();
+				d = direction.x();
+				min = minX;
+				max = maxX;
+			} else if (axis == 1)
+			{
+				o = origin.y();
+				d = direction.y();
+				min = minY;
+				max = maxY;
+			} else
+			{
+				o = origin.z();
+				d = direction.z();
+				min = minZ;
+				max = maxZ;
+			}
+
+			if (d == 0.0f)
+			{
+				if (o < min || o > max)
+				{
+					return false;
+				}
+				continue;
+			}
+			float t0 = (min - o) / d;
+			float t1 = (max - o) / d;
+			if (t0 > t1)
+			{
+				float swap = t0;
+				t0 = t1;
+				t1 = swap;
+			}
+			if (t0 > near)
+			{
+				near = t0;
+				nearAxis = axis;
+			}
+			if (t1 < far)
+			{
+				far = t1;
+				farAxis = axis;
+			}
+			if (near > far || far < 0.0f)
+			{
+				return false;
+			}
+		}
+
+		if (near >= 0.0f)
+		{
+			if (near > maxDistance)
+			{
+				return false;
+			}
+			_distance = near;
+			setNormal(nearAxis, direction, -1);
+		} else
+		{
+			_distance = far;
+			setNormal(farAxis, direction, 1);
+		}
+		return true;
+	}
+
+	/**
+	 * Sets the normal along the given axis, pointing along (sign = 1) or
+	 * against (sign = -1) the direction of the ray.
+	 */
+	private void setNormal(int axis, Vec3f direction, int sign)
+	{
+		_normal.set(0, 0, 0);
+		if (axis == 0)
+		{
+			_normal.setX(direction.x() > 0.0f ? sign : -sign);
+		} else if (axis == 1)
+		{
+			_normal.setY(direction.y() > 0.0f ? sign : -sign);
+		} else if (axis == 2)
+		{
+			_normal.setZ(direction.z() > 0.0f ? sign : -sign);
+		}
+	}
+
+	public boolean hasHit()
+	{
+		return _hit;
+	}
+
+	public Vec3i getBlockPosition()
+	{
+		return _blockPosition;
+	}
+
+	/**
+	 * Returns the normal of the face of the block that was hit.
+	 */
+	public Vec3i getNormal()
+	{
+		return _normal;
+	}
+
+	/**
+	 * Returns the position of the block next to the hit face, where a new
+	 * block would be placed.
+	 */
+	public Vec3i getAdjacentBlockPosition()
+	{
+		return _adjacentBlockPosition;
+	}
+
+	public Vec3f getHitPoint()
+	{
+		return _hitPoint;
+	}
+
+	public float getDistance()
+	{
+		return _distance;
+	}
+
+	public byte getBlockType()
+	{
+		return _blockType;
+	}
+
+	/**
+	 * Returns the special block that was hit, or null if it was a default
+	 * block.
+	 */
+	public Block getSpecialBlock()
+	{
+		return _specialBlock;
+	}
+}
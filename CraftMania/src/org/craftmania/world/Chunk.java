@@ -15,7 +15,8 @@
  ******************************************************************************/
 package org.craftmania.world;
 
-import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.craftmania.Side;
 import org.craftmania.blocks.Block;
@@ -27,16 +28,16 @@ import org.craftmania.blocks.customblocks.Redstone;
 import org.craftmania.blocks.customblocks.RedstoneLamp;
 import org.craftmania.datastructures.AABB;
 import org.craftmania.datastructures.AABBObject;
+import org.craftmania.datastructures.ViewFrustum;
 import org.craftmania.game.Game;
 import org.craftmania.math.MathHelper;
 import org.craftmania.math.Vec2i;
 import org.craftmania.math.Vec3f;
 import org.craftmania.math.Vec3i;
+import org.craftmania.rendering.BufferManager;
 import org.craftmania.rendering.ChunkMesh;
-import org.craftmania.rendering.ChunkMeshBuilder;
 import org.craftmania.rendering.ChunkMeshBuilder.MeshType;
 import org.craftmania.rendering.ChunkMeshRenderer;
-import org.craftmania.utilities.FastArrayList;
 import org.craftmania.utilities.IntList;
 import org.craftmania.world.generators.ChunkGenerator;
 
@@ -47,6 +48,10 @@ public class Chunk implements AABBObject
 	public static final Vec3i BLOCKCHUNK_SIZE = new Vec3i(CHUNK_SIZE_HORIZONTAL, CHUNK_SIZE_VERTICAL, CHUNK_SIZE_HORIZONTAL);
 	public static final Vec3i HALF_BLOCKCHUNK_SIZE = new Vec3i(BLOCKCHUNK_SIZE).scale(0.5f);
 	public static final int BLOCK_COUNT = CHUNK_SIZE_HORIZONTAL * CHUNK_SIZE_HORIZONTAL * CHUNK_SIZE_VERTICAL;
+	/** The meshes are split in sections of this height */
+	public static final int SECTION_HEIGHT = 16;
+	public static final int SECTION_COUNT = CHUNK_SIZE_VERTICAL / SECTION_HEIGHT;
+	public static final int ALL_SECTIONS = (1 << SECTION_COUNT) - 1;
 
 	private static final BlockManager _blockManager = BlockManager.getInstance();
 
@@ -64,7 +69,9 @@ public class Chunk implements AABBObject
 	private World _world;
 
 	private ChunkMesh _mesh;
-	private boolean _newVboNeeded;
+	private AtomicInteger _dirtySections;
+	private volatile boolean _meshBuilding;
+	private volatile int _meshGeneration;
 	private LightBuffer _lightBuffer;
 
 	/* Blocks */
@@ -77,6 +84,13 @@ public class Chunk implements AABBObject
 	private Chunk[] _neighbors;
 	private boolean _newVisibilityContentAABBNeeded;
 
+	/* Occlusion culling, per section */
+	private AtomicLongArray _connectivity;
+	private int _occlusionFrame;
+	private int _visibleSections;
+	private byte[] _occlusionEntrySides;
+	private byte[] _occlusionDirections;
+
 	public static enum LightType
 	{
 		SUN, BLOCK, RAW
@@ -101,7 +115,14 @@ public class Chunk implements AABBObject
 		_manualRenderingBlocks = new IntList();
 
 		/* Initial chunk states */
-		_newVboNeeded = true;
+		_dirtySections = new AtomicInteger(ALL_SECTIONS);
+		_connectivity = new AtomicLongArray(SECTION_COUNT);
+		for (int section = 0; section < SECTION_COUNT; ++section)
+		{
+			_connectivity.set(section, ChunkConnectivity.ALL);
+		}
+		_occlusionEntrySides = new byte[SECTION_COUNT];
+		_occlusionDirections = new byte[SECTION_COUNT];
 		_generated = false;
 		_loaded = false;
 		_loading = false;
@@ -121,9 +142,39 @@ public class Chunk implements AABBObject
 		}
 	}
 
+	/**
+	 * Marks the meshes of all sections as outdated.
+	 */
 	public void needsNewVBO()
 	{
-		_newVboNeeded = true;
+		_dirtySections.set(ALL_SECTIONS);
+	}
+
+	/**
+	 * Marks the mesh sections that show the block at the given height as
+	 * outdated. The faces and the smooth light of the blocks right above and
+	 * below it might change as well.
+	 */
+	public void needsNewVBO(int y)
+	{
+		int first = MathHelper.clamp(y - 1, 0, CHUNK_SIZE_VERTICAL - 1) / SECTION_HEIGHT;
+		int last = MathHelper.clamp(y + 1, 0, CHUNK_SIZE_VERTICAL - 1) / SECTION_HEIGHT;
+		markSectionsDirty(((1 << (last + 1)) - 1) & ~((1 << first) - 1));
+	}
+
+	/**
+	 * Marks the meshes of the given sections as outdated.
+	 * 
+	 * @param sections
+	 *            a bit for each section, the lowest bit is the bottom section
+	 */
+	public void markSectionsDirty(int sections)
+	{
+		int old;
+		do
+		{
+			old = _dirtySections.get();
+		} while (!_dirtySections.compareAndSet(old, old | sections));
 	}
 
 	public ChunkMesh getMesh()
@@ -136,22 +187,149 @@ public class Chunk implements AABBObject
 		_mesh = mesh;
 	}
 
-	public void createMesh()
+	/**
+	 * Lets a worker thread build the vertex data of the meshes. The main thread
+	 * uploads them afterwards, see {@link BufferManager#uploadQueuedMeshes}.
+	 */
+	public void scheduleMeshBuild()
 	{
-		_newVboNeeded = false;
 		performListChanges();
-		_newVboNeeded = false;
+		int sections = _dirtySections.getAndSet(0);
+		_meshBuilding = true;
 
+		/* Sections are only rebuilt separately on top of a complete mesh */
 		if (_mesh == null)
 		{
-			_mesh = new ChunkMesh();
+			sections = ALL_SECTIONS;
 		}
 
-		ChunkMeshBuilder.generateChunkMeshes(this);
-		_newVboNeeded = false;
+		int minY = 0;
+		int maxY = 0;
+		AABB visibleContent = getVisibleContentAABB();
+		if (visibleContent != null)
+		{
+			minY = MathHelper.clamp(MathHelper.floor(visibleContent.minY() - 2), 0, CHUNK_SIZE_VERTICAL - 1);
+			maxY = MathHelper.clamp(MathHelper.ceil(visibleContent.maxY() + 2), 0, CHUNK_SIZE_VERTICAL - 1);
+		}
+
+		_world.getChunkManager().buildChunkMesh(this, _visibleBlocks.toArray(), minY, maxY, sections);
+	}
+
+	/**
+	 * Called by the main thread when the built meshes are uploaded, or when
+	 * building failed.
+	 */
+	public void meshBuildFinished()
+	{
+		_meshBuilding = false;
+	}
+
+	/**
+	 * Returns a number that changes each time the mesh is destroyed. Meshes
+	 * built before that are thrown away instead of uploaded.
+	 */
+	public int getMeshGeneration()
+	{
+		return _meshGeneration;
 	}
 
 	public void generate()
+	{
+		generate(null);
+	}
+
+	/**
+	 * Returns which faces of the given section can see each other, see
+	 * {@link ChunkConnectivity}.
+	 */
+	public long getConnectivity(int section)
+	{
+		return _connectivity.get(section);
+	}
+
+	/**
+	 * Computes the connectivity of the given sections again, called when
+	 * their meshes get built.
+	 */
+	public void updateConnectivity(int sections)
+	{
+		for (int section = 0; section < SECTION_COUNT; ++section)
+		{
+			if ((sections & (1 << section)) != 0)
+			{
+				_connectivity.set(section, ChunkConnectivity.compute(_chunkData, section));
+			}
+		}
+	}
+
+	/**
+	 * Returns the frame in which the occlusion pass of the world last marked
+	 * this chunk as a candidate.
+	 */
+	public int getOcclusionFrame()
+	{
+		return _occlusionFrame;
+	}
+
+	/**
+	 * Marks this chunk as a candidate for the occlusion pass of the given
+	 * frame. None of its sections is reached yet.
+	 */
+	public void markForOcclusion(int frame)
+	{
+		_occlusionFrame = frame;
+		_visibleSections = 0;
+	}
+
+	/**
+	 * Marks the section as reached by the occlusion pass.
+	 * 
+	 * @param entrySide
+	 *            the ordinal of the side through which it was entered, or -1
+	 *            for the section of the camera
+	 * @param directions
+	 *            the directions stepped to reach this section, as bits
+	 *            indexed by the side ordinals
+	 */
+	public void reachSection(int section, int entrySide, int directions)
+	{
+		_visibleSections |= 1 << section;
+		_occlusionEntrySides[section] = (byte) entrySide;
+		_occlusionDirections[section] = (byte) directions;
+	}
+
+	/**
+	 * Returns the sections that can be seen from the camera, as bits indexed
+	 * by the section.
+	 */
+	public int getVisibleSections()
+	{
+		return _visibleSections;
+	}
+
+	public void setVisibleSections(int sections)
+	{
+		_visibleSections = sections;
+	}
+
+	public int getOcclusionEntrySide(int section)
+	{
+		return _occlusionEntrySides[section];
+	}
+
+	public int getOcclusionDirections(int section)
+	{
+		return _occlusionDirections[section];
+	}
+
+	/**
+	 * Generates the chunk, if it isn't generated yet, and lights it.
+	 * 
+	 * @param gen
+	 *            a generator for this chunk of which the terrain might be
+	 *            computed already, or null to create one.
+	 */
+	public void generate(ChunkGenerator gen)
 	{
 		_loading = true;
 		if (!_generated)
@@ -159,7 +337,10 @@ public class Chunk implements AABBObject
 			_generated = true;
 			try
 			{
-				ChunkGenerator gen = new ChunkGenerator(Game.getInstance().getWorld(), getX(), getZ());
+				if (gen == null)
+				{
+					gen = new ChunkGenerator(Game.getInstance().getWorld(), getX(), getZ());
+				}
 				gen.generateChunk();
 			} catch (Exception e)
 			{
@@ -170,10 +351,18 @@ public class Chunk implements AABBObject
 			markNeighborsLightPointsDirty();
 		}
 		_loading = false;
+		/* Put the blocks that the neighbors generated into this chunk */
+		_world.getChunkManager().applyPendingBlockWrites(this);
 		/* Generate sunlight */
 		generateSunlight();
 		spreadLightFromLightPoints();
 		buildVisibileContentAABB();
+
+		/* Release the light of the sections which are completely lit or dark */
+		_chunkData.compact();
+
+		/* From now on the neighbors put their blocks directly */
+		_world.getChunkManager().drainPendingBlockWrites(this);
 	}
 
 	public void spreadLightFromLightPoints()
@@ -321,13 +510,13 @@ public class Chunk implements AABBObject
 			}
 			if (z < getZ())
 			{
-				Chunk c = getNeighborChunk(Side.FRONT);
+				Chunk c = getNeighborChunk(Side.BACK);
 				if (c != null)
 					return c.getChunk(x, z, createIfNecessary, loadIfNecessary, generateIfNecessary);
 			}
 			if (z > getZ())
 			{
-				Chunk c = getNeighborChunk(Side.BACK);
+				Chunk c = getNeighborChunk(Side.FRONT);
 				if (c != null)
 					return c.getChunk(x, z, createIfNecessary, loadIfNecessary, generateIfNecessary);
 			}
@@ -416,6 +605,10 @@ public class Chunk implements AABBObject
 		Vec3i v = new Vec3i();
 		for (int i = 0; i < Chunk.BLOCK_COUNT; ++i)
 		{
+			if (getChunkData().getBlockType(i) == 0)
+			{
+				continue;
+			}
 			ChunkData.indexToPosition(i, v);
 			boolean special = getChunkData().isSpecial(i);
 
@@ -429,6 +622,62 @@ public class Chunk implements AABBObject
 		performListChanges();
 	}
 
+	/**
+	 * Builds the visibility and the content AABB in one pass, after the chunk
+	 * data was filled directly instead of through the set methods.
+	 */
+	public void finishBulkLoad()
+	{
+		rebuildVisibilityBuffer();
+
+		/* The faces of the neighbors towards this chunk might be hidden now */
+		Chunk c;
+		c = getChunk(getX() - 1, getZ(), false, false, false);
+		if (c != null)
+			c.updateVisiblityForAllBlocksOnSide(Side.RIGHT);
+
+		c = getChunk(getX() + 1, getZ(), false, false, false);
+		if (c != null)
+			c.updateVisiblityForAllBlocksOnSide(Side.LEFT);
+
+		c = getChunk(getX(), getZ() - 1, false, false, false);
+		if (c != null)
+			c.updateVisiblityForAllBlocksOnSide(Side.FRONT);
+
+		c = getChunk(getX(), getZ() + 1, false, false, false);
+		if (c != null)
+			c.updateVisiblityForAllBlocksOnSide(Side.BACK);
+
+		buildContentAABB();
+		needsNewVBO();
+	}
+
+	private void buildContentAABB()
+	{
+		int minX = CHUNK_SIZE_HORIZONTAL, minY = CHUNK_SIZE_VERTICAL, minZ = CHUNK_SIZE_HORIZONTAL;
+		int maxX = -1, maxY = -1, maxZ = -1;
+		Vec3i v = new Vec3i();
+		for (int i = 0; i < BLOCK_COUNT; ++i)
+		{
+			if (_chunkData.getBlockType(i) != 0)
+			{
+				ChunkData.indexToPosition(i, v);
+				minX = Math.min(minX, v.x());
+				minY = Math.min(minY, v.y());
+				minZ = Math.min(minZ, v.z());
+				maxX = Math.max(maxX, v.x());
+				maxY = Math.max(maxY, v.y());
+				maxZ = Math.max(maxZ, v.z());
+			}
+		}
+		_contentAABB = null;
+		if (maxX != -1)
+		{
+			_contentAABB = addBlockToAABB(null, getAbsoluteX() + minX, minY, getAbsoluteZ() + minZ);
+			_contentAABB = addBlockToAABB(_contentAABB, getAbsoluteX() + maxX, maxY, getAbsoluteZ() + maxZ);
+		}
+	}
+
 	public void buildVisibileContentAABB()
 	{
 		_visibleContentAABB = null;
@@ -539,7 +788,7 @@ public class Chunk implements AABBObject
 						chunk.getVisibleBlocks().bufferRemove(index);
 						chunk.needsNewVisibleContentAABB();
 					}
-					chunk.needsNewVBO();
+					chunk.needsNewVBO(y);
 				}
 				return faceMask;
 			} else
@@ -694,7 +943,7 @@ public class Chunk implements AABBObject
 			/* Finally notify the neighbors */
 			chunk.notifyNeighborsOf(x, y, z);
 
-			chunk.needsNewVBO();
+			chunk.needsNewVBO(y);
 
 			/* Include the block into the content AABB */
 			chunk._contentAABB = chunk.addBlockToAABB(chunk._contentAABB, x, y, z);
@@ -754,7 +1003,7 @@ public class Chunk implements AABBObject
 
 			chunk._chunkData.clearBlock(index);
 			chunk.updateVisibilityForNeigborsOf(x, y, z);
-			chunk.needsNewVBO();
+			chunk.needsNewVBO(y);
 
 			/* Get the highest neighboring light value */
 			Side side;
@@ -843,15 +1092,8 @@ public class Chunk implements AABBObject
 
 		/* TODO: Destroy all special blocks */
 
-		/* Delete this chunk from the superchunk */
-		int superChunkX = MathHelper.floorDivision(this.getX(), AbstractChunk.CHUNK_SIZE_X);
-		int superChunkZ = MathHelper.floorDivision(this.getZ(), AbstractChunk.CHUNK_SIZE_Z);
-
-		int xInChunk = getX() - superChunkX * AbstractChunk.CHUNK_SIZE_X;
-		int zInChunk = getZ() - superChunkZ * AbstractChunk.CHUNK_SIZE_X;
-
-		AbstractChunk<Chunk> superChunk = chman.getSuperChunk(superChunkX, superChunkZ);
-		superChunk.set(xInChunk, zInChunk, null);
+		/* Delete this chunk from the chunk index */
+		chman.removeChunk(this);
 
 		setGenerated(false);
 		return true;
@@ -872,21 +1114,21 @@ public class Chunk implements AABBObject
 		return MathHelper.cantorize(MathHelper.mapToPositive(getX()), MathHelper.mapToPositive(getZ()));
 	}
 
-	public void render(MeshType meshType)
+	public void render(MeshType meshType, ViewFrustum frustum)
 	{
 
 		if (_lightPointsDirty)
 		{
 			spreadLightFromLightPoints();
 		}
-		if (_newVboNeeded)
+		if (_dirtySections.get() != 0 && !_meshBuilding)
 		{
 			if (isReadyForCreatingMesh())
-				createMesh();
+				scheduleMeshBuild();
 		}
 		if (_mesh != null)
 		{
-			ChunkMeshRenderer.renderChunkMesh(this, meshType);
+			ChunkMeshRenderer.renderChunkMesh(this, meshType, frustum);
 		}
 
 	}
@@ -911,7 +1153,7 @@ public class Chunk implements AABBObject
 		}
 	}
 
-	public int getVertexCount(MeshType meshType)
+	public int getVertexCount(MeshType meshType, int[] visibleBlocks)
 	{
 		int count = 0;
 		int blockIndex = 0;
@@ -920,11 +1162,13 @@ public class Chunk implements AABBObject
 		boolean special;
 		BlockType type = null;
 		Block block = null;
-		for (int i = 0; i < _visibleBlocks.size(); ++i)
+		for (int i = 0; i < visibleBlocks.length; ++i)
 		{
-			blockIndex = _visibleBlocks.get(i);
+			blockIndex = visibleBlocks[i];
 			blockData = _chunkData.getBlockData(blockIndex);
 			blockType = (byte) ((blockData & 0xFF0000) >>> 16);
+			if (blockType == 0)
+				continue;
 			type = _blockManager.getBlockType(blockType);
 
 			special = ChunkData.dataIsSpecial(blockData);
@@ -964,11 +1208,12 @@ public class Chunk implements AABBObject
 
 	public void destroyMesh()
 	{
+		_meshGeneration++;
 		if (_mesh != null)
 		{
 			_mesh.destroyAllMeshes();
 			_mesh = null;
-			_newVboNeeded = true;
+			needsNewVBO();
 		}
 	}
 
@@ -1013,7 +1258,7 @@ public class Chunk implements AABBObject
 	 */
 	public void unsetNetVBONeeded()
 	{
-		_newVboNeeded = false;
+		_dirtySections.set(0);
 	}
 
 	public void markChunkForNewVBO(int x, int z)
@@ -1025,6 +1270,15 @@ public class Chunk implements AABBObject
 		}
 	}
 
+	public void markChunkForNewVBO(int x, int y, int z)
+	{
+		Chunk c = getChunk(x, z, false, false, false);
+		if (c != null)
+		{
+			c.needsNewVBO(y);
+		}
+	}
+
 	public byte getLightAbsolute(int x, int y, int z, LightType type)
 	{
 		if (isInvalidHeight(y))
@@ -1070,36 +1324,45 @@ public class Chunk implements AABBObject
 		int relZ = z - chunk.getAbsoluteZ();
 		int index = ChunkData.positionToIndex(relX, y, relZ);
 		chunk._chunkData.setLight(index, light, type);
-		chunk.needsNewVBO();
+		chunk.lightChanged(relX, y, relZ);
+	}
+
+	/**
+	 * Marks the meshes which use the light at the given relative position as
+	 * outdated, including the ones of the neighbors if it is on an edge.
+	 */
+	void lightChanged(int relX, int y, int relZ)
+	{
+		needsNewVBO(y);
 
 		if (relX == 0)
 		{
 			if (relZ == 0)
 			{
-				markChunkForNewVBO(chunk.getX() - 1, chunk.getZ() - 1);
+				markChunkForNewVBO(getX() - 1, y, getZ() - 1);
 			} else if (relZ == CHUNK_SIZE_HORIZONTAL - 1)
 			{
-				markChunkForNewVBO(chunk.getX() - 1, chunk.getZ() + 1);
+				markChunkForNewVBO(getX() - 1, y, getZ() + 1);
 			}
-			markChunkForNewVBO(chunk.getX() - 1, chunk.getZ());
+			markChunkForNewVBO(getX() - 1, y, getZ());
 		}
 		if (relX == CHUNK_SIZE_HORIZONTAL - 1)
 		{
 			if (relZ == 0)
 			{
-				markChunkForNewVBO(chunk.getX() + 1, chunk.getZ() - 1);
+				markChunkForNewVBO(getX() + 1, y, getZ() - 1);
 			} else if (relZ == CHUNK_SIZE_HORIZONTAL - 1)
 			{
-				markChunkForNewVBO(chunk.getX() + 1, chunk.getZ() + 1);
+				markChunkForNewVBO(getX() + 1, y, getZ() + 1);
 			}
-			markChunkForNewVBO(chunk.getX() + 1, chunk.getZ());
+			markChunkForNewVBO(getX() + 1, y, getZ());
 		}
 		if (relZ == 0)
 		{
-			markChunkForNewVBO(chunk.getX(), chunk.getZ() - 1);
+			markChunkForNewVBO(getX(), y, getZ() - 1);
 		} else if (relZ == CHUNK_SIZE_HORIZONTAL - 1)
 		{
-			markChunkForNewVBO(chunk.getX(), chunk.getZ() + 1);
+			markChunkForNewVBO(getX(), y, getZ() + 1);
 		}
 	}
 
@@ -1128,6 +1391,7 @@ public class Chunk implements AABBObject
 		Chunk chunk = getChunkContaining(x, 0, z, false, false, false);
 		if (chunk == null || chunk._loading)
 			return;
+		chunk.updateHeight(x - chunk.getAbsoluteX(), z - chunk.getAbsoluteZ());
 
 		boolean spreading = false;
 
@@ -1184,6 +1448,7 @@ public class Chunk implements AABBObject
 
 		int absX = chunk.getAbsoluteX();
 		int absZ = chunk.getAbsoluteZ();
+		chunk.updateHeight(x - absX, z - absZ);
 
 		boolean covered = false;
 		for (int y = height; y > 0; --y)
@@ -1212,137 +1477,131 @@ public class Chunk implements AABBObject
 
 	public void spreadLight(int x, int y, int z, byte light, LightType lightType)
 	{
-		if (light == 0)
-			return;
-
-		Chunk chunk = getChunkContaining(x, y, z, false, false, false);
-
-		if (chunk == null)
-		{
-			return;
-		}
+		LightEngine.getInstance().spreadLight(this, x, y, z, light, lightType);
+	}
 
-		if (chunk._loading)
-			return;
+	public void unspreadLight(int x, int y, int z, byte light, LightType type)
+	{
+		LightEngine.getInstance().unspreadLight(this, x, y, z, light, type);
+	}
 
-		/* This block */
+	/**
+	 * Computes the height above the highest opaque block of the given column,
+	 * relative to this chunk, and stores it in the height map.
+	 */
+	private int updateHeight(int x, int z)
+	{
+		int height = 0;
+		search: for (int s = ChunkData.SECTION_COUNT - 1; s >= 0; --s)
 		{
-			byte oldLight = chunk.getLightAbsolute(x, y, z, lightType);
-			if (oldLight < light)
+			if (_chunkData.isSectionEmpty(s))
 			{
-				chunk.setLightAbsolute(x, y, z, light, lightType);
-			}
-		}
-
-		Side side;
-		Vec3i vec = new Vec3i();
-		for (int i = 0; i < 6; ++i)
-		{
-			side = Side.getSide(i);
-			vec.set(x + side.getNormal().x(), y + side.getNormal().y(), z + side.getNormal().z());
-
-			/* Conditions */
-			if (isInvalidHeight(vec.y()))
 				continue;
-			byte type = chunk.getBlockTypeAbsolute(vec.x(), vec.y(), vec.z(), false, false, false);
-			if (type < 0)
-				continue;
-			if (type != 0)
+			}
+			for (int y = s * ChunkData.SECTION_SIZE + ChunkData.SECTION_SIZE - 1; y >= s * ChunkData.SECTION_SIZE; --y)
 			{
-				BlockType btype = BlockManager.getInstance().getBlockType(type);
-				if (!btype.isTranslucent())
+				byte type = _chunkData.getBlockType(ChunkData.positionToIndex(x, y, z));
+				if (type != 0 && !_blockManager.getBlockType(type).isTranslucent())
 				{
-					continue;
+					height = y + 1;
+					break search;
 				}
 			}
-
-			/* Recursive */
-			byte nLight = chunk.getLightAbsolute(vec.x(), vec.y(), vec.z(), lightType);
-			if (nLight < light - 1)
-			{
-				chunk.spreadLight(vec.x(), vec.y(), vec.z(), (byte) (light - 1), lightType);
-			}
-		}
-
-	}
-
-	public void unspreadLight(int x, int y, int z, byte light, LightType type)
-	{
-		Chunk chunk = getChunkContaining(x, y, z, false, false, false);
-
-		if (chunk == null || chunk._loading)
-			return;
-		List<Vec3i> brightSpots = new FastArrayList<Vec3i>();
-		chunk.unspreadLight(x, y, z, light, type, brightSpots);
-
-		for (Vec3i v : brightSpots)
-		{
-			byte spot = getLightAbsolute(v.x(), v.y(), v.z(), type);
-			chunk.spreadLight(v.x(), v.y(), v.z(), spot, type);
 		}
+		_chunkData.setHeight(x, z, height);
+		return height;
 	}
 
-	private void unspreadLight(int x, int y, int z, byte light, LightType lightType, List<Vec3i> brightSpots)
+	/**
+	 * Fills the sunlight of the whole chunk at once. Everything above the
+	 * height map is full bright, and the sunlight is only spread where a lit
+	 * column touches a covered one.
+	 */
+	public void generateSunlight()
 	{
-		Chunk chunk = getChunkContaining(x, y, z, false, false, false);
-		if (chunk._loading)
-			return;
-		if (light == 0)
-			return;
-
-		/* This block */
+		int maxHeight = 0;
+		for (int x = 0; x < CHUNK_SIZE_HORIZONTAL; ++x)
 		{
-			byte oldLight = chunk.getLightAbsolute(x, y, z, lightType);
-			if (oldLight == light)
+			for (int z = 0; z < CHUNK_SIZE_HORIZONTAL; ++z)
 			{
-				chunk.setLightAbsolute(x, y, z, (byte) 0, lightType);
+				maxHeight = Math.max(maxHeight, updateHeight(x, z));
 			}
 		}
 
-		Side side;
-		Vec3i vec = new Vec3i();
-		for (int i = 0; i < 6; ++i)
+		/* The sections above the highest block are lit completely */
+		int firstSkySection = (maxHeight + ChunkData.SECTION_SIZE - 1) / ChunkData.SECTION_SIZE;
+		for (int s = firstSkySection; s < ChunkData.SECTION_COUNT; ++s)
 		{
-			side = Side.getSide(i);
-			vec.set(x + side.getNormal().x(), y + side.getNormal().y(), z + side.getNormal().z());
-			if (isInvalidHeight(vec.y()))
-				continue;
-			byte type = chunk.getBlockTypeAbsolute(vec.x(), vec.y(), vec.z(), false, false, false);
-			if (type < 0)
-				continue;
-			if (type != 0)
+			_chunkData.fillSunlight(s);
+		}
+		int skyHeight = firstSkySection * ChunkData.SECTION_SIZE;
+		for (int x = 0; x < CHUNK_SIZE_HORIZONTAL; ++x)
+		{
+			for (int z = 0; z < CHUNK_SIZE_HORIZONTAL; ++z)
 			{
-				BlockType btype = BlockManager.getInstance().getBlockType(type);
-				if (!btype.isTranslucent())
+				for (int y = Math.max(1, _chunkData.getHeight(x, z)); y < skyHeight; ++y)
 				{
-					continue;
+					_chunkData.setSunlight(ChunkData.positionToIndex(x, y, z), (byte) 15);
 				}
 			}
-			/* Recursive */
-			byte nLight = chunk.getLightAbsolute(vec.x(), vec.y(), vec.z(), lightType);
-			if (nLight == light - 1 && nLight > 0)
-			{
-				chunk.unspreadLight(vec.x(), vec.y(), vec.z(), nLight, lightType, brightSpots);
-			} else if (nLight == 0)
-			{
-				chunk.setLightAbsolute(vec.x(), vec.y(), vec.z(), nLight, lightType);
-			} else
+		}
+		needsNewVBO();
+		for (int x = getX() - 1; x <= getX() + 1; ++x)
+		{
+			for (int z = getZ() - 1; z <= getZ() + 1; ++z)
 			{
-				/* Bright spots will be respreaded afterwards */
-				brightSpots.add(new Vec3i(vec));
+				if (x != getX() || z != getZ())
+				{
+					markChunkForNewVBO(x, z);
+				}
 			}
 		}
-	}
 
-	public void generateSunlight()
-	{
+		/* Spread the light into the covered columns next to lit ones */
+		LightEngine engine = LightEngine.getInstance();
+		engine.begin(this);
+		int absX = getAbsoluteX(), absZ = getAbsoluteZ();
 		for (int x = 0; x < CHUNK_SIZE_HORIZONTAL; ++x)
 		{
 			for (int z = 0; z < CHUNK_SIZE_HORIZONTAL; ++z)
 			{
-				spreadSunlight(getAbsoluteX() + x, getAbsoluteZ() + z);
+				int height = Math.max(1, _chunkData.getHeight(x, z));
+				int coveredHeight = 0;
+				for (int i = 0; i < 4; ++i)
+				{
+					Side side = Side.getSide(i);
+					int nx = x + side.getNormal().x();
+					int nz = z + side.getNormal().z();
+					if (((nx | nz) & ~(CHUNK_SIZE_HORIZONTAL - 1)) == 0)
+					{
+						coveredHeight = Math.max(coveredHeight, _chunkData.getHeight(nx, nz));
+						continue;
+					}
+
+					/* The column is in a neighboring chunk */
+					Chunk neighbor = getChunkContaining(absX + nx, 0, absZ + nz, false, false, false);
+					if (neighbor == null || neighbor == this || neighbor._loading || !neighbor._generated)
+					{
+						continue;
+					}
+					int neighborX = absX + nx - neighbor.getAbsoluteX();
+					int neighborZ = absZ + nz - neighbor.getAbsoluteZ();
+					int neighborHeight = neighbor._chunkData.getHeight(neighborX, neighborZ);
+					coveredHeight = Math.max(coveredHeight, neighborHeight);
+
+					/* The neighbor was lit before this column existed */
+					for (int y = Math.max(1, neighborHeight); y < _chunkData.getHeight(x, z); ++y)
+					{
+						engine.queueSpread(absX + nx, y, absZ + nz, (byte) 15, LightType.SUN);
+					}
+				}
+				for (int y = height; y < coveredHeight; ++y)
+				{
+					engine.queueSpread(absX + x, y, absZ + z, (byte) 15, LightType.SUN);
+				}
 			}
 		}
+		engine.propagate();
 		_lightPointsDirty = false;
 	}
 
@@ -1522,7 +1781,7 @@ public class Chunk implements AABBObject
 		db.addToUpdateList();
 		db.addToManualRenderList();
 
-		chunk.needsNewVBO();
+		chunk.needsNewVBO(y);
 	}
 
 	public World getWorld()
@@ -1535,6 +1794,18 @@ public class Chunk implements AABBObject
 		return _lightBuffer;
 	}
 
+	/**
+	 * Replaces the light buffer by the one the current mesh was built with.
+	 * 
+	 * @return the previous light buffer
+	 */
+	public LightBuffer setLightBuffer(LightBuffer lightBuffer)
+	{
+		LightBuffer old = _lightBuffer;
+		_lightBuffer = lightBuffer;
+		return old;
+	}
+
 	public boolean isReadyForCreatingMesh()
 	{
 		Chunk c;
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.world;
+
+import java.util.Arrays;
+
+import org.craftmania.Side;
+import org.craftmania.blocks.BlockManager;
+import org.craftmania.blocks.BlockType;
+import org.craftmania.utilities.IntQueue;
+
+/**
+ * Computes which faces of a 16 block high section of a chunk can see each
+ * other through the section. The blocks that light and view can pass through
+ * are flood filled, and every pair of faces touched by the same region is
+ * marked as connected. The result is a bit mask with one bit for each pair of
+ * sides.
+ * 
+ * @author martijncourteaux
+ */
+public class ChunkConnectivity
+{
+
+	/** Every face can see every other face */
+	public static final long ALL = (1L << (6 * 6)) - 1L;
+
+	private static final boolean[] _opaque = new boolean[256];
+
+	private static final ThreadLocal<ChunkConnectivity> INSTANCES = new ThreadLocal<ChunkConnectivity>()
+	{
+		@Override
+		protected ChunkConnectivity initialValue()
+		{
+			return new ChunkConnectivity();
+		}
+	};
+
+	static
+	{
+		BlockManager blockManager = BlockManager.getInstance();
+		for (int i = 1; i < 128; ++i)
+		{
+			BlockType type = blockManager.getBlockType((byte) i);
+			_opaque[i] = type != null && !type.isTranslucent() && type.hasNormalAABB() && !type.isCrossed();
+		}
+	}
+
+	private static final int SIZE = Chunk.CHUNK_SIZE_HORIZONTAL;
+	private static final int SECTION_BLOCK_COUNT = SIZE * Chunk.SECTION_HEIGHT * SIZE;
+
+	/* A block is visited if it holds the stamp of the current fill */
+	private int[] _visited;
+	private int _stamp;
+	private IntQueue _queue;
+
+	private ChunkConnectivity()
+	{
+		_visited = new int[SECTION_BLOCK_COUNT];
+		_queue = new IntQueue(SECTION_BLOCK_COUNT);
+	}
+
+	/**
+	 * Computes the connectivity of the given section of the chunk data.
+	 */
+	public static long compute(ChunkData data, int section)
+	{
+		if (data.isSectionEmpty(section))
+		{
+			return ALL;
+		}
+		return INSTANCES.get().fill(data, section);
+	}
+
+	public static boolean isConnected(long connectivity, Side a, Side b)
+	{
+		return (connectivity & bit(a.ordinal(), b.ordinal())) != 0;
+	}
+
+	private static long bit(int a, int b)
+	{
+		return 1L << (a * 6 + b);
+	}
+
+	/**
+	 * Returns the index in the chunk data of the block at the given index in
+	 * the section, which is ordered like the chunk data.
+	 */
+	private static int chunkIndex(int section, int local)
+	{
+		return ((local >>> 8) << 12) | (section << 8) | (local & 0xFF);
+	}
+
+	private long fill(ChunkData data, int section)
+	{
+		if (++_stamp == 0)
+		{
+			/* Wrapped around, so old stamps could match again */
+			Arrays.fill(_visited, 0);
+			_stamp = 1;
+		}
+		long connectivity = 0;
+		for (int i = 0; i < SECTION_BLOCK_COUNT; ++i)
+		{
+			if (_visited[i] == _stamp || _opaque[data.getBlockType(chunkIndex(section, i)) & 0xFF])
+			{
+				continue;
+			}
+			int faces = fillRegion(data, section, i);
+			for (int a = 0; a < 6; ++a)
+			{
+				if ((faces & (1 << a)) == 0)
+				{
+					continue;
+				}
+				for (int b = 0; b < 6; ++b)
+				{
+					if ((faces & (1 << b)) != 0)
+					{
+						connectivity |= bit(a, b);
+					}
+				}
+			}
+			if (connectivity == ALL)
+			{
+				break;
+			}
+		}
+		return connectivity;
+	}
+
+	/**
+	 * Flood fills the region that contains the given block.
+	 * 
+	 * @return the faces of the chunk the region touches, as bits indexed by
+	 *         the side ordinals
+	 */
+	private int fillRegion(ChunkData data, int section, int start)
+	{
+		int faces = 0;
+		_queue.clear();
+		_queue.add(start);
+		_visited[start] = _stamp;
+
+		while (!_queue.isEmpty())
+		{
+			int index = _queue.poll();
+			int x = index >>> 8;
+			int y = (index >>> 4) & 0xF;
+			int z = index & 0xF;
+
+			if (x == 0)
+				faces |= 1 << Side.LEFT.ordinal();
+			else
+				visit(data, section, index - SIZE * Chunk.SECTION_HEIGHT);
+			if (x == SIZE - 1)
+				faces |= 1 << Side.RIGHT.ordinal();
+			else
+				visit(data, section, index + SIZE * Chunk.SECTION_HEIGHT);
+			if (y == 0)
+				faces |= 1 << Side.BOTTOM.ordinal();
+			else
+				visit(data, section, index - SIZE);
+			if (y == Chunk.SECTION_HEIGHT - 1)
+				faces |= 1 << Side.TOP.ordinal();
+			else
+				visit(data, section, index + SIZE);
+			if (z == 0)
+				faces |= 1 << Side.BACK.ordinal();
+			else
+				visit(data, section, index - 1);
+			if (z == SIZE - 1)
+				faces |= 1 << Side.FRONT.ordinal();
+			else
+				visit(data, section, index + 1);
+		}
+		return faces;
+	}
+
+	private void visit(ChunkData data, int section, int index)
+	{
+		if (_visited[index] != _stamp && !_opaque[data.getBlockType(chunkIndex(section, index)) & 0xFF])
+		{
+			_visited[index] = _stamp;
+			_queue.add(index);
+		}
+	}
+}
@@ -15,6 +15,9 @@
  ******************************************************************************/
 package org.craftmania.world;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import org.craftmania.blocks.Block;
 import org.craftmania.math.Vec3i;
 import org.craftmania.utilities.IntegerPool;
@@ -23,8 +26,11 @@ import org.craftmania.world.Chunk.LightType;
 /**
  * Stores the data for the blocks.
  * 
- * Each block takes 24 bits. Each instance of this class will take 768 KB. The
- * design for a default block is this:
+ * The data is divided in sections of 16x16x16 blocks, from the bottom to the
+ * top. A section is only allocated when it contains a block, and the light of
+ * a section is only allocated when it isn't the same for every block in it.
+ * 
+ * Each block takes 24 bits. The design for a default block is this:
  * 
  * <pre>
  *   |........|0|0|.....|........|
@@ -64,22 +70,104 @@ public class ChunkData
 	private static final int BLOCK_DATA_SIZE = 3;
 	private static final byte SPECIAL_BIT = (byte) 128; // 128
 
+	public static final int SECTION_SIZE = 16;
+	public static final int SECTION_COUNT = Chunk.CHUNK_SIZE_VERTICAL / SECTION_SIZE;
+	public static final int SECTION_BLOCK_COUNT = Chunk.CHUNK_SIZE_HORIZONTAL * SECTION_SIZE * Chunk.CHUNK_SIZE_HORIZONTAL;
+
 	private SpecialBlockPool _blockPool;
-	private byte[] _data;
-	private byte[] _light;
+
+	/* The sections are null if they only contain air or uniform light */
+	private byte[][] _data;
+	private byte[][] _light;
+	private byte[] _lightFill;
+	private int[] _blockCounts;
+
+	/* The height above the highest opaque block of each column */
+	private short[] _heightMap;
 
 	public ChunkData()
 	{
-		_data = new byte[BLOCK_DATA_SIZE * Chunk.BLOCK_COUNT];
-		_light = new byte[Chunk.BLOCK_COUNT];
+		_data = new byte[SECTION_COUNT][];
+		_light = new byte[SECTION_COUNT][];
+		_lightFill = new byte[SECTION_COUNT];
+		_blockCounts = new int[SECTION_COUNT];
+		_heightMap = new short[Chunk.CHUNK_SIZE_HORIZONTAL * Chunk.CHUNK_SIZE_HORIZONTAL];
 		_blockPool = new SpecialBlockPool();
 	}
 
+	/* Section helpers */
+
+	private static int section(int index)
+	{
+		return (index >>> 8) & 0xF;
+	}
+
+	private static int localIndex(int index)
+	{
+		return ((index >>> 12) << 8) | (index & 0xFF);
+	}
+
+	/*
+	 * The sections are only allocated and released while holding the lock of
+	 * this object. Every write goes through a synchronized method as well, so
+	 * a write never ends up in a section that was just released.
+	 */
+
+	private byte[] getDataSection(int index)
+	{
+		int section = section(index);
+		byte[] data = _data[section];
+		if (data == null)
+		{
+			data = new byte[BLOCK_DATA_SIZE * SECTION_BLOCK_COUNT];
+			_data[section] = data;
+		}
+		return data;
+	}
+
+	private byte[] getLightSection(int index)
+	{
+		int section = section(index);
+		byte[] light = _light[section];
+		if (light == null)
+		{
+			light = new byte[SECTION_BLOCK_COUNT];
+			Arrays.fill(light, _lightFill[section]);
+			_light[section] = light;
+		}
+		return light;
+	}
+
+	/**
+	 * Keeps the number of non-air blocks per section up to date and releases
+	 * a section when it only contains air.
+	 */
+	private void blockTypeChanged(int index, byte oldType, byte newType)
+	{
+		if ((oldType == 0) == (newType == 0))
+		{
+			return;
+		}
+		int section = section(index);
+		if (newType == 0)
+		{
+			if (--_blockCounts[section] == 0)
+			{
+				_data[section] = null;
+			}
+		} else
+		{
+			_blockCounts[section]++;
+		}
+	}
+
+	/* Light */
+
 	public byte getLight(int index, LightType type)
 	{
 		if (type == LightType.RAW)
 		{
-			return _light[index];
+			return getRawLight(index);
 		} else if (type == LightType.SUN)
 		{
 			return getSunlight(index);
@@ -91,7 +179,7 @@ public class ChunkData
 	{
 		if (type == LightType.RAW)
 		{
-			_light[index] = light;
+			setRawLight(index, light);
 		} else if (type == LightType.SUN)
 		{
 			setSunlight(index, light);
@@ -101,31 +189,51 @@ public class ChunkData
 		}
 	}
 
+	private byte getRawLight(int index)
+	{
+		byte[] light = _light[section(index)];
+		if (light == null)
+		{
+			return _lightFill[section(index)];
+		}
+		return light[localIndex(index)];
+	}
+
+	private synchronized void setRawLight(int index, byte l)
+	{
+		int section = section(index);
+		if (_light[section] == null && _lightFill[section] == l)
+		{
+			return;
+		}
+		getLightSection(index)[localIndex(index)] = l;
+	}
+
 	public void clearLight(int index)
 	{
-		_light[index] = (byte) 0;
+		setRawLight(index, (byte) 0);
 	}
 
 	public byte getBlockLight(int index)
 	{
-		return (byte) (_light[index] & 0xF);
+		return (byte) (getRawLight(index) & 0xF);
 	}
 
-	public void setBlockLight(int index, byte light)
+	public synchronized void setBlockLight(int index, byte light)
 	{
-		byte l = _light[index];
-		_light[index] = (byte) ((l & 0xF0) + (light & 0xF));
+		byte l = getRawLight(index);
+		setRawLight(index, (byte) ((l & 0xF0) + (light & 0xF)));
 	}
 
-	public void setSunlight(int index, byte sunlight)
+	public synchronized void setSunlight(int index, byte sunlight)
 	{
-		byte l = _light[index];
-		_light[index] = (byte) (((sunlight & 0xF) << 4) + (l & 0xF));
+		byte l = getRawLight(index);
+		setRawLight(index, (byte) (((sunlight & 0xF) << 4) + (l & 0xF)));
 	}
 
 	public byte getSunlight(int index)
 	{
-		return (byte) ((_light[index] & 0xF0) >>> 4);
+		return (byte) ((getRawLight(index) & 0xF0) >>> 4);
 	}
 
 	public byte getTotalLight(int index)
@@ -133,112 +241,242 @@ public class ChunkData
 		return (byte) Math.max(getSunlight(index), getBlockLight(index));
 	}
 
+	/**
+	 * Sets the raw light of every block in the given section.
+	 */
+	public synchronized void fillLight(int section, byte light)
+	{
+		_light[section] = null;
+		_lightFill[section] = light;
+	}
+
+	/**
+	 * Sets the sunlight of every block in the given section to full bright,
+	 * keeping the block light.
+	 */
+	public synchronized void fillSunlight(int section)
+	{
+		byte[] light = _light[section];
+		if (light == null)
+		{
+			_lightFill[section] = (byte) (0xF0 | (_lightFill[section] & 0xF));
+		} else
+		{
+			for (int i = 0; i < SECTION_BLOCK_COUNT; ++i)
+			{
+				light[i] = (byte) (0xF0 | (light[i] & 0xF));
+			}
+		}
+	}
+
+	/* Height map */
+
+	public int getHeight(int x, int z)
+	{
+		return _heightMap[x * Chunk.CHUNK_SIZE_HORIZONTAL + z];
+	}
+
+	public void setHeight(int x, int z, int height)
+	{
+		_heightMap[x * Chunk.CHUNK_SIZE_HORIZONTAL + z] = (short) height;
+	}
+
+	/* Blocks */
+
 	public int getBlockData(int index)
 	{
-		index *= BLOCK_DATA_SIZE;
-		byte b1 = _data[index];
-		byte b2 = _data[index + 1];
-		byte b3 = _data[index + 2];
+		byte[] data = _data[section(index)];
+		if (data == null)
+		{
+			return 0;
+		}
+		int i = BLOCK_DATA_SIZE * localIndex(index);
+		byte b1 = data[i];
+		byte b2 = data[i + 1];
+		byte b3 = data[i + 2];
 
 		return ((b1 & 0xFF) << 16) | ((b2 & 0xFF) << 8) | (b3 & 0xFF);
 	}
 
 	public byte getBlockType(int index)
 	{
-		return _data[BLOCK_DATA_SIZE * index];
+		byte[] data = _data[section(index)];
+		if (data == null)
+		{
+			return 0;
+		}
+		return data[BLOCK_DATA_SIZE * localIndex(index)];
 	}
 
 	public boolean isSpecial(int index)
 	{
-		return 1 == ((_data[BLOCK_DATA_SIZE * index + 1] & 0xFF) >> 7);
+		byte[] data = _data[section(index)];
+		if (data == null)
+		{
+			return false;
+		}
+		return 1 == ((data[BLOCK_DATA_SIZE * localIndex(index) + 1] & 0xFF) >> 7);
 	}
 
 	public byte getFaceMask(int index)
 	{
-		return (byte) (0x3F & _data[BLOCK_DATA_SIZE * index + 1]);
+		byte[] data = _data[section(index)];
+		if (data == null)
+		{
+			return 0;
+		}
+		return (byte) (0x3F & data[BLOCK_DATA_SIZE * localIndex(index) + 1]);
 	}
 
 	public byte getMetaData(int index)
 	{
-		return _data[BLOCK_DATA_SIZE * index + 2];
+		byte[] data = _data[section(index)];
+		if (data == null)
+		{
+			return 0;
+		}
+		return data[BLOCK_DATA_SIZE * localIndex(index) + 2];
 	}
 
-	public void setDefaultBlock(int index, byte type, byte faceMask, byte metaData)
+	public synchronized void setDefaultBlock(int index, byte type, byte faceMask, byte metaData)
 	{
 		if (isSpecial(index))
 		{
 			System.out.println("Overwriting special block!");
 		}
-		index *= BLOCK_DATA_SIZE;
-		_data[index + 0] = type;
-		_data[index + 1] = faceMask;
-		_data[index + 2] = metaData;
+		if (type == 0 && _data[section(index)] == null)
+		{
+			return;
+		}
+		byte[] data = getDataSection(index);
+		int i = BLOCK_DATA_SIZE * localIndex(index);
+		byte oldType = data[i];
+		data[i + 0] = type;
+		data[i + 1] = faceMask;
+		data[i + 2] = metaData;
+		blockTypeChanged(index, oldType, type);
 	}
 
-	public void setSpecialBlock(int index, byte type, int position)
+	/**
+	 * Copies default blocks, stored as pairs of type and metadata, from the
+	 * buffer into this data, starting at the given index. The face masks are
+	 * cleared. Stops before the first block whose type is marked in
+	 * {@code stopTypes} and returns its index, or returns {@code end}.
+	 */
+	public synchronized int readDefaultBlocks(ByteBuffer src, int index, int end, boolean[] stopTypes)
 	{
-		index *= BLOCK_DATA_SIZE;
-		_data[index + 0] = type;
-		_data[index + 1] = (byte) (SPECIAL_BIT | ((position >>> 8) & 0x7F));
-		_data[index + 2] = (byte) (position & 0xFF);
+		for (; index < end; ++index)
+		{
+			byte type = src.get();
+			if (stopTypes[type & 0xFF])
+			{
+				src.position(src.position() - 1);
+				return index;
+			}
+			byte metadata = src.get();
+			if (type != 0)
+			{
+				setDefaultBlock(index, type, (byte) 0, metadata);
+			}
+		}
+		return end;
 	}
 
-	public void setBlockType(int index, byte type)
+	public synchronized void setSpecialBlock(int index, byte type, int position)
 	{
-		_data[BLOCK_DATA_SIZE * index] = type;
+		byte[] data = getDataSection(index);
+		int i = BLOCK_DATA_SIZE * localIndex(index);
+		byte oldType = data[i];
+		data[i + 0] = type;
+		data[i + 1] = (byte) (SPECIAL_BIT | ((position >>> 8) & 0x7F));
+		data[i + 2] = (byte) (position & 0xFF);
+		blockTypeChanged(index, oldType, type);
 	}
 
-	public void setSpecial(int index, boolean special)
+	public synchronized void setBlockType(int index, byte type)
 	{
+		if (type == 0 && _data[section(index)] == null)
+		{
+			return;
+		}
+		byte[] data = getDataSection(index);
+		int i = BLOCK_DATA_SIZE * localIndex(index);
+		byte oldType = data[i];
+		data[i] = type;
+		blockTypeChanged(index, oldType, type);
+	}
+
+	public synchronized void setSpecial(int index, boolean special)
+	{
+		if (!special && _data[section(index)] == null)
+		{
+			return;
+		}
+		byte[] data = getDataSection(index);
+		int i = BLOCK_DATA_SIZE * localIndex(index) + 1;
 		if (special)
 		{
-			_data[BLOCK_DATA_SIZE * index + 1] |= SPECIAL_BIT;
+			data[i] |= SPECIAL_BIT;
 		} else
 		{
-			_data[BLOCK_DATA_SIZE * index + 1] &= (~SPECIAL_BIT);
+			data[i] &= (~SPECIAL_BIT);
 		}
 	}
 
-	public void setFaceMask(int index, byte faceMask)
+	public synchronized void setFaceMask(int index, byte faceMask)
 	{
 		if (isSpecial(index))
 		{
 			System.out.println("Setting facemask for special block!!!");
 		}
-		index *= BLOCK_DATA_SIZE;
-		++index;
-		_data[index] = (byte) (((_data[index] & 0xFF) & SPECIAL_BIT) | faceMask);
+		byte[] data = _data[section(index)];
+		if (data == null)
+		{
+			/* Air has no faces */
+			return;
+		}
+		int i = BLOCK_DATA_SIZE * localIndex(index) + 1;
+		data[i] = (byte) (((data[i] & 0xFF) & SPECIAL_BIT) | faceMask);
 	}
 
-	public void setMetaData(int index, byte metadata)
+	public synchronized void setMetaData(int index, byte metadata)
 	{
 		if (isSpecial(index))
 		{
 			System.out.println("Setting metadata for special block!!!");
 		}
-		_data[BLOCK_DATA_SIZE * index + 2] = metadata;
+		byte[] data = _data[section(index)];
+		if (data == null)
+		{
+			return;
+		}
+		data[BLOCK_DATA_SIZE * localIndex(index) + 2] = metadata;
 	}
 
-	public void setPosition(int index, int position)
+	public synchronized void setPosition(int index, int position)
 	{
 		if (!isSpecial(index))
 		{
 			System.out.println("Updating position of a non-special block");
 		}
-		index *= BLOCK_DATA_SIZE;
-		++index;
-		_data[index++] = (byte) (SPECIAL_BIT + (position >>> 8));
-		_data[index++] = (byte) (position & 0xFF);
+		byte[] data = getDataSection(index);
+		int i = BLOCK_DATA_SIZE * localIndex(index) + 1;
+		data[i++] = (byte) (SPECIAL_BIT + (position >>> 8));
+		data[i++] = (byte) (position & 0xFF);
 	}
 
 	public int getPosition(int index)
 	{
-		index *= BLOCK_DATA_SIZE;
-		++index;
-		return ((_data[index] & (~SPECIAL_BIT)) << 8) | (_data[index + 1] & 0xFF);
+		byte[] data = _data[section(index)];
+		if (data == null)
+		{
+			return 0;
+		}
+		int i = BLOCK_DATA_SIZE * localIndex(index) + 1;
+		return ((data[i] & (~SPECIAL_BIT)) << 8) | (data[i + 1] & 0xFF);
 	}
 
-	public void clearBlock(int index)
+	public synchronized void clearBlock(int index)
 	{
 		boolean special = isSpecial(index);
 		if (special)
@@ -247,10 +485,17 @@ public class ChunkData
 			int position = getPosition(index);
 			_blockPool.releaseBlock(position);
 		}
-		index *= BLOCK_DATA_SIZE;
-		_data[index++] = 0;
-		_data[index++] = 0;
-		_data[index++] = 0;
+		byte[] data = _data[section(index)];
+		if (data == null)
+		{
+			return;
+		}
+		int i = BLOCK_DATA_SIZE * localIndex(index);
+		byte oldType = data[i];
+		data[i++] = 0;
+		data[i++] = 0;
+		data[i++] = 0;
+		blockTypeChanged(index, oldType, (byte) 0);
 	}
 
 	public Block getSpecialBlock(int index)
@@ -259,13 +504,68 @@ public class ChunkData
 		return _blockPool.getBlock(position);
 	}
 
-	public void setSpecialBlock(int index, Block block)
+	public synchronized void setSpecialBlock(int index, Block block)
 	{
 		int position = _blockPool.allocateBlock(block);
 		block.setSpecialBlockPoolIndex(position);
 		setSpecialBlock(index, block.getBlockType().getID(), position);
 	}
 
+	/**
+	 * Returns true if the given section only contains air.
+	 */
+	public boolean isSectionEmpty(int section)
+	{
+		return _data[section] == null;
+	}
+
+	/**
+	 * Releases the light of the sections in which every block has the same
+	 * light value.
+	 */
+	public synchronized void compact()
+	{
+		for (int s = 0; s < SECTION_COUNT; ++s)
+		{
+			byte[] light = _light[s];
+			if (light == null)
+			{
+				continue;
+			}
+			byte l = light[0];
+			boolean uniform = true;
+			for (int i = 1; i < SECTION_BLOCK_COUNT && uniform; ++i)
+			{
+				uniform = light[i] == l;
+			}
+			if (uniform)
+			{
+				_lightFill[s] = l;
+				_light[s] = null;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of bytes allocated for the blocks and the light.
+	 */
+	public int getAllocatedSize()
+	{
+		int size = 0;
+		for (int s = 0; s < SECTION_COUNT; ++s)
+		{
+			if (_data[s] != null)
+			{
+				size += BLOCK_DATA_SIZE * SECTION_BLOCK_COUNT;
+			}
+			if (_light[s] != null)
+			{
+				size += SECTION_BLOCK_COUNT;
+			}
+		}
+		return size;
+	}
+
 	public static class SpecialBlockPool
 	{
 		public static final int POOL_SIZE = 4024;
@@ -0,0 +1,403 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.world;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import org.craftmania.blocks.Block;
+import org.craftmania.blocks.BlockConstructor;
+import org.craftmania.utilities.ByteBufferInputStream;
+
+/**
+ * The versioned on-disk format of a chunk:
+ * 
+ * <pre>
+ *   int   magic
+ *   byte  version
+ *   byte  compression (0 = none, 1 = deflate)
+ *   int   length of the uncompressed payload
+ *   ...   payload
+ * </pre>
+ * 
+ * The payload starts with a boolean to tell if the chunk was generated,
+ * followed by the sections of 16x16x16 blocks, from the bottom to the top. A
+ * section starts with a palette of the distinct (type, metadata) pairs in it,
+ * followed by the palette index of each block, bit-packed in longs, and the
+ * save data of its special blocks. An empty palette means the section only
+ * contains air.
+ * 
+ * Chunks in the legacy format start with the boolean right away, which can't
+ * be confused with the magic number.
+ * 
+ * @author martijncourteaux
+ * 
+ */
+public class ChunkFormat
+{
+	public static final int MAGIC = 0x434D4348; // "CMCH"
+	public static final byte VERSION = 1;
+
+	public static final byte COMPRESSION_NONE = 0;
+	public static final byte COMPRESSION_DEFLATE = 1;
+
+	public static final int SECTION_SIZE = 16;
+	public static final int SECTION_COUNT = Chunk.CHUNK_SIZE_VERTICAL / SECTION_SIZE;
+	public static final int SECTION_BLOCK_COUNT = SECTION_SIZE * SECTION_SIZE * SECTION_SIZE;
+
+	private static final int HEADER_SIZE = 10;
+	/**
+	 * Upper bound for the size of the uncompressed payload. The block data of
+	 * a full chunk takes about 230KB, the rest is left for the special save
+	 * data.
+	 */
+	public static final int MAX_PAYLOAD_SIZE = 4 << 20;
+
+	public static boolean isVersioned(ByteBuffer buffer)
+	{
+		return buffer.remaining() >= HEADER_SIZE && buffer.getInt(buffer.position()) == MAGIC;
+	}
+
+	/**
+	 * Returns the index in the chunk data of the block at the given index in
+	 * the section.
+	 */
+	public static int sectionToChunkIndex(int section, int localIndex)
+	{
+		int x = localIndex >>> 8;
+		int y = (section << 4) | ((localIndex >>> 4) & 0xF);
+		int z = localIndex & 0xF;
+		return ChunkData.positionToIndex(x, y, z);
+	}
+
+	private static int bitsPerIndex(int paletteSize)
+	{
+		if (paletteSize <= 1)
+		{
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(paletteSize - 1);
+	}
+
+	public static void write(Chunk chunk, byte compression, OutputStream out) throws IOException
+	{
+		ByteArrayOutputStream payload = new ByteArrayOutputStream(8192);
+		DataOutputStream dos = new DataOutputStream(payload);
+
+		dos.writeBoolean(chunk.isGenerated());
+
+		ChunkData data = chunk.getChunkData();
+		int[] indices = new int[SECTION_BLOCK_COUNT];
+		int[] palette = new int[SECTION_BLOCK_COUNT];
+		for (int section = 0; section < SECTION_COUNT; ++section)
+		{
+			writeSection(data, section, dos, indices, palette);
+		}
+		dos.flush();
+		if (payload.size() > MAX_PAYLOAD_SIZE)
+		{
+			throw new IOException("Chunk " + chunk + " is too big to store: " + payload.size() + " bytes");
+		}
+
+		DataOutputStream header = new DataOutputStream(out);
+		header.writeInt(MAGIC);
+		header.writeByte(VERSION);
+		header.writeByte(compression);
+		header.writeInt(payload.size());
+		header.flush();
+
+		if (compression == COMPRESSION_DEFLATE)
+		{
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			try
+			{
+				DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater);
+				payload.writeTo(deflated);
+				deflated.finish();
+			} finally
+			{
+				deflater.end();
+			}
+		} else
+		{
+			payload.writeTo(out);
+		}
+	}
+
+	private static void writeSection(ChunkData data, int section, DataOutputStream dos, int[] indices, int[] palette) throws IOException
+	{
+		if (data.isSectionEmpty(section))
+		{
+			dos.writeShort(0);
+			return;
+		}
+
+		int paletteSize = 0;
+		int lastState = -1;
+		int lastIndex = -1;
+		for (int l = 0; l < SECTION_BLOCK_COUNT; ++l)
+		{
+			int i = sectionToChunkIndex(section, l);
+			byte type = data.getBlockType(i);
+			byte metadata = data.isSpecial(i) ? data.getSpecialBlock(i).getMetaData() : data.getMetaData(i);
+			int state = ((type & 0xFF) << 8) | (metadata & 0xFF);
+
+			if (state != lastState)
+			{
+				lastState = state;
+				lastIndex = -1;
+				for (int p = 0; p < paletteSize; ++p)
+				{
+					if (palette[p] == state)
+					{
+						lastIndex = p;
+						break;
+					}
+				}
+				if (lastIndex == -1)
+				{
+					lastIndex = paletteSize;
+					palette[paletteSize++] = state;
+				}
+			}
+			indices[l] = lastIndex;
+		}
+
+		if (paletteSize == 1 && palette[0] == 0)
+		{
+			/* Only air */
+			dos.writeShort(0);
+			return;
+		}
+
+		dos.writeShort(paletteSize);
+		for (int p = 0; p < paletteSize; ++p)
+		{
+			dos.writeShort(palette[p]);
+		}
+
+		int bits = bitsPerIndex(paletteSize);
+		dos.writeByte(bits);
+		if (bits > 0)
+		{
+			int indicesPerLong = 64 / bits;
+			long word = 0;
+			int shift = 0;
+			for (int l = 0; l < SECTION_BLOCK_COUNT; ++l)
+			{
+				word |= ((long) indices[l]) << shift;
+				shift += bits;
+				if ((l + 1) % indicesPerLong == 0)
+				{
+					dos.writeLong(word);
+					word = 0;
+					shift = 0;
+				}
+			}
+			if (shift != 0)
+			{
+				dos.writeLong(word);
+			}
+		}
+
+		/* The save data of the special blocks */
+		for (int l = 0; l < SECTION_BLOCK_COUNT; ++l)
+		{
+			int i = sectionToChunkIndex(section, l);
+			if (data.isSpecial(i))
+			{
+				Block block = data.getSpecialBlock(i);
+				if (block.getBlockType().hasSpecialSaveData())
+				{
+					block.saveSpecialSaveData(dos);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decodes the chunk into its chunk data and returns if the chunk was
+	 * generated. The visibility of the blocks isn't built.
+	 * 
+	 * @param specialTypes
+	 *            tells which block types need a special block instance,
+	 *            indexed by their unsigned ID.
+	 */
+	public static boolean read(Chunk chunk, ByteBuffer buffer, boolean[] specialTypes) throws IOException
+	{
+		if (buffer.getInt() != MAGIC)
+		{
+			throw new IOException("Not a versioned chunk: " + chunk);
+		}
+		byte version = buffer.get();
+		if (version > VERSION)
+		{
+			throw new IOException("Chunk " + chunk + " has an unsupported version: " + version);
+		}
+		byte compression = buffer.get();
+		int length = buffer.getInt();
+		if (length <= 0 || length > MAX_PAYLOAD_SIZE)
+		{
+			throw new IOException("Chunk " + chunk + " has a corrupt length: " + length);
+		}
+
+		if (compression == COMPRESSION_DEFLATE)
+		{
+			buffer = inflate(buffer, length);
+		} else if (compression != COMPRESSION_NONE)
+		{
+			throw new IOException("Chunk " + chunk + " has an unknown compression: " + compression);
+		}
+
+		boolean generated = buffer.get() != 0;
+
+		DataInputStream specialData = new DataInputStream(new ByteBufferInputStream(buffer));
+		int[] indices = new int[SECTION_BLOCK_COUNT];
+		int[] palette = new int[SECTION_BLOCK_COUNT];
+		try
+		{
+			for (int section = 0; section < SECTION_COUNT; ++section)
+			{
+				readSection(chunk, section, buffer, specialData, specialTypes, indices, palette);
+			}
+		} catch (BufferUnderflowException e)
+		{
+			throw new IOException("Truncated chunk data: " + chunk, e);
+		}
+		return generated;
+	}
+
+	private static ByteBuffer inflate(ByteBuffer buffer, int length) throws IOException
+	{
+		byte[] compressed = new byte[buffer.remaining()];
+		buffer.get(compressed);
+
+		byte[] result = new byte[length];
+		Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput(compressed);
+			int offset = 0;
+			while (offset < length && !inflater.finished())
+			{
+				int n = inflater.inflate(result, offset, length - offset);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+				{
+					break;
+				}
+				offset += n;
+			}
+			if (offset != length)
+			{
+				throw new IOException("Truncated chunk data: " + offset + " of " + length + " bytes");
+			}
+		} catch (DataFormatException e)
+		{
+			throw new IOException("Corrupt chunk data", e);
+		} finally
+		{
+			inflater.end();
+		}
+		return ByteBuffer.wrap(result);
+	}
+
+	private static void readSection(Chunk chunk, int section, ByteBuffer buffer, DataInputStream specialData, boolean[] specialTypes, int[] indices, int[] palette) throws IOException
+	{
+		int paletteSize = buffer.getShort() & 0xFFFF;
+		if (paletteSize == 0)
+		{
+			return;
+		}
+		if (paletteSize > SECTION_BLOCK_COUNT)
+		{
+			throw new IOException("Corrupt chunk data: section " + section + " has a palette of " + paletteSize + " entries");
+		}
+		for (int p = 0; p < paletteSize; ++p)
+		{
+			palette[p] = buffer.getShort() & 0xFFFF;
+		}
+
+		int bits = buffer.get();
+		if (bits != bitsPerIndex(paletteSize))
+		{
+			throw new IOException("Corrupt chunk data: section " + section + " uses " + bits + " bits for a palette of " + paletteSize + " entries");
+		}
+		if (bits == 0)
+		{
+			for (int l = 0; l < SECTION_BLOCK_COUNT; ++l)
+			{
+				indices[l] = 0;
+			}
+		} else
+		{
+			int indicesPerLong = 64 / bits;
+			long mask = (1L << bits) - 1;
+			long word = 0;
+			for (int l = 0; l < SECTION_BLOCK_COUNT; ++l)
+			{
+				if (l % indicesPerLong == 0)
+				{
+					word = buffer.getLong();
+				}
+				int index = (int) (word & mask);
+				if (index >= paletteSize)
+				{
+					throw new IOException("Corrupt chunk data: section " + section + " refers to palette entry " + index + " of " + paletteSize);
+				}
+				indices[l] = index;
+				word >>>= bits;
+			}
+		}
+
+		ChunkData data = chunk.getChunkData();
+		for (int l = 0; l < SECTION_BLOCK_COUNT; ++l)
+		{
+			int state = palette[indices[l]];
+			byte type = (byte) (state >>> 8);
+			if (type == 0)
+			{
+				continue;
+			}
+			byte metadata = (byte) state;
+			int i = sectionToChunkIndex(section, l);
+
+			if (specialTypes[type & 0xFF])
+			{
+				int x = chunk.getAbsoluteX() + (l >>> 8);
+				int y = (section << 4) | ((l >>> 4) & 0xF);
+				int z = chunk.getAbsoluteZ() + (l & 0xF);
+				Block block = BlockConstructor.construct(x, y, z, chunk, type, metadata);
+				data.setSpecialBlock(i, block);
+				if (block.getBlockType().hasSpecialSaveData())
+				{
+					block.readSpecialSaveData(specialData);
+				}
+			} else
+			{
+				data.setDefaultBlock(i, type, (byte) 0, metadata);
+			}
+		}
+	}
+}
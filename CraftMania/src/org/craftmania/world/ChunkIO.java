@@ -15,51 +15,76 @@
  ******************************************************************************/
 package org.craftmania.world;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import org.craftmania.blocks.Block;
 import org.craftmania.blocks.BlockConstructor;
 import org.craftmania.blocks.BlockManager;
 import org.craftmania.blocks.BlockType;
 import org.craftmania.game.Game;
-import org.craftmania.math.MathHelper;
 import org.craftmania.math.Vec3i;
+import org.craftmania.utilities.ByteBufferInputStream;
 
 public class ChunkIO
 {
 	
 	private static final BlockManager _blockManager = BlockManager.getInstance();
 
-	private long getUniquePositionID(int x, int z)
+	private RegionFileCache _regions;
+	private boolean[] _specialTypes;
+	private long _loadTime;
+	private int _loadCount;
+
+	/**
+	 * Returns the region files of the current world. They are opened lazily,
+	 * because the world isn't known yet when the ChunkIO is constructed. Chunks
+	 * saved in the old one-file-per-chunk format are migrated the first time.
+	 */
+	private synchronized RegionFileCache getRegions()
 	{
-		return MathHelper.cantorize(MathHelper.mapToPositive(x), MathHelper.mapToPositive(z));
-	}
+		if (_regions == null)
+		{
+			Game game = Game.getInstance();
+			_regions = new RegionFileCache(game.getRelativeFile(Game.FILE_BASE_USER_DATA, "${world}/region"));
 
-	private File getChunkFile(int x, int z)
-	{
-		long uniquePositionID = getUniquePositionID(x, z);
-		File f = Game.getInstance().getRelativeFile(Game.FILE_BASE_USER_DATA, "${world}/chunks/" + Long.toHexString(uniquePositionID) + ".chunk");
-		f.getParentFile().mkdirs();
-		f.getParentFile().mkdir();
-		return f;
+			File legacyDirectory = game.getRelativeFile(Game.FILE_BASE_USER_DATA, "${world}/chunks");
+			if (legacyDirectory.isDirectory())
+			{
+				LegacyChunkMigrator.migrate(legacyDirectory, _regions);
+			}
+		}
+		return _regions;
 	}
 
-	private File getChunkFile(Chunk ch)
+	/**
+	 * Closes all the opened region files. The regions are reopened when a
+	 * chunk is loaded or saved afterwards.
+	 */
+	public synchronized void close()
 	{
-		return getChunkFile(ch.getX(), ch.getZ());
+		if (_regions != null)
+		{
+			_regions.closeAll();
+		}
 	}
 
 	public void loadChunk(Chunk chunk) throws IOException
 	{
-		File file = getChunkFile(chunk);
-		if (!file.exists())
+		long start = System.nanoTime();
+
+		ByteBuffer buffer;
+		if (Game.getInstance().getConfiguration().getMappedChunkLoading())
+		{
+			buffer = getRegions().mapChunk(chunk.getX(), chunk.getZ());
+		} else
+		{
+			buffer = getRegions().readChunk(chunk.getX(), chunk.getZ());
+		}
+		if (buffer == null)
 		{
 			/* The chunk is totally new, so set it as "loaded" */
 			chunk.setLoaded(true);
@@ -67,99 +92,125 @@ public class ChunkIO
 		}
 
 		chunk.setLoading(true);
-		DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
-
-		boolean generated = dis.readBoolean();
-		System.out.println("Load Chunk (" + chunk.getX() + ", " + chunk.getZ() + "): generated = " + generated);
 
-		int size = dis.readInt();
-
-		BlockType type = null;
-		Vec3i blockPos = new Vec3i();
-		for (int i = 0; i < size; ++i)
+		boolean generated;
+		try
 		{
-			byte b = dis.readByte();
-			byte metadata = dis.readByte();
-			if (b != 0)
+			if (ChunkFormat.isVersioned(buffer))
 			{
-				type = BlockManager.getInstance().getBlockType(b);
-				ChunkData.indexToPosition(i, blockPos);
-				int bx = blockPos.x();
-				int by = blockPos.y();
-				int bz = blockPos.z();
-				if (type.getCustomClass() == null)
-				{
-					chunk.setDefaultBlockRelative(bx, by, bz, type, metadata, false, false, false);
-				} else
-				{
-					Block block = BlockConstructor.construct(chunk.getAbsoluteX() + bx, by, chunk.getAbsoluteZ() + bz, chunk, b, metadata);
-					chunk.setSpecialBlockRelative(bx, by, bz, block, false, false, false);
-					
-					if (block.getBlockType().hasSpecialSaveData())
-					{
-						block.readSpecialSaveData(dis);
-					}
-				}
+				generated = ChunkFormat.read(chunk, buffer, getSpecialTypes());
+			} else
+			{
+				generated = readLegacyChunk(chunk, buffer);
 			}
+		} catch (IOException e)
+		{
+			/* A corrupt chunk mustn't stay loading, it could never be destroyed */
+			chunk.setLoading(false);
+			throw e;
 		}
 
-		dis.close();
+		/*
+		 * The blocks were put straight into the chunk data, so build the
+		 * visibility and the content in one pass. Light is spread when the
+		 * chunk gets generated.
+		 */
 		chunk.setGenerated(generated);
 		chunk.setLoading(false);
-		chunk.performListChanges();
+		chunk.finishBulkLoad();
 		chunk.markNeighborsLightPointsDirty();
 		chunk.setLoaded(true);
 		chunk.buildVisibileContentAABB();
+
+		registerLoadTime(System.nanoTime() - start);
 	}
 
-	protected void saveChunk(Chunk blockChunk) throws Exception
+	/**
+	 * Reads a chunk stored in the format without a header: 2 bytes per block,
+	 * type and metadata, up to the highest non-air block. Default blocks are
+	 * copied straight into the chunk data.
+	 */
+	private boolean readLegacyChunk(Chunk chunk, ByteBuffer buffer) throws IOException
 	{
-		File file = getChunkFile(blockChunk.getX(), blockChunk.getZ());
-
-		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
-
-		/* Store if the chunk was generated or only created */
-		dos.writeBoolean(blockChunk.isGenerated());
-		System.out.println("Save Chunk (" + blockChunk.getX() + ", " + blockChunk.getZ() + "): generated = " + blockChunk.isGenerated());
+		boolean generated = buffer.get() != 0;
+		int size = buffer.getInt();
 
-		ChunkData data = blockChunk.getChunkData();
-		int blockCount = 0;
-		for (int i = 0; i < Chunk.BLOCK_COUNT; ++i)
+		boolean[] specialTypes = getSpecialTypes();
+		ChunkData data = chunk.getChunkData();
+		DataInputStream specialData = null;
+		Vec3i blockPos = new Vec3i();
+		int i = 0;
+		while (i < size)
 		{
-			byte b = data.getBlockType(i);
-			if (b != 0)
+			i = data.readDefaultBlocks(buffer, i, size, specialTypes);
+			if (i == size)
 			{
-				blockCount = i;
+				break;
 			}
-		}
-		blockCount++;
-		dos.writeInt(blockCount);
 
-		for (int i = 0; i < blockCount; ++i)
-		{
-			byte b = data.getBlockType(i);
-			if (data.isSpecial(i)) 
+			/* A special block */
+			byte b = buffer.get();
+			byte metadata = buffer.get();
+			ChunkData.indexToPosition(i, blockPos);
+			Block block = BlockConstructor.construct(chunk.getAbsoluteX() + blockPos.x(), blockPos.y(), chunk.getAbsoluteZ() + blockPos.z(), chunk, b, metadata);
+			data.setSpecialBlock(i, block);
+
+			if (block.getBlockType().hasSpecialSaveData())
 			{
-				Block bl = data.getSpecialBlock(i);
-				BlockType type = _blockManager.getBlockType(b);
-				dos.writeByte(b);
-				dos.writeByte(bl.getMetaData());
-				
-				if (type.hasSpecialSaveData())
+				if (specialData == null)
 				{
-					bl.saveSpecialSaveData(dos);
+					specialData = new DataInputStream(new ByteBufferInputStream(buffer));
 				}
-			} else if (b == 0)
-			{
-				dos.writeShort(0);
-			} else
+				block.readSpecialSaveData(specialData);
+			}
+			++i;
+		}
+		return generated;
+	}
+
+	/**
+	 * Returns which block types need a special block instance, indexed by
+	 * their unsigned ID.
+	 */
+	private synchronized boolean[] getSpecialTypes()
+	{
+		if (_specialTypes == null)
+		{
+			_specialTypes = new boolean[256];
+			for (int i = 0; i < 128; ++i)
 			{
-				dos.writeByte(b);
-				dos.writeByte(data.getMetaData(i));
+				BlockType type = _blockManager.getBlockType((byte) i);
+				_specialTypes[i] = type != null && type.getCustomClass() != null;
 			}
 		}
+		return _specialTypes;
+	}
+
+	private synchronized void registerLoadTime(long nanos)
+	{
+		_loadTime += nanos;
+		_loadCount++;
+	}
+
+	/**
+	 * Returns the average time it took to load a chunk, in nanoseconds.
+	 */
+	public synchronized long getAverageLoadTime()
+	{
+		if (_loadCount == 0)
+		{
+			return 0;
+		}
+		return _loadTime / _loadCount;
+	}
+
+	protected void saveChunk(Chunk blockChunk) throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+		boolean compress = Game.getInstance().getConfiguration().getCompressChunks();
+		ChunkFormat.write(blockChunk, compress ? ChunkFormat.COMPRESSION_DEFLATE : ChunkFormat.COMPRESSION_NONE, bytes);
 
-		dos.flush();
-		dos.close();
+		System.out.println("Save Chunk (" + blockChunk.getX() + ", " + blockChunk.getZ() + "): generated = " + blockChunk.isGenerated() + ", " + bytes.size() + " bytes");
+		getRegions().writeChunk(blockChunk.getX(), blockChunk.getZ(), bytes.toByteArray(), bytes.size());
 	}
 }
@@ -17,10 +17,7 @@ package org.craftmania.world;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.craftmania.Side;
 import org.craftmania.blocks.Block;
@@ -28,24 +25,27 @@ import org.craftmania.blocks.BlockManager;
 import org.craftmania.blocks.BlockType;
 import org.craftmania.math.MathHelper;
 import org.craftmania.math.Vec3f;
+import org.craftmania.utilities.IntList;
 import org.craftmania.world.characters.Player;
 
 public class ChunkManager
 {
 	private World _world;
 	private BlockManager _blockManager;
-	private Map<Integer, AbstractChunk<Chunk>> _superChunks;
+	private ChunkMap _chunks;
 	private List<BlockMovement> _blocksToMove;
 	private ChunkIO _chunkLoader;
 	private ChunkThreading _blockChunkThreading;
+	private PendingBlockWrites _pendingBlockWrites;
 
 	public ChunkManager(World world)
 	{
 		_world = world;
-		_superChunks = new HashMap<Integer, AbstractChunk<Chunk>>();
+		_chunks = new ChunkMap();
 		_blocksToMove = new ArrayList<ChunkManager.BlockMovement>();
 		_chunkLoader = new ChunkIO();
 		_blockChunkThreading = new ChunkThreading(this);
+		_pendingBlockWrites = new PendingBlockWrites();
 		_blockManager = BlockManager.getInstance();
 	}
 
@@ -54,64 +54,121 @@ public class ChunkManager
 		return _world;
 	}
 
-	public Collection<AbstractChunk<Chunk>> getAllSuperChunks()
+	public ChunkMap getChunkMap()
 	{
-		return _superChunks.values();
-	}
-
-	public AbstractChunk<Chunk> getSuperChunk(int x, int z)
-	{
-		/* Map to positive integers */
-		int posX = MathHelper.mapToPositive(x);
-		int posZ = MathHelper.mapToPositive(z);
-
-		/* Apply Cantor's method */
-		Integer cantorize = Integer.valueOf(MathHelper.cantorize(posX, posZ));
-
-		AbstractChunk<Chunk> superChunk = _superChunks.get(cantorize);
-		if (superChunk == null)
-		{
-			superChunk = new AbstractChunk<Chunk>(x, z);
-			_superChunks.put(cantorize, superChunk);
-		}
-		return superChunk;
+		return _chunks;
 	}
 
 	public Chunk getChunk(int x, int z, boolean createIfNecessary, boolean loadIfNecessary, boolean generateIfNecessary)
 	{
-		int superX = MathHelper.floorDivision(x, AbstractChunk.CHUNK_SIZE_X);
-		int superZ = MathHelper.floorDivision(z, AbstractChunk.CHUNK_SIZE_Z);
-
-		int xInChunk = x - superX * AbstractChunk.CHUNK_SIZE_X;
-		int zInChunk = z - superZ * AbstractChunk.CHUNK_SIZE_X;
-
-		synchronized (_superChunks)
+		Chunk chunk = _chunks.get(x, z);
+		if (chunk == null && createIfNecessary)
 		{
-			AbstractChunk<Chunk> superChunk = getSuperChunk(superX, superZ);
-
-			Chunk chunk = superChunk.get(xInChunk, zInChunk);
-			if (chunk == null && createIfNecessary)
+			Chunk created = new Chunk(x, z);
+			chunk = _chunks.putIfAbsent(x, z, created);
+			if (chunk == null)
 			{
-				chunk = new Chunk(x, z);
+				chunk = created;
+				/* The neighbors are linked both ways, after adding the chunk */
 				assignNeighbors(chunk);
-				superChunk.set(xInChunk, zInChunk, chunk);
 			}
-			if (chunk != null && !chunk.isLoaded() && loadIfNecessary && !chunk.isLoading() && !chunk.isDestroying())
+		}
+		if (chunk == null || chunk.isLoading() || chunk.isDestroying())
+		{
+			return chunk;
+		}
+		/*
+		 * A loading chunk is locked by its worker, so it is never waited for
+		 * here. This keeps generators that write into their neighbors from
+		 * locking each other.
+		 */
+		if ((loadIfNecessary && !chunk.isLoaded()) || (generateIfNecessary && !chunk.isGenerated()))
+		{
+			synchronized (chunk)
 			{
-				try
+				if (!chunk.isLoaded() && loadIfNecessary && !chunk.isLoading() && !chunk.isDestroying())
 				{
-					_chunkLoader.loadChunk(chunk);
-				} catch (IOException e)
+					try
+					{
+						_chunkLoader.loadChunk(chunk);
+					} catch (IOException e)
+					{
+						e.printStackTrace();
+					}
+				}
+				if (generateIfNecessary && !chunk.isLoading() && !chunk.isGenerated() && !chunk.isDestroying())
 				{
-					e.printStackTrace();
+					chunk.generate();
 				}
 			}
-			if (chunk != null && generateIfNecessary && !chunk.isLoading() && !chunk.isGenerated() && !chunk.isDestroying())
+		}
+		return chunk;
+	}
+
+	public PendingBlockWrites getPendingBlockWrites()
+	{
+		return _pendingBlockWrites;
+	}
+
+	/**
+	 * Puts the blocks that were generated for the chunk, while it wasn't
+	 * generated yet, in the chunk. Only air gets replaced, so the result
+	 * doesn't depend on which chunk was generated first.
+	 */
+	public void applyPendingBlockWrites(Chunk chunk)
+	{
+		IntList writes = _pendingBlockWrites.take(chunk.getX(), chunk.getZ());
+		if (writes == null)
+		{
+			return;
+		}
+		ChunkData data = chunk.getChunkData();
+		for (int i = 0; i < writes.size(); ++i)
+		{
+			int write = writes.get(i);
+			int index = PendingBlockWrites.getIndex(write);
+			if (data.getBlockType(index) == 0)
 			{
-				chunk.generate();
+				data.setDefaultBlock(index, PendingBlockWrites.getType(write), (byte) 0, PendingBlockWrites.getMetadata(write));
 			}
-			return chunk;
 		}
+		chunk.finishBulkLoad();
+	}
+
+	/**
+	 * Drains the chunk once it is lit, so the neighbors put their blocks
+	 * directly from now on. The blocks they generated while the chunk was
+	 * being lit are put like a direct write, updating the light.
+	 */
+	public void drainPendingBlockWrites(Chunk chunk)
+	{
+		IntList writes = _pendingBlockWrites.drain(chunk.getX(), chunk.getZ());
+		if (writes == null)
+		{
+			return;
+		}
+		int baseX = chunk.getAbsoluteX();
+		int baseZ = chunk.getAbsoluteZ();
+		for (int i = 0; i < writes.size(); ++i)
+		{
+			int write = writes.get(i);
+			int index = PendingBlockWrites.getIndex(write);
+			if (chunk.getChunkData().getBlockType(index) == 0)
+			{
+				int x = baseX + index / (Chunk.CHUNK_SIZE_HORIZONTAL * Chunk.CHUNK_SIZE_VERTICAL);
+				int y = (index / Chunk.CHUNK_SIZE_HORIZONTAL) % Chunk.CHUNK_SIZE_VERTICAL;
+				int z = baseZ + index % Chunk.CHUNK_SIZE_HORIZONTAL;
+				chunk.setDefaultBlockAbsolute(x, y, z, _blockManager.getBlockType(PendingBlockWrites.getType(write)), PendingBlockWrites.getMetadata(write), false, false, false);
+			}
+		}
+	}
+
+	/**
+	 * Removes the chunk from the index, called when the chunk is destroyed.
+	 */
+	public void removeChunk(Chunk chunk)
+	{
+		_chunks.remove(chunk.getX(), chunk.getZ(), chunk);
 	}
 
 	public void assignNeighbors(Chunk blockChunk)
@@ -287,19 +344,28 @@ public class ChunkManager
 
 	public int getTotalChunkCount()
 	{
-		int count = 0;
-		synchronized (_superChunks)
+		return _chunks.size();
+	}
+
+	/**
+	 * Returns the number of bytes allocated for the block data and light of
+	 * all the chunks in RAM.
+	 */
+	public long getTotalChunkDataSize()
+	{
+		long size = 0;
+		List<Chunk> chunks = _chunks.getAll(new ArrayList<Chunk>(_chunks.size()));
+		for (int i = 0; i < chunks.size(); ++i)
 		{
-			for (AbstractChunk<Chunk> ch : getAllSuperChunks())
-			{
-				count += ch.objectCount();
-			}
+			size += chunks.get(i).getChunkData().getAllocatedSize();
 		}
-		return count;
+		return size;
 	}
 
 	public void saveAndUnloadChunk(Chunk chunk, boolean seperateThread)
 	{
+		/* Blocks generated for it from now on have to be saved with it */
+		_pendingBlockWrites.undrain(chunk.getX(), chunk.getZ());
 		if (seperateThread)
 		{
 			_blockChunkThreading.saveAndUnloadChunk(chunk);
@@ -324,19 +390,20 @@ public class ChunkManager
 		}
 	}
 
-	public void generateChunk(Chunk chunk, boolean seperateThread)
+	/**
+	 * @return the ticket of the queued task when the chunk is handled in a
+	 *         separate thread, null otherwise.
+	 */
+	public ChunkTicket generateChunk(Chunk chunk, boolean seperateThread)
 	{
 		if (seperateThread)
 		{
-			Player p = _world.getActivePlayer();
-			float xDiff = chunk.getAbsoluteX() - p.getPosition().x();
-			float zDiff = chunk.getAbsoluteZ() - p.getPosition().z();
-
-			_blockChunkThreading.generateChunk(chunk, (int) (xDiff * xDiff + zDiff * zDiff));
+			return _blockChunkThreading.generateChunk(chunk);
 		} else
 		{
 			chunk.generate();
 		}
+		return null;
 	}
 
 	public ChunkIO getBlockChunkLoader()
@@ -344,20 +411,28 @@ public class ChunkManager
 		return _chunkLoader;
 	}
 
+	public void buildChunkMesh(Chunk chunk, int[] visibleBlocks, int minY, int maxY, int sections)
+	{
+		Player p = _world.getActivePlayer();
+		float xDiff = chunk.getAbsoluteX() - p.getPosition().x();
+		float zDiff = chunk.getAbsoluteZ() - p.getPosition().z();
+		_blockChunkThreading.buildMesh(chunk, visibleBlocks, minY, maxY, sections, (int) (xDiff * xDiff + zDiff * zDiff));
+	}
+
 	public boolean isBlockChunkThreadingBusy()
 	{
 		return _blockChunkThreading.isTreadingBusy();
 	}
 
-	public void loadAndGenerateChunk(Chunk chunk, boolean separateThread)
+	/**
+	 * @return the ticket of the queued task when the chunk is handled in a
+	 *         separate thread, null otherwise.
+	 */
+	public ChunkTicket loadAndGenerateChunk(Chunk chunk, boolean separateThread)
 	{
 		if (separateThread)
 		{
-			Player p = _world.getActivePlayer();
-			float xDiff = chunk.getAbsoluteX() - p.getPosition().x();
-			float zDiff = chunk.getAbsoluteZ() - p.getPosition().z();
-
-			_blockChunkThreading.loadAndGenerateChunk(chunk, (int) (xDiff * xDiff + zDiff * zDiff));
+			return _blockChunkThreading.loadAndGenerateChunk(chunk);
 		} else
 		{
 			try
@@ -370,6 +445,27 @@ public class ChunkManager
 			}
 			chunk.generate();
 		}
+		return null;
+	}
+
+	/**
+	 * Cancels the loading of a chunk that wasn't started yet.
+	 * 
+	 * @return true if the chunk got cancelled, and will be destroyed.
+	 */
+	public boolean cancelChunkLoading(Chunk chunk)
+	{
+		return _blockChunkThreading.cancelTicket(chunk);
+	}
+
+	public int getCancelledChunkLoadCount()
+	{
+		return _blockChunkThreading.getCancelledTicketCount();
+	}
+
+	public int getQueuedChunkLoadCount()
+	{
+		return _blockChunkThreading.getQueuedTicketCount();
 	}
 
 	public boolean isLoadingThreadPoolFull()
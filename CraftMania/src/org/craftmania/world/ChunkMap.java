@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.world;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The index of all chunks in RAM, keyed by their packed x and z coordinates.
+ * Looking up a chunk doesn't lock. Adding or removing a chunk locks one of
+ * the stripes of the map. Every stripe is an open addressing table with
+ * linear probing, which is replaced as a whole when it grows.
+ * 
+ * @author martijncourteaux
+ * 
+ */
+public class ChunkMap
+{
+	private static final int STRIPE_BITS = 4;
+	private static final int STRIPES = 1 << STRIPE_BITS;
+	private static final int INITIAL_CAPACITY = 16;
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private Stripe[] _stripes;
+	private AtomicInteger _size;
+	private AtomicLong _locks;
+	private AtomicLong _contendedLocks;
+
+	public ChunkMap()
+	{
+		_stripes = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; ++i)
+		{
+			_stripes[i] = new Stripe();
+		}
+		_size = new AtomicInteger();
+		_locks = new AtomicLong();
+		_contendedLocks = new AtomicLong();
+	}
+
+	private static long key(int x, int z)
+	{
+		return ((long) x << 32) | (z & 0xFFFFFFFFL);
+	}
+
+	private static int hash(long key)
+	{
+		key ^= key >>> 33;
+		key *= 0xFF51AFD7ED558CCDL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	private Stripe stripe(int hash)
+	{
+		return _stripes[hash >>> (32 - STRIPE_BITS)];
+	}
+
+	public Chunk get(int x, int z)
+	{
+		long key = key(x, z);
+		int hash = hash(key);
+		Table table = stripe(hash)._table;
+		int i = hash & table._mask;
+		while (true)
+		{
+			long k = table._keys.get(i);
+			if (k == key)
+			{
+				return table._values.get(i);
+			}
+			if (k == EMPTY)
+			{
+				return null;
+			}
+			i = (i + 1) & table._mask;
+		}
+	}
+
+	/**
+	 * Adds the chunk, unless there is already a chunk at that position.
+	 * 
+	 * @return the chunk that was already there, or null if the chunk was
+	 *         added.
+	 */
+	public Chunk putIfAbsent(int x, int z, Chunk chunk)
+	{
+		long key = key(x, z);
+		int hash = hash(key);
+		Stripe stripe = stripe(hash);
+		lock(stripe);
+		try
+		{
+			Table table = stripe._table;
+			int i = find(table, key, hash);
+			if (table._keys.get(i) == key)
+			{
+				Chunk old = table._values.get(i);
+				if (old != null)
+				{
+					return old;
+				}
+			} else
+			{
+				if ((stripe._usedSlots + 1) * 2 > table._keys.length())
+				{
+					table = stripe.rehash();
+					i = find(table, key, hash);
+				}
+				stripe._usedSlots++;
+			}
+			/* Set the value first, so readers that find the key see it */
+			table._values.set(i, chunk);
+			table._keys.set(i, key);
+			stripe._liveSlots++;
+			_size.incrementAndGet();
+			return null;
+		} finally
+		{
+			stripe._lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the chunk, if it is still the chunk at its position. The slot
+	 * keeps its key until the stripe grows.
+	 */
+	public boolean remove(int x, int z, Chunk chunk)
+	{
+		long key = key(x, z);
+		int hash = hash(key);
+		Stripe stripe = stripe(hash);
+		lock(stripe);
+		try
+		{
+			Table table = stripe._table;
+			int i = find(table, key, hash);
+			if (table._keys.get(i) == key && table._values.compareAndSet(i, chunk, null))
+			{
+				stripe._liveSlots--;
+				_size.decrementAndGet();
+				return true;
+			}
+			return false;
+		} finally
+		{
+			stripe._lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the slot of the key, or the empty slot where it goes.
+	 */
+	private static int find(Table table, long key, int hash)
+	{
+		int i = hash & table._mask;
+		while (true)
+		{
+			long k = table._keys.get(i);
+			if (k == key || k == EMPTY)
+			{
+				return i;
+			}
+			i = (i + 1) & table._mask;
+		}
+	}
+
+	private void lock(Stripe stripe)
+	{
+		_locks.incrementAndGet();
+		if (!stripe._lock.tryLock())
+		{
+			_contendedLocks.incrementAndGet();
+			stripe._lock.lock();
+		}
+	}
+
+	/**
+	 * Adds all the chunks to the list. Chunks added or removed meanwhile might
+	 * be missed.
+	 */
+	public List<Chunk> getAll(List<Chunk> chunks)
+	{
+		for (int s = 0; s < STRIPES; ++s)
+		{
+			Table table = _stripes[s]._table;
+			for (int i = 0; i < table._values.length(); ++i)
+			{
+				Chunk chunk = table._values.get(i);
+				if (chunk != null)
+				{
+					chunks.add(chunk);
+				}
+			}
+		}
+		return chunks;
+	}
+
+	public int size()
+	{
+		return _size.get();
+	}
+
+	/**
+	 * Returns how many times a stripe got locked, to add or remove a chunk.
+	 */
+	public long getLockCount()
+	{
+		return _locks.get();
+	}
+
+	/**
+	 * Returns how many times a stripe was already locked by another thread.
+	 */
+	public long getContendedLockCount()
+	{
+		return _contendedLocks.get();
+	}
+
+	private static class Stripe
+	{
+		private final ReentrantLock _lock = new ReentrantLock();
+		private volatile Table _table = new Table(INITIAL_CAPACITY);
+		private int _usedSlots;
+		private int _liveSlots;
+
+		/**
+		 * Publishes a new table with only the live chunks, big enough to hold
+		 * one more chunk.
+		 */
+		private Table rehash()
+		{
+			int capacity = INITIAL_CAPACITY;
+			while (capacity < (_liveSlots + 1) * 4)
+			{
+				capacity <<= 1;
+			}
+			Table old = _table;
+			Table table = new Table(capacity);
+			for (int i = 0; i < old._keys.length(); ++i)
+			{
+				Chunk chunk = old._values.get(i);
+				if (chunk != null)
+				{
+					long key = old._keys.get(i);
+					int j = find(table, key, hash(key));
+					table._values.set(j, chunk);
+					table._keys.set(j, key);
+				}
+			}
+			_usedSlots = _liveSlots;
+			_table = table;
+			return table;
+		}
+	}
+
+	private static class Table
+	{
+		private final AtomicLongArray _keys;
+		private final AtomicReferenceArray<Chunk> _values;
+		private final int _mask;
+
+		private Table(int capacity)
+		{
+			_keys = new AtomicLongArray(capacity);
+			_values = new AtomicReferenceArray<Chunk>(capacity);
+			_mask = capacity - 1;
+			for (int i = 0; i < capacity; ++i)
+			{
+				_keys.set(i, EMPTY);
+			}
+		}
+	}
+}
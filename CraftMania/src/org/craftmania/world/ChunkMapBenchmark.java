@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.world;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.craftmania.math.MathHelper;
+
+/**
+ * Compares the {@link ChunkMap} with the super chunks behind one lock, keyed
+ * by their cantorized coordinates, the way the chunk manager used to index
+ * its chunks. Readers look up chunks that are always there, while writers
+ * keep adding and removing the chunks in a ring around them, like loading
+ * and unloading. Run it with the main method, optionally with the number of
+ * readers and writers.
+ * 
+ * @author martijncourteaux
+ */
+public class ChunkMapBenchmark
+{
+
+	private static final int RADIUS = 16;
+	private static final int RING_WIDTH = 8;
+	private static final int LOOKUPS = 2000000;
+	private static final int WRITES = 200000;
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int ROUNDS = 5;
+
+	private static interface Chunks
+	{
+		public Chunk get(int x, int z);
+
+		public void putIfAbsent(int x, int z, Chunk chunk);
+
+		public void remove(int x, int z, Chunk chunk);
+	}
+
+	/**
+	 * The old index: super chunks of 8x8 chunks in a HashMap, keyed by the
+	 * cantorized coordinates and all behind the lock of the map.
+	 */
+	private static class SuperChunks implements Chunks
+	{
+		private static final int SUPER_CHUNK_SIZE = 8;
+
+		private Map<Integer, Chunk[]> _superChunks = new HashMap<Integer, Chunk[]>();
+
+		private Chunk[] getSuperChunk(int superX, int superZ)
+		{
+			Integer cantorize = Integer.valueOf(MathHelper.cantorize(MathHelper.mapToPositive(superX), MathHelper.mapToPositive(superZ)));
+			Chunk[] superChunk = _superChunks.get(cantorize);
+			if (superChunk == null)
+			{
+				superChunk = new Chunk[SUPER_CHUNK_SIZE * SUPER_CHUNK_SIZE];
+				_superChunks.put(cantorize, superChunk);
+			}
+			return superChunk;
+		}
+
+		private static int indexInSuperChunk(int x, int superX, int z, int superZ)
+		{
+			return (x - superX * SUPER_CHUNK_SIZE) * SUPER_CHUNK_SIZE + z - superZ * SUPER_CHUNK_SIZE;
+		}
+
+		@Override
+		public Chunk get(int x, int z)
+		{
+			int superX = MathHelper.floorDivision(x, SUPER_CHUNK_SIZE);
+			int superZ = MathHelper.floorDivision(z, SUPER_CHUNK_SIZE);
+			synchronized (_superChunks)
+			{
+				return getSuperChunk(superX, superZ)[indexInSuperChunk(x, superX, z, superZ)];
+			}
+		}
+
+		@Override
+		public void putIfAbsent(int x, int z, Chunk chunk)
+		{
+			int superX = MathHelper.floorDivision(x, SUPER_CHUNK_SIZE);
+			int superZ = MathHelper.floorDivision(z, SUPER_CHUNK_SIZE);
+			synchronized (_superChunks)
+			{
+				Chunk[] superChunk = getSuperChunk(superX, superZ);
+				int index = indexInSuperChunk(x, superX, z, superZ);
+				if (superChunk[index] == null)
+				{
+					superChunk[index] = chunk;
+				}
+			}
+		}
+
+		@Override
+		public void remove(int x, int z, Chunk chunk)
+		{
+			int superX = MathHelper.floorDivision(x, SUPER_CHUNK_SIZE);
+			int superZ = MathHelper.floorDivision(z, SUPER_CHUNK_SIZE);
+			synchronized (_superChunks)
+			{
+				Chunk[] superChunk = getSuperChunk(superX, superZ);
+				int index = indexInSuperChunk(x, superX, z, superZ);
+				if (superChunk[index] == chunk)
+				{
+					superChunk[index] = null;
+				}
+			}
+		}
+	}
+
+	private static Chunks wrap(final ChunkMap chunkMap)
+	{
+		return new Chunks()
+		{
+
+			@Override
+			public Chunk get(int x, int z)
+			{
+				return chunkMap.get(x, z);
+			}
+
+			@Override
+			public void putIfAbsent(int x, int z, Chunk chunk)
+			{
+				chunkMap.putIfAbsent(x, z, chunk);
+			}
+
+			@Override
+			public void remove(int x, int z, Chunk chunk)
+			{
+				chunkMap.remove(x, z, chunk);
+			}
+		};
+	}
+
+	/**
+	 * Runs the readers and the writers at once and returns the nanoseconds it
+	 * took until all of them were done. The map has to hold the chunks within
+	 * the radius, the chunks of the ring are divided among the writers.
+	 */
+	private static long run(final Chunks chunks, final Chunk[] ring, int readers, final int writers) throws InterruptedException
+	{
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(readers + writers);
+		final int[] found = new int[readers];
+		for (int t = 0; t < readers; ++t)
+		{
+			final int thread = t;
+			new Thread(new Runnable()
+			{
+
+				@Override
+				public void run()
+				{
+					int size = RADIUS * 2 + 1;
+					int count = 0;
+					await(start);
+					for (int i = 0; i < LOOKUPS; ++i)
+					{
+						int n = i * 31 + thread * 7;
+						if (chunks.get(n % size - RADIUS, (n / size) % size - RADIUS) != null)
+						{
+							count++;
+						}
+					}
+					found[thread] = count;
+					done.countDown();
+				}
+			}).start();
+		}
+		for (int t = 0; t < writers; ++t)
+		{
+			final int thread = t;
+			new Thread(new Runnable()
+			{
+
+				@Override
+				public void run()
+				{
+					/* Every writer adds its chunks of the ring, then removes them again */
+					int own = (ring.length - thread + writers - 1) / writers;
+					await(start);
+					for (int i = 0; i < WRITES; ++i)
+					{
+						Chunk chunk = ring[(i % own) * writers + thread];
+						if ((i / own) % 2 == 0)
+						{
+							chunks.putIfAbsent(chunk.getX(), chunk.getZ(), chunk);
+						} else
+						{
+							chunks.remove(chunk.getX(), chunk.getZ(), chunk);
+						}
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		long time = System.nanoTime();
+		start.countDown();
+		done.await();
+		time = System.nanoTime() - time;
+		for (int t = 0; t < readers; ++t)
+		{
+			if (found[t] != LOOKUPS)
+			{
+				System.err.println("Reader " + t + " missed " + (LOOKUPS - found[t]) + " chunks");
+			}
+		}
+		return time;
+	}
+
+	private static void await(CountDownLatch latch)
+	{
+		try
+		{
+			latch.await();
+		} catch (InterruptedException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		int cores = Runtime.getRuntime().availableProcessors();
+		int readers = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(2, cores);
+		int writers = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+		int size = RADIUS * 2 + 1;
+		Chunk[] inner = new Chunk[size * size];
+		int ringSize = RADIUS + RING_WIDTH;
+		Chunk[] ring = new Chunk[(ringSize * 2 + 1) * (ringSize * 2 + 1) - inner.length];
+		int innerCount = 0, ringCount = 0;
+		for (int x = -ringSize; x <= ringSize; ++x)
+		{
+			for (int z = -ringSize; z <= ringSize; ++z)
+			{
+				if (Math.abs(x) <= RADIUS && Math.abs(z) <= RADIUS)
+				{
+					inner[innerCount++] = new Chunk(x, z);
+				} else
+				{
+					ring[ringCount++] = new Chunk(x, z);
+				}
+			}
+		}
+
+		String[] names = { "ChunkMap", "Super chunks" };
+		long[] totals = new long[names.length];
+		long locks = 0, contendedLocks = 0;
+		for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; ++round)
+		{
+			for (int m = 0; m < names.length; ++m)
+			{
+				ChunkMap chunkMap = new ChunkMap();
+				Chunks chunks = m == 0 ? wrap(chunkMap) : new SuperChunks();
+				for (int i = 0; i < inner.length; ++i)
+				{
+					chunks.putIfAbsent(inner[i].getX(), inner[i].getZ(), inner[i]);
+				}
+				long lockCount = chunkMap.getLockCount();
+				long contendedLockCount = chunkMap.getContendedLockCount();
+				long time = run(chunks, ring, readers, writers);
+				if (round >= WARMUP_ROUNDS)
+				{
+					totals[m] += time;
+					locks += chunkMap.getLockCount() - lockCount;
+					contendedLocks += chunkMap.getContendedLockCount() - contendedLockCount;
+				}
+			}
+		}
+
+		System.out.println(readers + " readers doing " + LOOKUPS + " lookups each in " + inner.length + " chunks, " + writers + " writers doing " + WRITES + " writes each in " + ring.length + " chunks, " + ROUNDS + " rounds after " + WARMUP_ROUNDS + " warmup rounds");
+		if (cores == 1)
+		{
+			System.out.println("Only 1 core: the threads take turns, so this shows the cost of locking, not how well the maps scale");
+		}
+		for (int m = 0; m < names.length; ++m)
+		{
+			System.out.println(String.format("%-15s %8.3f ms", names[m], totals[m] / (ROUNDS * 1000000.0d)));
+		}
+		System.out.println(String.format("ChunkMap locked a stripe %d times per round, %d of them contended", locks / ROUNDS, contendedLocks / ROUNDS));
+	}
+}
@@ -15,7 +15,18 @@
  ******************************************************************************/
 package org.craftmania.world;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.craftmania.rendering.BufferManager;
+import org.craftmania.rendering.ChunkMeshBuilder;
+import org.craftmania.rendering.ChunkMeshUpload;
 import org.craftmania.utilities.ThreadPool;
+import org.craftmania.utilities.WorkerPool;
+import org.craftmania.world.generators.ChunkGenerator;
 
 public class ChunkThreading
 {
@@ -24,16 +35,65 @@ public class ChunkThreading
 	private ThreadPool _generatePool;
 	private ThreadPool _savePool;
 	private ThreadPool _deletePool;
-	private volatile int _threads;
+	private ThreadPool _meshPool;
+	private AtomicInteger _threads;
+	private Map<Chunk, ChunkTicket> _tickets;
+	private Set<Chunk> _destroyAfterLoad;
+	private AtomicInteger _cancelledTickets;
 
 	public ChunkThreading(ChunkManager chman)
 	{
 		_chunkManager = chman;
-		int generatePoolSize = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		_threads = new AtomicInteger();
+		_tickets = new HashMap<Chunk, ChunkTicket>();
+		_destroyAfterLoad = new HashSet<Chunk>();
+		_cancelledTickets = new AtomicInteger();
+		/* All pools share the workers, with a limit per kind of task */
+		WorkerPool workers = WorkerPool.getInstance();
+		int generatePoolSize = Math.max(1, workers.getWorkerCount() - 1);
 		System.out.println("Generate Pool Size: " + generatePoolSize);
-		_generatePool = new ThreadPool(generatePoolSize);
-		_savePool = new ThreadPool(2);
-		_deletePool = new ThreadPool(1);
+		_generatePool = new ThreadPool(workers, generatePoolSize);
+		_savePool = new ThreadPool(workers, 2);
+		_deletePool = new ThreadPool(workers, 1);
+		_meshPool = new ThreadPool(workers, generatePoolSize);
+	}
+
+	/**
+	 * Builds the vertex data of the chunk in the mesh pool. The chunk isn't
+	 * locked, so building can overlap with generating the neighbors.
+	 */
+	public void buildMesh(final Chunk chunk, final int[] visibleBlocks, final int minY, final int maxY, final int sections, int priority)
+	{
+		final int meshGeneration = chunk.getMeshGeneration();
+		_meshPool.addThread(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				_threads.incrementAndGet();
+				ChunkMeshUpload upload = null;
+				try
+				{
+					chunk.updateConnectivity(sections);
+					upload = ChunkMeshBuilder.buildChunkMeshes(chunk, visibleBlocks, minY, maxY, sections);
+				} catch (Exception e)
+				{
+					e.printStackTrace();
+				}
+				if (upload == null)
+				{
+					/* The chunk changed while building, so try again */
+					chunk.markSectionsDirty(sections);
+					chunk.meshBuildFinished();
+				} else
+				{
+					upload.setMeshGeneration(meshGeneration);
+					BufferManager.getInstance().queueUpload(upload);
+				}
+				_threads.decrementAndGet();
+			}
+		}, priority);
 	}
 
 	public void saveChunk(final Chunk chunk)
@@ -44,7 +104,7 @@ public class ChunkThreading
 			@Override
 			public void run()
 			{
-				++_threads;
+				_threads.incrementAndGet();
 				synchronized (chunk)
 				{
 					try
@@ -56,7 +116,7 @@ public class ChunkThreading
 						e.printStackTrace();
 					}
 				}
-				--_threads;
+				_threads.decrementAndGet();
 			}
 		}, 0);
 	}
@@ -67,47 +127,66 @@ public class ChunkThreading
 		/* Mesh has to be deleted in the main thread, because of OpenGL */
 		chunk.destroyMesh();
 
-		/* Add a runnable to the pool */
+		destroyChunk(chunk);
+	}
+
+	/**
+	 * Destroys the chunk in the delete pool. While the chunk is still loading,
+	 * it is destroyed when its ticket finished, instead of blocking a worker.
+	 */
+	private void destroyChunk(final Chunk chunk)
+	{
 		_deletePool.addThread(new Runnable()
 		{
 
 			@Override
 			public void run()
 			{
-				++_threads;
+				_threads.incrementAndGet();
+				boolean destroyed = false;
 				synchronized (chunk)
 				{
 					try
 					{
-						while (!chunk.destroy())
-						{
-							try
-							{
-								Thread.sleep(10);
-							} catch (Exception e)
-							{
-							}
-						}
+						destroyed = chunk.destroy();
 					} catch (Exception e)
 					{
 						e.printStackTrace();
+						destroyed = true;
 					}
 				}
-				--_threads;
+				if (!destroyed)
+				{
+					boolean loading;
+					synchronized (_tickets)
+					{
+						loading = _tickets.containsKey(chunk);
+						if (loading)
+						{
+							_destroyAfterLoad.add(chunk);
+						}
+					}
+					if (!loading)
+					{
+						/* The ticket finished meanwhile */
+						_deletePool.addThread(this, 0);
+					}
+				}
+				_threads.decrementAndGet();
 			}
 		}, 0);
 	}
 
-	public void loadChunk(final Chunk chunk, int priority)
+	public ChunkTicket loadChunk(final Chunk chunk)
 	{
 		chunk.setLoading(true);
-		_generatePool.addThread(new Runnable()
+		return queueTicket(chunk, new Runnable()
 		{
 
 			@Override
 			public void run()
 			{
-				++_threads;
+				_threads.incrementAndGet();
 				synchronized (chunk)
 				{
 					try
@@ -121,37 +200,26 @@ public class ChunkThreading
 					_chunkManager.getWorld().requestCheckForNewVisibleChunks();
 
 				}
-				--_threads;
+				_threads.decrementAndGet();
 			}
-		}, priority);
+		});
 	}
 
-	public void generateChunk(final Chunk chunk, int priority)
+	public ChunkTicket generateChunk(final Chunk chunk)
 	{
 		chunk.setLoading(true);
-		_generatePool.addThread(new Runnable()
+		return queueTicket(chunk, new Runnable()
 		{
 
 			@Override
 			public void run()
 			{
-				++_threads;
-				synchronized (chunk)
-				{
-					try
-					{
-						chunk.generate();
-					} catch (Exception e)
-					{
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-					_chunkManager.getWorld().requestCheckForNewVisibleChunks();
-
-				}
-				--_threads;
+				_threads.incrementAndGet();
+				generate(chunk);
+				_chunkManager.getWorld().requestCheckForNewVisibleChunks();
+				_threads.decrementAndGet();
 			}
-		}, priority);
+		});
 	}
 
 	public void saveAndUnloadChunk(final Chunk chunk)
@@ -166,63 +234,164 @@ public class ChunkThreading
 			@Override
 			public void run()
 			{
-				++_threads;
+				_threads.incrementAndGet();
 				synchronized (chunk)
 				{
 					try
 					{
 						_chunkManager.getBlockChunkLoader().saveChunk(chunk);
-						while (!chunk.destroy())
-						{
-							try
-							{
-								Thread.sleep(10);
-							} catch (Exception e)
-							{
-							}
-						}
 					} catch (Exception e)
 					{
 						// TODO Auto-generated catch block
 						e.printStackTrace();
 					}
 				}
-				--_threads;
+				destroyChunk(chunk);
+				_threads.decrementAndGet();
 			}
 		}, 0);
 	}
 
 	public boolean isTreadingBusy()
 	{
-		return _threads > 0;
+		return _threads.get() > 0;
 	}
 
-	public void loadAndGenerateChunk(final Chunk chunk, int priority)
+	public ChunkTicket loadAndGenerateChunk(final Chunk chunk)
 	{
 		chunk.setLoading(true);
-		_generatePool.addThread(new Runnable()
+		return queueTicket(chunk, new Runnable()
 		{
 
 			@Override
 			public void run()
 			{
-				++_threads;
+				_threads.incrementAndGet();
 				synchronized (chunk)
 				{
 					try
 					{
 						_chunkManager.getBlockChunkLoader().loadChunk(chunk);
-						chunk.generate();
 					} catch (Exception e)
 					{
 						// TODO Auto-generated catch block
 						e.printStackTrace();
 					}
-					_chunkManager.getWorld().requestCheckForNewVisibleChunks();
+					/* Keep it loading until it is generated */
+					chunk.setLoading(true);
 				}
-				--_threads;
+				generate(chunk);
+				_chunkManager.getWorld().requestCheckForNewVisibleChunks();
+				_threads.decrementAndGet();
 			}
-		}, priority);
+		});
+	}
+
+	/**
+	 * Generates the chunk in a worker. The terrain is computed before locking
+	 * the chunk, so the neighbors can keep writing into it meanwhile.
+	 */
+	private void generate(Chunk chunk)
+	{
+		ChunkGenerator generator = null;
+		try
+		{
+			if (!chunk.isGenerated())
+			{
+				generator = new ChunkGenerator(_chunkManager.getWorld(), chunk.getX(), chunk.getZ());
+				generator.computeTerrain();
+			}
+		} catch (Exception e)
+		{
+			e.printStackTrace();
+			generator = null;
+		}
+		synchronized (chunk)
+		{
+			try
+			{
+				chunk.generate(generator);
+			} catch (Exception e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Queues the loading task of the chunk as a ticket in the generate pool.
+	 * The ticket is forgotten as soon as it finished, and the chunk is
+	 * destroyed then if that was asked while it was loading.
+	 */
+	private ChunkTicket queueTicket(final Chunk chunk, final Runnable task)
+	{
+		ChunkTicket ticket = new ChunkTicket(_chunkManager.getWorld(), chunk, new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				try
+				{
+					task.run();
+				} finally
+				{
+					boolean destroy;
+					synchronized (_tickets)
+					{
+						_tickets.remove(chunk);
+						destroy = _destroyAfterLoad.remove(chunk);
+					}
+					if (destroy)
+					{
+						destroyChunk(chunk);
+					}
+				}
+			}
+		});
+		synchronized (_tickets)
+		{
+			_tickets.put(chunk, ticket);
+		}
+		_generatePool.addThread(ticket);
+		return ticket;
+	}
+
+	/**
+	 * Cancels the queued ticket of the chunk. The chunk never got any content,
+	 * so it is destroyed without saving it.
+	 * 
+	 * @return true if the chunk won't be loaded anymore, false if it had no
+	 *         ticket or the ticket is already running.
+	 */
+	public boolean cancelTicket(Chunk chunk)
+	{
+		ChunkTicket ticket;
+		synchronized (_tickets)
+		{
+			ticket = _tickets.get(chunk);
+			if (ticket == null || !ticket.cancel())
+			{
+				return false;
+			}
+			_tickets.remove(chunk);
+			_destroyAfterLoad.remove(chunk);
+		}
+		_cancelledTickets.incrementAndGet();
+		chunk.setLoading(false);
+		chunk.destroyMesh();
+		destroyChunk(chunk);
+		return true;
+	}
+
+	public int getCancelledTicketCount()
+	{
+		return _cancelledTickets.get();
+	}
+
+	public int getQueuedTicketCount()
+	{
+		return _generatePool.getWaitingCount();
 	}
 
 	public boolean isLoadingThreadPoolFull()
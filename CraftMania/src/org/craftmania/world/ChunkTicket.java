@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.world;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.craftmania.math.Vec3f;
+import org.craftmania.utilities.PrioritizedRunnable;
+import org.craftmania.world.characters.Player;
+
+/**
+ * A queued request to load and/or generate a chunk. The priority follows the
+ * player: it is the squared distance to the chunk, which counts four times
+ * as much for chunks behind the camera. A ticket can be cancelled as long as
+ * it didn't start.
+ * 
+ * @author martijncourteaux
+ * 
+ */
+public class ChunkTicket implements PrioritizedRunnable
+{
+	private static final int STATE_QUEUED = 0;
+	private static final int STATE_RUNNING = 1;
+	private static final int STATE_FINISHED = 2;
+	private static final int STATE_CANCELLED = 3;
+
+	private static final int BEHIND_CAMERA_FACTOR = 4;
+
+	private World _world;
+	private Chunk _chunk;
+	private Runnable _task;
+	private AtomicInteger _state;
+
+	public ChunkTicket(World world, Chunk chunk, Runnable task)
+	{
+		_world = world;
+		_chunk = chunk;
+		_task = task;
+		_state = new AtomicInteger(STATE_QUEUED);
+	}
+
+	@Override
+	public void run()
+	{
+		if (!_state.compareAndSet(STATE_QUEUED, STATE_RUNNING))
+		{
+			return;
+		}
+		try
+		{
+			_task.run();
+		} finally
+		{
+			_state.set(STATE_FINISHED);
+		}
+	}
+
+	/**
+	 * Cancels the ticket if it didn't start yet.
+	 * 
+	 * @return true if the ticket will never run.
+	 */
+	public boolean cancel()
+	{
+		return _state.compareAndSet(STATE_QUEUED, STATE_CANCELLED) || _state.get() == STATE_CANCELLED;
+	}
+
+	@Override
+	public boolean isCancelled()
+	{
+		return _state.get() == STATE_CANCELLED;
+	}
+
+	public boolean isFinished()
+	{
+		return _state.get() == STATE_FINISHED;
+	}
+
+	public Chunk getChunk()
+	{
+		return _chunk;
+	}
+
+	@Override
+	public int getPriority()
+	{
+		Player p = _world.getActivePlayer();
+		Vec3f position = p.getPosition();
+		float xDiff = _chunk.getAbsoluteX() + Chunk.CHUNK_SIZE_HORIZONTAL / 2 - position.x();
+		float zDiff = _chunk.getAbsoluteZ() + Chunk.CHUNK_SIZE_HORIZONTAL / 2 - position.z();
+		float distSq = xDiff * xDiff + zDiff * zDiff;
+
+		/* The chunks right around the player are needed in any direction */
+		if (distSq > Chunk.CHUNK_SIZE_HORIZONTAL * Chunk.CHUNK_SIZE_HORIZONTAL * 2)
+		{
+			Vec3f look = p.getFirstPersonCamera().getLookDirection();
+			if (xDiff * look.x() + zDiff * look.z() < 0.0f)
+			{
+				distSq *= BEHIND_CAMERA_FACTOR;
+			}
+		}
+		return (int) Math.min(distSq, Integer.MAX_VALUE - 1);
+	}
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.world;
+
+/**
+ * The height, temperature, humidity and surface biome of every column of one
+ * chunk, as computed by the {@link WorldProvider}.
+ * 
+ * @author martijncourteaux
+ * 
+ */
+public class ClimateTile
+{
+	private static final int SIZE = Chunk.CHUNK_SIZE_HORIZONTAL;
+
+	private int _x, _z;
+	private int[] _heights;
+	private int[] _temperatures;
+	private int[] _humidities;
+	private Biome[] _biomes;
+
+	public ClimateTile(int x, int z)
+	{
+		_x = x;
+		_z = z;
+		_heights = new int[SIZE * SIZE];
+		_temperatures = new int[SIZE * SIZE];
+		_humidities = new int[SIZE * SIZE];
+		_biomes = new Biome[SIZE * SIZE];
+	}
+
+	/**
+	 * Fills the tile with the data of the provider.
+	 */
+	void compute(WorldProvider provider)
+	{
+		int absX = _x * SIZE;
+		int absZ = _z * SIZE;
+		provider.getHeights(absX, absZ, SIZE, SIZE, _heights);
+		for (int x = 0; x < SIZE; ++x)
+		{
+			for (int z = 0; z < SIZE; ++z)
+			{
+				int i = x * SIZE + z;
+				_temperatures[i] = provider.getTemperatureAt(absX + x, absZ + z);
+				_humidities[i] = provider.getHumidityAt(absX + x, absZ + z);
+				int temperature = provider.calculateTemperature(_temperatures[i], _heights[i]);
+				_biomes[i] = provider.calculateBiome(temperature, provider.calculateHumidity(_humidities[i], temperature));
+			}
+		}
+	}
+
+	public int getX()
+	{
+		return _x;
+	}
+
+	public int getZ()
+	{
+		return _z;
+	}
+
+	private int index(int x, int z)
+	{
+		return (x - _x * SIZE) * SIZE + (z - _z * SIZE);
+	}
+
+	/**
+	 * Returns the terrain height of the column at the given absolute
+	 * coordinates, which have to be inside this tile.
+	 */
+	public int getHeight(int x, int z)
+	{
+		return _heights[index(x, z)];
+	}
+
+	public int getTemperature(int x, int z)
+	{
+		return _temperatures[index(x, z)];
+	}
+
+	public int getHumidity(int x, int z)
+	{
+		return _humidities[index(x, z)];
+	}
+
+	/**
+	 * Returns the biome at the surface of the column.
+	 */
+	public Biome getBiome(int x, int z)
+	{
+		return _biomes[index(x, z)];
+	}
+}
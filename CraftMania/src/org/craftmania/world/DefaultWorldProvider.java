@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.craftmania.blocks.BlockManager;
 import org.craftmania.game.Game;
@@ -45,15 +46,17 @@ public class DefaultWorldProvider extends WorldProvider
 
 	public static int SAMPLE_RATE_TEMPERATURE = 32;
 
+	private static final int TREE_REGISTRY_MARKER = -1;
+
 	private static boolean DEBUG_WOLRD_PROVIDER = false;
 
 	private World _world;
 	private WorldProviderGenerator _generator;
 	private List<DataPoint2D> _rawHeights;
 	private List<DataPoint2D> _heights;
-	private List<DataPoint2D> _humidities;
-	private List<DataPoint2D> _temperatures;
-	private List<TreeDefinition> _trees;
+	private DataPointGrid _humidities;
+	private DataPointGrid _temperatures;
+	private TreeRegistry _trees;
 	private Vec3f _spawnPoint;
 
 	private PerlinNoise _pNoise1;
@@ -66,15 +69,15 @@ public class DefaultWorldProvider extends WorldProvider
 		_generator = new WorldProviderGenerator(world);
 		_rawHeights = new ArrayList<DefaultWorldProvider.DataPoint2D>();
 		_heights = new ArrayList<DefaultWorldProvider.DataPoint2D>();
-		_humidities = new ArrayList<DefaultWorldProvider.DataPoint2D>();
-		_trees = new ArrayList<TreeDefinition>();
-		_temperatures = new ArrayList<DefaultWorldProvider.DataPoint2D>();
+		_humidities = new DataPointGrid(SAMPLE_RATE_HORIZONTAL);
+		_trees = new TreeRegistry();
+		_temperatures = new DataPointGrid(SAMPLE_RATE_TEMPERATURE);
 		_pNoise1 = new PerlinNoise(world.getWorldSeed());
 		_pNoise2 = new PerlinNoise(world.getWorldSeed() + 1);
 		_pNoise3 = new PerlinNoise(world.getWorldSeed() + 2);
 	}
 
-	public List<TreeDefinition> getTrees()
+	public TreeRegistry getTreeRegistry()
 	{
 		return _trees;
 	}
@@ -89,92 +92,51 @@ public class DefaultWorldProvider extends WorldProvider
 		return point._x == x && point._z == z;
 	}
 
-	@Override
-	public int getTemperatureAt(int x, int z)
+	/**
+	 * Returns the data point at the given grid coordinates, generating it if
+	 * it doesn't exist yet.
+	 */
+	private DataPoint2D getDataPoint(DataPointGrid grid, int x, int z)
 	{
-		int lowerX = x;
-		int lowerZ = z;
-
-		lowerX = MathHelper.floor((float) x / SAMPLE_RATE_TEMPERATURE) * SAMPLE_RATE_TEMPERATURE;
-		lowerZ = MathHelper.floor((float) z / SAMPLE_RATE_TEMPERATURE) * SAMPLE_RATE_TEMPERATURE;
-
-		int upperX = lowerX + SAMPLE_RATE_TEMPERATURE;
-		int upperZ = lowerZ + SAMPLE_RATE_TEMPERATURE;
-
-		DataPoint2D q11, q12, q21, q22;
-		q11 = q12 = q21 = q22 = null;
-
-		synchronized (_temperatures)
+		DataPoint2D point = grid.get(x, z);
+		if (point != null)
 		{
-
-			for (DataPoint2D temp : _temperatures)
+			return point;
+		}
+		synchronized (_generator)
+		{
+			point = grid.get(x, z);
+			if (point == null)
 			{
-				if (isPoint(temp, x, z))
-				{
-					return temp.getData();
-				}
-
-				int hX = temp._x;
-				int hZ = temp._z;
-
-				if (lowerX == hX && lowerZ == hZ)
-				{
-					q11 = temp;
-				} else if (lowerX == hX && upperZ == hZ)
+				if (grid == _temperatures)
 				{
-					q12 = temp;
-				} else if (upperX == hX && lowerZ == hZ)
+					point = _generator.generateTemperatureAt(x, z);
+				} else
 				{
-					q21 = temp;
-				} else if (upperX == hX && upperZ == hZ)
-				{
-					q22 = temp;
-				}
-
-				if (q11 != null && q12 != null && q21 != null && q22 != null)
-				{
-					break;
+					point = _generator.generateHumidityAt(x, z);
 				}
 			}
+			return point;
+		}
+	}
 
-			if (q11 == null || q12 == null || q21 == null || q22 == null)
-			{
-				// System.out.println("No temperature data found for this coordinates ("
-				// + x + ", " + z + ") !! So, will be generated...");
-				if (q11 == null)
-				{
-					q11 = _generator.generateTemperatureAt(lowerX, lowerZ);
-					if (isPoint(q11, x, z))
-					{
-						return q11._data;
-					}
-				}
-				if (q12 == null)
-				{
-					q12 = _generator.generateTemperatureAt(lowerX, upperZ);
-					if (isPoint(q12, x, z))
-					{
-						return q12._data;
-					}
-				}
-				if (q21 == null)
-				{
-					q21 = _generator.generateTemperatureAt(upperX, lowerZ);
-					if (isPoint(q21, x, z))
-					{
-						return q21._data;
-					}
-				}
-				if (q22 == null)
-				{
-					q22 = _generator.generateTemperatureAt(upperX, upperZ);
-					if (isPoint(q22, x, z))
-					{
-						return q22._data;
-					}
-				}
-			}
+	@Override
+	public int getTemperatureAt(int x, int z)
+	{
+		int lowerX = MathHelper.floorDivision(x, SAMPLE_RATE_TEMPERATURE) * SAMPLE_RATE_TEMPERATURE;
+		int lowerZ = MathHelper.floorDivision(z, SAMPLE_RATE_TEMPERATURE) * SAMPLE_RATE_TEMPERATURE;
+
+		int upperX = lowerX + SAMPLE_RATE_TEMPERATURE;
+		int upperZ = lowerZ + SAMPLE_RATE_TEMPERATURE;
+
+		DataPoint2D q11 = getDataPoint(_temperatures, lowerX, lowerZ);
+		if (isPoint(q11, x, z))
+		{
+			return q11.getData();
 		}
+		DataPoint2D q12 = getDataPoint(_temperatures, lowerX, upperZ);
+		DataPoint2D q21 = getDataPoint(_temperatures, upperX, lowerZ);
+		DataPoint2D q22 = getDataPoint(_temperatures, upperX, upperZ);
 
 		return (int) biLerpDataPoints(x, z, q11, q12, q21, q22);
 	}
@@ -194,94 +156,33 @@ public class DefaultWorldProvider extends WorldProvider
 	public int getHumidityAt(int x, int y, int z)
 	{
 		int humidity = getHumidityAt(x, z);
-		return (int) MathHelper.clamp(humidity * 10 / getTemperatureAt(x, y, z), 0, 100);
+		return calculateHumidity(humidity, getTemperatureAt(x, y, z));
 	}
 
 	@Override
-	public int getHumidityAt(int x, int z)
+	public int calculateHumidity(int humidity, int temperature)
 	{
-		int lowerX = x;
-		int lowerZ = z;
+		return (int) MathHelper.clamp(humidity * 10 / temperature, 0, 100);
+	}
 
-		lowerX = MathHelper.floorDivision(x, SAMPLE_RATE_HORIZONTAL) * SAMPLE_RATE_HORIZONTAL;
-		lowerZ = MathHelper.floorDivision(z, SAMPLE_RATE_HORIZONTAL) * SAMPLE_RATE_HORIZONTAL;
+	@Override
+	public int getHumidityAt(int x, int z)
+	{
+		int lowerX = MathHelper.floorDivision(x, SAMPLE_RATE_HORIZONTAL) * SAMPLE_RATE_HORIZONTAL;
+		int lowerZ = MathHelper.floorDivision(z, SAMPLE_RATE_HORIZONTAL) * SAMPLE_RATE_HORIZONTAL;
 
 		int upperX = lowerX + SAMPLE_RATE_HORIZONTAL;
 		int upperZ = lowerZ + SAMPLE_RATE_HORIZONTAL;
 
-		DataPoint2D q11, q12, q21, q22;
-		q11 = q12 = q21 = q22 = null;
-		synchronized (_humidities)
+		DataPoint2D q11 = getDataPoint(_humidities, lowerX, lowerZ);
+		if (isPoint(q11, x, z))
 		{
-
-			for (DataPoint2D humidity : _humidities)
-			{
-				if (isPoint(humidity, x, z))
-				{
-					return humidity.getData();
-				}
-
-				int hX = humidity._x;
-				int hZ = humidity._z;
-
-				if (lowerX == hX && lowerZ == hZ)
-				{
-					q11 = humidity;
-				} else if (lowerX == hX && upperZ == hZ)
-				{
-					q12 = humidity;
-				} else if (upperX == hX && lowerZ == hZ)
-				{
-					q21 = humidity;
-				} else if (upperX == hX && upperZ == hZ)
-				{
-					q22 = humidity;
-				}
-
-				if (q11 != null && q12 != null && q21 != null && q22 != null)
-				{
-					break;
-				}
-			}
-
-			if (q11 == null || q12 == null || q21 == null || q22 == null)
-			{
-				// System.out.println("No humidity data found for this coordinates ("
-				// + x + ", " + z + ") !! So, will be generated...");
-				if (q11 == null)
-				{
-					q11 = _generator.generateHumidityAt(lowerX, lowerZ);
-					if (isPoint(q11, x, z))
-					{
-						return q11._data;
-					}
-				}
-				if (q12 == null)
-				{
-					q12 = _generator.generateHumidityAt(lowerX, upperZ);
-					if (isPoint(q12, x, z))
-					{
-						return q12._data;
-					}
-				}
-				if (q21 == null)
-				{
-					q21 = _generator.generateHumidityAt(upperX, lowerZ);
-					if (isPoint(q21, x, z))
-					{
-						return q21._data;
-					}
-				}
-				if (q22 == null)
-				{
-					q22 = _generator.generateHumidityAt(upperX, upperZ);
-					if (isPoint(q22, x, z))
-					{
-						return q22._data;
-					}
-				}
-			}
+			return q11.getData();
 		}
+		DataPoint2D q12 = getDataPoint(_humidities, lowerX, upperZ);
+		DataPoint2D q21 = getDataPoint(_humidities, upperX, lowerZ);
+		DataPoint2D q22 = getDataPoint(_humidities, upperX, upperZ);
+
 		float humidity2D = biLerpDataPoints(x, z, q11, q12, q21, q22);
 
 		return MathHelper.clamp((int) humidity2D, 10, 95);
@@ -296,11 +197,34 @@ public class DefaultWorldProvider extends WorldProvider
 		return MathHelper.round(70 + level1 + level2 + level3);
 	}
 
+	@Override
+	public void getHeights(int x, int z, int width, int depth, int[] output)
+	{
+		int size = width * depth;
+		float[] noise1 = new float[size];
+		float[] noise2 = new float[size];
+		float[] noise3 = new float[size];
+		float[] noise4 = new float[size];
+		_pNoise1.noise(x, z, width, depth, 0.01f, noise1);
+		_pNoise2.noise(x, z, width, depth, 0.04f, noise2);
+		_pNoise3.noise(x, z, width, depth, 0.002f, noise3);
+		_pNoise1.noise(x, z, width, depth, 0.08f, noise4);
+		for (int i = 0; i < size; ++i)
+		{
+			float level1 = 30.0f * noise1[i];
+			float level2 = 40.0f * noise2[i] * noise3[i];
+			float level3 = 4.0f * noise4[i];
+			output[i] = MathHelper.round(70 + level1 + level2 + level3);
+		}
+	}
+
 	@Override
 	public Biome getBiomeAt(int x, int y, int z)
 	{
-		float temp = getTemperatureAt(x, y, z);
-		float humidity = getHumidityAt(x, y, z);
+		ClimateTile tile = getClimateTileContaining(x, z);
+		int temperature = calculateTemperature(tile.getTemperature(x, z), y);
+		float temp = temperature;
+		float humidity = calculateHumidity(tile.getHumidity(x, z), temperature);
 
 		if (DEBUG_WOLRD_PROVIDER && x % 8 == 0 && z % 8 == 0)
 		{
@@ -359,7 +283,7 @@ public class DefaultWorldProvider extends WorldProvider
 		{
 			int x = random.randomInt(-5 * i, 5 * i);
 			int z = random.randomInt(-5 * i, 5 * i);
-			int y = getHeightAt(x, z);
+			int y = getClimateTileContaining(x, z).getHeight(x, z);
 
 			_spawnPoint = new Vec3f(x + 0.5f, y + 1.5f, z + 0.5f);
 			byte spawnPointBlock = 0;
@@ -421,6 +345,61 @@ public class DefaultWorldProvider extends WorldProvider
 		}
 	}
 
+	/**
+	 * The data points of one kind, hashed by the cell of the sample grid they
+	 * are in. Looking up a point doesn't block.
+	 */
+	private static class DataPointGrid
+	{
+		private int _sampleRate;
+		private ConcurrentHashMap<Long, DataPoint2D> _points;
+
+		public DataPointGrid(int sampleRate)
+		{
+			_sampleRate = sampleRate;
+			_points = new ConcurrentHashMap<Long, DataPoint2D>();
+		}
+
+		private Long key(int x, int z)
+		{
+			long cellX = MathHelper.floorDivision(x, _sampleRate);
+			long cellZ = MathHelper.floorDivision(z, _sampleRate);
+			return Long.valueOf((cellX << 32) | (cellZ & 0xFFFFFFFFL));
+		}
+
+		public int getSampleRate()
+		{
+			return _sampleRate;
+		}
+
+		/**
+		 * Returns the point at the given coordinates, which are a multiple of
+		 * the sample rate.
+		 */
+		public DataPoint2D get(int x, int z)
+		{
+			return _points.get(key(x, z));
+		}
+
+		public void add(DataPoint2D point)
+		{
+			_points.put(key(point.getX(), point.getZ()), point);
+		}
+
+		public void addAll(List<DataPoint2D> points)
+		{
+			for (int i = 0; i < points.size(); ++i)
+			{
+				add(points.get(i));
+			}
+		}
+
+		public List<DataPoint2D> getAll()
+		{
+			return new ArrayList<DataPoint2D>(_points.values());
+		}
+	}
+
 	private class WorldProviderGenerator
 	{
 
@@ -448,35 +427,50 @@ public class DefaultWorldProvider extends WorldProvider
 			_random = new SmartRandom(new Random(world.getWorldSeed()));
 		}
 
-		private DataResults gatherDataAround(List<DataPoint2D> list, int x, int z, float radius)
+		private DataResults gatherDataAround(DataPointGrid grid, int x, int z, float radius)
 		{
 			DataResults td = new DataResults();
 
 			float radiusSq = radius * radius;
 			float total = 0.0f;
 
-			for (DataPoint2D data : list)
+			int rate = grid.getSampleRate();
+			int r = MathHelper.ceil(radius);
+			int minX = MathHelper.floorDivision(x - r, rate);
+			int maxX = MathHelper.floorDivision(x + r, rate);
+			int minZ = MathHelper.floorDivision(z - r, rate);
+			int maxZ = MathHelper.floorDivision(z + r, rate);
+
+			for (int cellX = minX; cellX <= maxX; ++cellX)
 			{
-				float pX = data.getX();
-				float pZ = data.getZ();
+				for (int cellZ = minZ; cellZ <= maxZ; ++cellZ)
+				{
+					DataPoint2D data = grid.get(cellX * rate, cellZ * rate);
+					if (data == null)
+					{
+						continue;
+					}
+					float pX = data.getX();
+					float pZ = data.getZ();
 
-				pX -= x;
-				pZ -= z;
+					pX -= x;
+					pZ -= z;
 
-				float distanceSq = pX * pX + pZ * pZ;
+					float distanceSq = pX * pX + pZ * pZ;
 
-				if (distanceSq < radiusSq)
-				{
-					total += data.getData();
-					td.count++;
+					if (distanceSq < radiusSq)
+					{
+						total += data.getData();
+						td.count++;
 
-					td.min = Math.min(td.min, data.getData());
-					td.max = Math.max(td.max, data.getData());
+						td.min = Math.min(td.min, data.getData());
+						td.max = Math.max(td.max, data.getData());
 
-					if (td.closestDistanceSq < distanceSq)
-					{
-						td.closestDistanceSq = distanceSq;
-						td.closest = data.getData();
+						if (td.closestDistanceSq < distanceSq)
+						{
+							td.closestDistanceSq = distanceSq;
+							td.closest = data.getData();
+						}
 					}
 				}
 			}
@@ -553,21 +547,12 @@ public class DefaultWorldProvider extends WorldProvider
 
 		writeDataPointList(dos, _rawHeights);
 		writeDataPointList(dos, _heights);
-		writeDataPointList(dos, _humidities);
-		writeDataPointList(dos, _temperatures);
+		writeDataPointList(dos, _humidities.getAll());
+		writeDataPointList(dos, _temperatures.getAll());
 
-		/* Tree Definitions */
-		{
-			dos.writeInt(_trees.size());
-			for (int i = 0; i < _trees.size(); ++i)
-			{
-				TreeDefinition dp2d = _trees.get(i);
-				dos.writeInt(dp2d.x);
-				dos.writeInt(dp2d.y);
-				dos.writeInt(dp2d.z);
-				dos.writeByte(dp2d.type);
-			}
-		}
+		/* Tree Definitions, marked to tell them from the old list of trees */
+		dos.writeInt(TREE_REGISTRY_MARKER);
+		_trees.write(dos);
 
 		dos.flush();
 		dos.close();
@@ -593,12 +578,16 @@ public class DefaultWorldProvider extends WorldProvider
 
 		readDataPointList(dis, _rawHeights);
 		readDataPointList(dis, _heights);
-		readDataPointList(dis, _humidities);
-		readDataPointList(dis, _temperatures);
+		_humidities.addAll(readDataPointList(dis, new ArrayList<DataPoint2D>()));
+		_temperatures.addAll(readDataPointList(dis, new ArrayList<DataPoint2D>()));
 
 		/* Tree Definitions */
+		int size = dis.readInt();
+		if (size == TREE_REGISTRY_MARKER)
+		{
+			_trees.read(dis);
+		} else
 		{
-			int size = dis.readInt();
 			for (int i = 0; i < size; ++i)
 			{
 				TreeDefinition dp2d = new TreeDefinition(0, 0, 0, 0);
@@ -606,6 +595,7 @@ public class DefaultWorldProvider extends WorldProvider
 				dp2d.y = dis.readInt();
 				dp2d.z = dis.readInt();
 				dp2d.type = dis.readByte();
+				_trees.add(dp2d);
 			}
 		}
 
@@ -625,7 +615,7 @@ public class DefaultWorldProvider extends WorldProvider
 		}
 	}
 
-	private void readDataPointList(DataInputStream dis, List<DataPoint2D> list) throws IOException
+	private List<DataPoint2D> readDataPointList(DataInputStream dis, List<DataPoint2D> list) throws IOException
 	{
 		int size = dis.readInt();
 		for (int i = 0; i < size; ++i)
@@ -636,6 +626,7 @@ public class DefaultWorldProvider extends WorldProvider
 			dp2d._data = dis.readInt();
 			list.add(dp2d);
 		}
+		return list;
 	}
 
 }
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.world;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.craftmania.math.MathHelper;
+
+/**
+ * Moves the chunks stored in the old one-file-per-chunk format into region
+ * files. Chunks that are migrated successfully are deleted from the old
+ * directory.
+ * 
+ * @author martijncourteaux
+ * 
+ */
+public class LegacyChunkMigrator
+{
+	private static final String LEGACY_EXTENSION = ".chunk";
+
+	public static int migrate(File chunkDirectory, RegionFileCache regions)
+	{
+		File[] files = chunkDirectory.listFiles();
+		if (files == null)
+		{
+			return 0;
+		}
+
+		System.out.println("Migrating " + files.length + " chunk files in " + chunkDirectory + " to regions...");
+		int migrated = 0;
+		for (File file : files)
+		{
+			String name = file.getName();
+			if (!name.endsWith(LEGACY_EXTENSION))
+			{
+				continue;
+			}
+
+			/* The name is the hexadecimal cantorized position of the chunk */
+			String hex = name.substring(0, name.length() - LEGACY_EXTENSION.length());
+			if (hex.length() > 8)
+			{
+				hex = hex.substring(hex.length() - 8);
+			}
+			int id;
+			try
+			{
+				id = (int) Long.parseLong(hex, 16);
+			} catch (NumberFormatException e)
+			{
+				System.err.println("Skipping unknown chunk file: " + file);
+				continue;
+			}
+			int x = MathHelper.redoMapToPositive(MathHelper.cantorX(id));
+			int z = MathHelper.redoMapToPositive(MathHelper.cantorY(id));
+			if (MathHelper.cantorize(MathHelper.mapToPositive(x), MathHelper.mapToPositive(z)) != id)
+			{
+				System.err.println("Skipping chunk file with an ambiguous position: " + file);
+				continue;
+			}
+
+			try
+			{
+				byte[] data = new byte[(int) file.length()];
+				DataInputStream dis = new DataInputStream(new FileInputStream(file));
+				try
+				{
+					dis.readFully(data);
+				} finally
+				{
+					dis.close();
+				}
+				regions.writeChunk(x, z, data, data.length);
+				if (file.delete())
+				{
+					migrated++;
+				}
+			} catch (IOException e)
+			{
+				System.err.println("Migration of " + file + " failed!");
+				e.printStackTrace(System.err);
+			}
+		}
+
+		/* Only removes the directory if every chunk is migrated */
+		chunkDirectory.delete();
+
+		System.out.println("Migrated " + migrated + " chunks.");
+		return migrated;
+	}
+}
@@ -9,6 +9,7 @@ public class LightBuffer
 
 	private int _x, _z;
 	private int _refX, _refY, _refZ;
+	private World _world;
 	private Fast3DByteArray _buffer;
 
 	public LightBuffer()
@@ -17,18 +18,26 @@ public class LightBuffer
 	}
 
 	public void buffer(Chunk chunk)
+	{
+		int minY = MathHelper.clamp(MathHelper.floor(chunk.getVisibleContentAABB().minY() - 2), 0, Chunk.CHUNK_SIZE_VERTICAL);
+		int maxY = MathHelper.clamp(MathHelper.ceil(chunk.getVisibleContentAABB().maxY() + 2), 0, Chunk.CHUNK_SIZE_VERTICAL);
+		buffer(chunk, minY, maxY);
+	}
+
+	/**
+	 * Buffers the light between the given heights. The visible content AABB of
+	 * the chunk isn't touched, so this can be used from a worker thread. The
+	 * light is stored raw: sunlight in the high nibble and block light in the
+	 * low nibble, so it stays valid when the sunlight of the world changes.
+	 */
+	public void buffer(Chunk chunk, int minY, int maxY)
 	{
 		_x = chunk.getAbsoluteX();
 		_z = chunk.getAbsoluteZ();
+		_world = chunk.getWorld();
 
 		ChunkData data = chunk.getChunkData();
-		byte rawlight, blockLight, sunlight;
-		float sun = chunk.getWorld().getSunlight();
 
-		int minY = MathHelper.clamp(MathHelper.floor(chunk.getVisibleContentAABB().minY() - 2), 0, Chunk.CHUNK_SIZE_VERTICAL);
-		int maxY = MathHelper.clamp(MathHelper.ceil(chunk.getVisibleContentAABB().maxY() + 2), 0, Chunk.CHUNK_SIZE_VERTICAL);
-
-		int i = 0;
 		for (int x = -1; x <= Chunk.CHUNK_SIZE_HORIZONTAL; ++x)
 		{
 			for (int z = -1; z <= Chunk.CHUNK_SIZE_HORIZONTAL; ++z)
@@ -37,14 +46,7 @@ public class LightBuffer
 				{
 					for (int y = minY; y <= maxY; ++y)
 					{
-						i = ChunkData.positionToIndex(x, y, z);
-						rawlight = data.getLight(i, LightType.RAW);
-						blockLight = (byte) (rawlight & 0xF);
-						sunlight = (byte) ((rawlight & 0xF0) >>> 4);
-
-						sunlight *= sun * 2.0f;
-
-						_buffer.set(x + 1, y, z + 1, (byte) Math.max(blockLight * 2, sunlight));
+						_buffer.set(x + 1, y, z + 1, data.getLight(ChunkData.positionToIndex(x, y, z), LightType.RAW));
 					}
 				} else
 				{
@@ -57,20 +59,25 @@ public class LightBuffer
 					
 					for (int y = minY; y <= maxY; ++y)
 					{
-						i = ChunkData.positionToIndex(xx, y, zz);
-						rawlight = neighborData.getLight(i, LightType.RAW);
-						blockLight = (byte) (rawlight & 0xF);
-						sunlight = (byte) ((rawlight & 0xF0) >>> 4);
-
-						sunlight *= sun * 2.0f;
-
-						_buffer.set(x + 1, y, z + 1, (byte) Math.max(blockLight * 2, sunlight));
+						_buffer.set(x + 1, y, z + 1, neighborData.getLight(ChunkData.positionToIndex(xx, y, zz), LightType.RAW));
 					}
 				}
 			}
 		}
 	}
 
+	/**
+	 * Copies the buffered light of another buffer, so only the parts that
+	 * changed have to be buffered again.
+	 */
+	public void copyFrom(LightBuffer other)
+	{
+		_x = other._x;
+		_z = other._z;
+		_world = other._world;
+		_buffer.copyFrom(other._buffer);
+	}
+
 	public void setReferencePoint(int x, int y, int z)
 	{
 		_refX = x - _x;
@@ -78,7 +85,30 @@ public class LightBuffer
 		_refZ = z - _z;
 	}
 
+	/**
+	 * Returns the light (0 - 30) with the current sunlight of the world
+	 * applied.
+	 */
 	public byte get(int x, int y, int z)
+	{
+		byte raw = getRaw(x, y, z);
+		byte blockLight = (byte) (raw & 0xF);
+		byte sunlight = (byte) ((raw & 0xF0) >>> 4);
+
+		if (_world != null)
+		{
+			sunlight *= _world.getSunlight() * 2.0f;
+		}
+
+		return (byte) Math.max(blockLight * 2, sunlight);
+	}
+
+	/**
+	 * Returns the raw light: sunlight in the high nibble and block light in
+	 * the low nibble. This is what the chunk meshes store, the sunlight of the
+	 * world is applied when rendering.
+	 */
+	public byte getRaw(int x, int y, int z)
 	{
 		return _buffer.get(x + _refX, y + _refY, z + _refZ);
 	}
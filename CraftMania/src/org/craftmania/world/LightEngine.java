@@ -0,0 +1,363 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.world;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.craftmania.blocks.BlockManager;
+import org.craftmania.blocks.BlockType;
+import org.craftmania.utilities.IntQueue;
+import org.craftmania.world.Chunk.LightType;
+
+/**
+ * Spreads and unspreads light with a breadth-first search, instead of
+ * recursing once per block.
+ * 
+ * The positions in the queues are stored relative to the origin of the
+ * propagation, together with the light value, in one int:
+ * 
+ * <pre>
+ *   |..........|........|..........|....|
+ *    x (10)     y (8)    z (10)     light
+ * </pre>
+ * 
+ * Sunlight and block light have their own queues. Light is removed first,
+ * after which the bright spots found while removing are spread again together
+ * with the light that was queued to spread.
+ * 
+ * Each thread has its own engine, which can be used to propagate one change
+ * at a time or a batch of them.
+ * 
+ * @author martijncourteaux
+ * 
+ */
+public class LightEngine
+{
+
+	private static final ThreadLocal<LightEngine> ENGINES = new ThreadLocal<LightEngine>()
+	{
+		@Override
+		protected LightEngine initialValue()
+		{
+			return new LightEngine();
+		}
+	};
+
+	private static final AtomicLong _totalNodes = new AtomicLong();
+	private static final AtomicLong _totalTime = new AtomicLong();
+
+	private static final int OFFSET = 512;
+	private static final int RANGE = 1024;
+
+	private static final LightType[] LIGHT_TYPES = { LightType.SUN, LightType.BLOCK };
+
+	private static final int[] DX = { 0, 0, -1, 1, 0, 0 };
+	private static final int[] DY = { 0, 0, 0, 0, 1, -1 };
+	private static final int[] DZ = { -1, 1, 0, 0, 0, 0 };
+
+	private IntQueue[] _spreadQueues;
+	private IntQueue[] _unspreadQueues;
+	private boolean[] _translucent;
+
+	private Chunk _origin;
+	private int _originX;
+	private int _originZ;
+	private Chunk _cachedChunk;
+
+	private LightEngine()
+	{
+		_spreadQueues = new IntQueue[] { new IntQueue(), new IntQueue() };
+		_unspreadQueues = new IntQueue[] { new IntQueue(), new IntQueue() };
+		_translucent = new boolean[256];
+		BlockManager blockManager = BlockManager.getInstance();
+		for (int i = 0; i < 128; ++i)
+		{
+			BlockType type = blockManager.getBlockType((byte) i);
+			_translucent[i] = i == 0 || (type != null && type.isTranslucent());
+		}
+	}
+
+	/**
+	 * Returns the engine of the current thread.
+	 */
+	public static LightEngine getInstance()
+	{
+		return ENGINES.get();
+	}
+
+	public static long getTotalNodeCount()
+	{
+		return _totalNodes.get();
+	}
+
+	/**
+	 * Returns the total time spent propagating light, in nanoseconds.
+	 */
+	public static long getTotalTime()
+	{
+		return _totalTime.get();
+	}
+
+	/**
+	 * Starts a batch of changes around the given chunk. Queued positions must
+	 * be within 512 blocks of it.
+	 */
+	public void begin(Chunk origin)
+	{
+		_origin = origin;
+		_originX = origin.getAbsoluteX();
+		_originZ = origin.getAbsoluteZ();
+		_cachedChunk = origin;
+		for (int i = 0; i < 2; ++i)
+		{
+			_spreadQueues[i].clear();
+			_unspreadQueues[i].clear();
+		}
+	}
+
+	public void spreadLight(Chunk origin, int x, int y, int z, byte light, LightType type)
+	{
+		begin(origin);
+		queueSpread(x, y, z, light, type);
+		propagate();
+	}
+
+	public void unspreadLight(Chunk origin, int x, int y, int z, byte light, LightType type)
+	{
+		begin(origin);
+		queueUnspread(x, y, z, light, type);
+		propagate();
+	}
+
+	/**
+	 * Sets the light at the given position, if it is brighter, and queues it
+	 * to be spread.
+	 */
+	public void queueSpread(int x, int y, int z, byte light, LightType type)
+	{
+		if (light <= 0 || !isValid(x, y, z))
+		{
+			return;
+		}
+		Chunk chunk = getChunk(x, z);
+		if (chunk == null || chunk.isLoading())
+		{
+			return;
+		}
+		int index = ChunkData.positionToIndex(x - chunk.getAbsoluteX(), y, z - chunk.getAbsoluteZ());
+		if (chunk.getChunkData().getLight(index, type) < light)
+		{
+			setLight(chunk, index, x, y, z, light, type);
+		}
+		_spreadQueues[type.ordinal()].add(encode(x, y, z, light));
+	}
+
+	/**
+	 * Removes the light at the given position, if it has the given value, and
+	 * queues the light it spread to be removed.
+	 */
+	public void queueUnspread(int x, int y, int z, byte light, LightType type)
+	{
+		if (light <= 0 || !isValid(x, y, z))
+		{
+			return;
+		}
+		Chunk chunk = getChunk(x, z);
+		if (chunk == null || chunk.isLoading())
+		{
+			return;
+		}
+		int index = ChunkData.positionToIndex(x - chunk.getAbsoluteX(), y, z - chunk.getAbsoluteZ());
+		if (chunk.getChunkData().getLight(index, type) == light)
+		{
+			setLight(chunk, index, x, y, z, (byte) 0, type);
+		}
+		_unspreadQueues[type.ordinal()].add(encode(x, y, z, light));
+	}
+
+	/**
+	 * Processes all the queued changes.
+	 */
+	public void propagate()
+	{
+		long start = System.nanoTime();
+		int nodes = 0;
+		for (LightType type : LIGHT_TYPES)
+		{
+			nodes += processUnspreadQueue(type);
+			nodes += processSpreadQueue(type);
+		}
+		_totalNodes.addAndGet(nodes);
+		_totalTime.addAndGet(System.nanoTime() - start);
+		_origin = null;
+		_cachedChunk = null;
+	}
+
+	private int processUnspreadQueue(LightType type)
+	{
+		IntQueue queue = _unspreadQueues[type.ordinal()];
+		IntQueue spreadQueue = _spreadQueues[type.ordinal()];
+		int nodes = 0;
+		while (!queue.isEmpty())
+		{
+			int node = queue.poll();
+			int x = decodeX(node), y = decodeY(node), z = decodeZ(node);
+			int light = decodeLight(node);
+			nodes++;
+
+			for (int i = 0; i < 6; ++i)
+			{
+				int nx = x + DX[i], ny = y + DY[i], nz = z + DZ[i];
+				if (!isValid(nx, ny, nz))
+				{
+					continue;
+				}
+				Chunk chunk = getChunk(nx, nz);
+				if (chunk == null || chunk.isLoading())
+				{
+					continue;
+				}
+				ChunkData data = chunk.getChunkData();
+				int index = ChunkData.positionToIndex(nx - chunk.getAbsoluteX(), ny, nz - chunk.getAbsoluteZ());
+				if (!_translucent[data.getBlockType(index) & 0xFF])
+				{
+					continue;
+				}
+				byte nLight = data.getLight(index, type);
+				if (nLight == 0)
+				{
+					continue;
+				}
+				if (nLight < light)
+				{
+					setLight(chunk, index, nx, ny, nz, (byte) 0, type);
+					queue.add(encode(nx, ny, nz, nLight));
+				} else
+				{
+					/* Bright spots will be respreaded afterwards */
+					spreadQueue.add(encode(nx, ny, nz, nLight));
+				}
+			}
+		}
+		return nodes;
+	}
+
+	private int processSpreadQueue(LightType type)
+	{
+		IntQueue queue = _spreadQueues[type.ordinal()];
+		int nodes = 0;
+		while (!queue.isEmpty())
+		{
+			int node = queue.poll();
+			int x = decodeX(node), y = decodeY(node), z = decodeZ(node);
+			nodes++;
+
+			Chunk chunk = getChunk(x, z);
+			if (chunk == null)
+			{
+				continue;
+			}
+			/* The light might be removed after this node was queued */
+			int light = Math.min(decodeLight(node), chunk.getChunkData().getLight(ChunkData.positionToIndex(x - chunk.getAbsoluteX(), y, z - chunk.getAbsoluteZ()), type));
+			if (light <= 1)
+			{
+				continue;
+			}
+			byte nextLight = (byte) (light - 1);
+
+			for (int i = 0; i < 6; ++i)
+			{
+				int nx = x + DX[i], ny = y + DY[i], nz = z + DZ[i];
+				if (!isValid(nx, ny, nz))
+				{
+					continue;
+				}
+				chunk = getChunk(nx, nz);
+				if (chunk == null || chunk.isLoading())
+				{
+					continue;
+				}
+				ChunkData data = chunk.getChunkData();
+				int index = ChunkData.positionToIndex(nx - chunk.getAbsoluteX(), ny, nz - chunk.getAbsoluteZ());
+				if (!_translucent[data.getBlockType(index) & 0xFF])
+				{
+					continue;
+				}
+				if (data.getLight(index, type) < nextLight)
+				{
+					setLight(chunk, index, nx, ny, nz, nextLight, type);
+					queue.add(encode(nx, ny, nz, nextLight));
+				}
+			}
+		}
+		return nodes;
+	}
+
+	private void setLight(Chunk chunk, int index, int x, int y, int z, byte light, LightType type)
+	{
+		chunk.getChunkData().setLight(index, light, type);
+		chunk.lightChanged(x - chunk.getAbsoluteX(), y, z - chunk.getAbsoluteZ());
+	}
+
+	private Chunk getChunk(int x, int z)
+	{
+		Chunk chunk = _cachedChunk;
+		if (chunk != null && (((x - chunk.getAbsoluteX()) | (z - chunk.getAbsoluteZ())) & ~(Chunk.CHUNK_SIZE_HORIZONTAL - 1)) == 0)
+		{
+			return chunk;
+		}
+		chunk = _origin.getChunkContaining(x, 0, z, false, false, false);
+		if (chunk != null)
+		{
+			_cachedChunk = chunk;
+		}
+		return chunk;
+	}
+
+	private boolean isValid(int x, int y, int z)
+	{
+		int dx = x - _originX + OFFSET;
+		int dz = z - _originZ + OFFSET;
+		return y >= 0 && y < Chunk.CHUNK_SIZE_VERTICAL && dx >= 0 && dx < RANGE && dz >= 0 && dz < RANGE;
+	}
+
+	/* Encoding of the positions */
+
+	private int encode(int x, int y, int z, int light)
+	{
+		return ((x - _originX + OFFSET) << 22) | (y << 14) | ((z - _originZ + OFFSET) << 4) | (light & 0xF);
+	}
+
+	private int decodeX(int node)
+	{
+		return (node >>> 22) + _originX - OFFSET;
+	}
+
+	private int decodeY(int node)
+	{
+		return (node >>> 14) & 0xFF;
+	}
+
+	private int decodeZ(int node)
+	{
+		return ((node >>> 4) & 0x3FF) + _originZ - OFFSET;
+	}
+
+	private int decodeLight(int node)
+	{
+		return node & 0xF;
+	}
+}
@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.world;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.craftmania.Side;
+import org.craftmania.blocks.BlockManager;
+import org.craftmania.blocks.BlockType;
+import org.craftmania.math.Vec3i;
+import org.craftmania.world.Chunk.LightType;
+
+/**
+ * Compares the {@link LightEngine} with the recursive light propagation it
+ * replaced. Both spread and then remove a set of overlapping block lights in
+ * a grid of chunks with caves, which doesn't need a world or a display. Run
+ * it with the main method.
+ * 
+ * @author martijncourteaux
+ */
+public class LightEngineBenchmark
+{
+
+	private static final int GRID_RADIUS = 2;
+	private static final int GROUND_HEIGHT = 64;
+	private static final int LIGHT_COUNT = 64;
+	private static final int WARMUP_ROUNDS = 20;
+	private static final int ROUNDS = 50;
+
+	private Chunk[] _chunks;
+	private Chunk _center;
+	private int[] _lights;
+	private boolean[] _translucent;
+
+	public LightEngineBenchmark(long seed)
+	{
+		int size = GRID_RADIUS * 2 + 1;
+		_chunks = new Chunk[size * size];
+		for (int x = 0; x < size; ++x)
+		{
+			for (int z = 0; z < size; ++z)
+			{
+				Chunk chunk = new Chunk(x - GRID_RADIUS, z - GRID_RADIUS);
+				_chunks[x * size + z] = chunk;
+				if (x > 0)
+				{
+					chunk.setNeighborBlockChunk(Side.LEFT, _chunks[(x - 1) * size + z]);
+				}
+				if (z > 0)
+				{
+					chunk.setNeighborBlockChunk(Side.BACK, _chunks[x * size + z - 1]);
+				}
+			}
+		}
+		_center = _chunks[GRID_RADIUS * size + GRID_RADIUS];
+
+		/* Solid ground, with a quarter of the blocks near the surface dug out */
+		Random random = new Random(seed);
+		for (int i = 0; i < _chunks.length; ++i)
+		{
+			ChunkData data = _chunks[i].getChunkData();
+			for (int index = 0; index < Chunk.BLOCK_COUNT; ++index)
+			{
+				int y = (index / Chunk.CHUNK_SIZE_HORIZONTAL) % Chunk.CHUNK_SIZE_VERTICAL;
+				if (y < GROUND_HEIGHT && (y < GROUND_HEIGHT - 24 || random.nextInt(4) != 0))
+				{
+					data.setDefaultBlock(index, (byte) 1, (byte) 0, (byte) 0);
+				}
+			}
+		}
+
+		/* The lights are put in air in the center chunk */
+		_lights = new int[LIGHT_COUNT * 3];
+		for (int i = 0; i < LIGHT_COUNT;)
+		{
+			int x = random.nextInt(Chunk.CHUNK_SIZE_HORIZONTAL);
+			int y = GROUND_HEIGHT - 16 + random.nextInt(24);
+			int z = random.nextInt(Chunk.CHUNK_SIZE_HORIZONTAL);
+			if (_center.getChunkData().getBlockType(ChunkData.positionToIndex(x, y, z)) == 0)
+			{
+				_lights[i * 3] = _center.getAbsoluteX() + x;
+				_lights[i * 3 + 1] = y;
+				_lights[i * 3 + 2] = _center.getAbsoluteZ() + z;
+				i++;
+			}
+		}
+
+		/* The same test as the light engine */
+		_translucent = new boolean[256];
+		BlockManager blockManager = BlockManager.getInstance();
+		for (int i = 0; i < 128; ++i)
+		{
+			BlockType type = blockManager.getBlockType((byte) i);
+			_translucent[i] = i == 0 || (type != null && type.isTranslucent());
+		}
+	}
+
+	private void clearLight()
+	{
+		for (int i = 0; i < _chunks.length; ++i)
+		{
+			for (int section = 0; section < ChunkData.SECTION_COUNT; ++section)
+			{
+				_chunks[i].getChunkData().fillLight(section, (byte) 0);
+			}
+		}
+	}
+
+	private long checksum()
+	{
+		long sum = 0;
+		for (int i = 0; i < _chunks.length; ++i)
+		{
+			ChunkData data = _chunks[i].getChunkData();
+			for (int index = 0; index < Chunk.BLOCK_COUNT; ++index)
+			{
+				sum = sum * 31 + data.getBlockLight(index);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Spreads and removes all the lights with the given engine. Returns the
+	 * nanoseconds spent spreading and removing, and the checksum of the light
+	 * after spreading.
+	 */
+	private long[] run(boolean recursive)
+	{
+		clearLight();
+		LightEngine engine = LightEngine.getInstance();
+		long start = System.nanoTime();
+		for (int i = 0; i < LIGHT_COUNT; ++i)
+		{
+			int x = _lights[i * 3], y = _lights[i * 3 + 1], z = _lights[i * 3 + 2];
+			if (recursive)
+			{
+				spreadLight(x, y, z, (byte) 15);
+			} else
+			{
+				engine.spreadLight(_center, x, y, z, (byte) 15, LightType.BLOCK);
+			}
+		}
+		long spreadTime = System.nanoTime() - start;
+		long spreadChecksum = checksum();
+
+		start = System.nanoTime();
+		for (int i = 0; i < LIGHT_COUNT; ++i)
+		{
+			int x = _lights[i * 3], y = _lights[i * 3 + 1], z = _lights[i * 3 + 2];
+			if (recursive)
+			{
+				unspreadLight(x, y, z, (byte) 15);
+			} else
+			{
+				engine.unspreadLight(_center, x, y, z, (byte) 15, LightType.BLOCK);
+			}
+		}
+		long unspreadTime = System.nanoTime() - start;
+		return new long[] { spreadTime, unspreadTime, spreadChecksum, checksum() };
+	}
+
+	/* The recursive propagation, as Chunk used to do it */
+
+	private boolean isTranslucent(int x, int y, int z)
+	{
+		byte type = _center.getBlockTypeAbsolute(x, y, z, false, false, false);
+		return type >= 0 && _translucent[type];
+	}
+
+	private void spreadLight(int x, int y, int z, byte light)
+	{
+		if (light == 0 || y < 0 || y >= Chunk.CHUNK_SIZE_VERTICAL)
+		{
+			return;
+		}
+		if (_center.getLightAbsolute(x, y, z, LightType.BLOCK) < light)
+		{
+			_center.setLightAbsolute(x, y, z, light, LightType.BLOCK);
+		}
+		for (int i = 0; i < 6; ++i)
+		{
+			Vec3i normal = Side.getSide(i).getNormal();
+			int nx = x + normal.x(), ny = y + normal.y(), nz = z + normal.z();
+			if (ny < 0 || ny >= Chunk.CHUNK_SIZE_VERTICAL || !isTranslucent(nx, ny, nz))
+			{
+				continue;
+			}
+			if (_center.getLightAbsolute(nx, ny, nz, LightType.BLOCK) < light - 1)
+			{
+				spreadLight(nx, ny, nz, (byte) (light - 1));
+			}
+		}
+	}
+
+	private void unspreadLight(int x, int y, int z, byte light)
+	{
+		List<Vec3i> brightSpots = new ArrayList<Vec3i>();
+		unspreadLight(x, y, z, light, brightSpots);
+		for (int i = 0; i < brightSpots.size(); ++i)
+		{
+			Vec3i v = brightSpots.get(i);
+			spreadLight(v.x(), v.y(), v.z(), _center.getLightAbsolute(v.x(), v.y(), v.z(), LightType.BLOCK));
+		}
+	}
+
+	private void unspreadLight(int x, int y, int z, byte light, List<Vec3i> brightSpots)
+	{
+		if (light == 0)
+		{
+			return;
+		}
+		if (_center.getLightAbsolute(x, y, z, LightType.BLOCK) == light)
+		{
+			_center.setLightAbsolute(x, y, z, (byte) 0, LightType.BLOCK);
+		}
+		for (int i = 0; i < 6; ++i)
+		{
+			Vec3i normal = Side.getSide(i).getNormal();
+			int nx = x + normal.x(), ny = y + normal.y(), nz = z + normal.z();
+			if (ny < 0 || ny >= Chunk.CHUNK_SIZE_VERTICAL || !isTranslucent(nx, ny, nz))
+			{
+				continue;
+			}
+			byte nLight = _center.getLightAbsolute(nx, ny, nz, LightType.BLOCK);
+			if (nLight == light - 1 && nLight > 0)
+			{
+				unspreadLight(nx, ny, nz, nLight, brightSpots);
+			} else if (nLight != 0)
+			{
+				/* Bright spots will be respreaded afterwards */
+				brightSpots.add(new Vec3i(nx, ny, nz));
+			}
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 1L;
+		LightEngineBenchmark benchmark = new LightEngineBenchmark(seed);
+
+		String[] names = { "BFS", "Recursive" };
+		long[][] totals = new long[2][2];
+		long[][] checksums = new long[2][];
+		for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; ++round)
+		{
+			for (int e = 0; e < 2; ++e)
+			{
+				long[] result = benchmark.run(e == 1);
+				checksums[e] = result;
+				if (round >= WARMUP_ROUNDS)
+				{
+					totals[e][0] += result[0];
+					totals[e][1] += result[1];
+				}
+			}
+		}
+
+		System.out.println(LIGHT_COUNT + " overlapping block lights, " + ROUNDS + " rounds after " + WARMUP_ROUNDS + " warmup rounds");
+		for (int e = 0; e < 2; ++e)
+		{
+			System.out.println(String.format("%-10s spread %8.3f ms, remove %8.3f ms", names[e], totals[e][0] / (ROUNDS * 1000000.0d), totals[e][1] / (ROUNDS * 1000000.0d)));
+		}
+		boolean same = checksums[0][2] == checksums[1][2] && checksums[0][3] == checksums[1][3];
+		System.out.println("Same light: " + (same ? "yes" : "no") + ", dark after removing: " + (checksums[0][3] == 0 && checksums[1][3] == 0 ? "yes" : "no"));
+	}
+}
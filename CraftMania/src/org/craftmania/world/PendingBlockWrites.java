@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.world;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.craftmania.game.Game;
+import org.craftmania.math.MathHelper;
+import org.craftmania.utilities.IntList;
+
+/**
+ * Blocks that generators put in chunks that weren't generated yet, kept per
+ * chunk until that chunk gets generated. A write is packed in an int: the
+ * index in the chunk data, the block type and the metadata. The writes are
+ * saved with the world.
+ * <p>
+ * Once a chunk is generated and lit, it is drained: new blocks for it aren't
+ * queued anymore, but have to be put directly, while holding the lock of that
+ * chunk. The chunk takes the blocks queued until then when it gets drained,
+ * so a block never ends up queued for a chunk that is done generating.
+ * 
+ * @author martijncourteaux
+ * 
+ */
+public class PendingBlockWrites
+{
+	private Map<Long, IntList> _writes;
+	private Set<Long> _drained;
+	private int _writeCount;
+	private boolean _loaded;
+
+	public PendingBlockWrites()
+	{
+		_writes = new HashMap<Long, IntList>();
+		_drained = new HashSet<Long>();
+	}
+
+	private static Long key(int chunkX, int chunkZ)
+	{
+		return Long.valueOf(((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL));
+	}
+
+	public static int pack(int index, byte type, byte metadata)
+	{
+		return (index << 16) | ((type & 0xFF) << 8) | (metadata & 0xFF);
+	}
+
+	public static int getIndex(int write)
+	{
+		return write >>> 16;
+	}
+
+	public static byte getType(int write)
+	{
+		return (byte) (write >>> 8);
+	}
+
+	public static byte getMetadata(int write)
+	{
+		return (byte) write;
+	}
+
+	/**
+	 * Remembers a block at the given absolute position. Returns false if the
+	 * chunk is drained, in which case nothing is remembered and the caller has
+	 * to put the block itself.
+	 */
+	public synchronized boolean add(int x, int y, int z, byte type, byte metadata)
+	{
+		ensureLoaded();
+		int chunkX = MathHelper.floorDivision(x, Chunk.CHUNK_SIZE_HORIZONTAL);
+		int chunkZ = MathHelper.floorDivision(z, Chunk.CHUNK_SIZE_HORIZONTAL);
+		Long key = key(chunkX, chunkZ);
+		if (_drained.contains(key))
+		{
+			return false;
+		}
+		IntList list = _writes.get(key);
+		if (list == null)
+		{
+			list = new IntList(64);
+			_writes.put(key, list);
+		}
+		int index = ChunkData.positionToIndex(x - chunkX * Chunk.CHUNK_SIZE_HORIZONTAL, y, z - chunkZ * Chunk.CHUNK_SIZE_HORIZONTAL);
+		list.add(pack(index, type, metadata));
+		_writeCount++;
+		return true;
+	}
+
+	/**
+	 * Removes and returns the writes for the given chunk, in the order they
+	 * were added, or null if there are none. New blocks for the chunk are
+	 * still queued.
+	 */
+	public synchronized IntList take(int chunkX, int chunkZ)
+	{
+		ensureLoaded();
+		IntList list = _writes.remove(key(chunkX, chunkZ));
+		if (list != null)
+		{
+			_writeCount -= list.size();
+		}
+		return list;
+	}
+
+	/**
+	 * Like {@link #take(int, int)}, but the chunk is drained from now on.
+	 */
+	public synchronized IntList drain(int chunkX, int chunkZ)
+	{
+		IntList list = take(chunkX, chunkZ);
+		_drained.add(key(chunkX, chunkZ));
+		return list;
+	}
+
+	/**
+	 * Queues the blocks for the given chunk again, called before the chunk
+	 * gets saved and unloaded.
+	 */
+	public synchronized void undrain(int chunkX, int chunkZ)
+	{
+		_drained.remove(key(chunkX, chunkZ));
+	}
+
+	public synchronized int getChunkCount()
+	{
+		return _writes.size();
+	}
+
+	public synchronized int getWriteCount()
+	{
+		return _writeCount;
+	}
+
+	private File getFile()
+	{
+		return Game.getInstance().getRelativeFile(Game.FILE_BASE_USER_DATA, "${world}/pending.dat");
+	}
+
+	/**
+	 * Reads the writes saved with the world, the first time they are needed.
+	 */
+	private void ensureLoaded()
+	{
+		if (_loaded)
+		{
+			return;
+		}
+		_loaded = true;
+		File file = getFile();
+		if (!file.exists())
+		{
+			return;
+		}
+		try
+		{
+			DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try
+			{
+				int chunkCount = dis.readInt();
+				for (int i = 0; i < chunkCount; ++i)
+				{
+					int chunkX = dis.readInt();
+					int chunkZ = dis.readInt();
+					int size = dis.readInt();
+					IntList list = new IntList(Math.max(16, size));
+					for (int j = 0; j < size; ++j)
+					{
+						list.add(dis.readInt());
+					}
+					_writes.put(key(chunkX, chunkZ), list);
+					_writeCount += size;
+				}
+			} finally
+			{
+				dis.close();
+			}
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	public synchronized void save() throws IOException
+	{
+		ensureLoaded();
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getFile())));
+		try
+		{
+			dos.writeInt(_writes.size());
+			for (Map.Entry<Long, IntList> entry : _writes.entrySet())
+			{
+				long key = entry.getKey().longValue();
+				IntList list = entry.getValue();
+				dos.writeInt((int) (key >> 32));
+				dos.writeInt((int) key);
+				dos.writeInt(list.size());
+				for (int i = 0; i < list.size(); ++i)
+				{
+					dos.writeInt(list.get(i));
+				}
+			}
+		} finally
+		{
+			dos.close();
+		}
+	}
+}
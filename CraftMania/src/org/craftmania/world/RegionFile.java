@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * Stores the data of {@code REGION_SIZE x REGION_SIZE} chunks in one file.
+ * 
+ * The file is divided in sectors of {@code SECTOR_SIZE} bytes. The first sector
+ * is the header, which holds one entry of 4 bytes per chunk:
+ * 
+ * <pre>
+ *   |........................|........|
+ *    sector offset             sectors
+ * </pre>
+ * 
+ * An entry of 0 means the chunk isn't stored in this region. The data of a
+ * chunk starts with its length in bytes (4 bytes), followed by the data
+ * itself.
+ * 
+ * @author martijncourteaux
+ * 
+ */
+public class RegionFile
+{
+	public static final int REGION_SIZE = 32;
+	public static final int SECTOR_SIZE = 4096;
+	public static final int CHUNK_HEADER_SIZE = 4;
+
+	private static final int MAX_SECTORS_PER_CHUNK = 0xFF;
+	private static final byte[] EMPTY_SECTOR = new byte[SECTOR_SIZE];
+
+	private File _file;
+	private RandomAccessFile _raf;
+	private int[] _offsets;
+	private BitSet _usedSectors;
+	private int _sectorCount;
+	private MappedByteBuffer _mapping;
+
+	public RegionFile(File file) throws IOException
+	{
+		_file = file;
+		_offsets = new int[REGION_SIZE * REGION_SIZE];
+		_usedSectors = new BitSet();
+
+		_raf = new RandomAccessFile(file, "rw");
+
+		if (_raf.length() < SECTOR_SIZE)
+		{
+			/* A new region file, write an empty header */
+			_raf.seek(0);
+			_raf.write(EMPTY_SECTOR);
+		}
+		if ((_raf.length() % SECTOR_SIZE) != 0)
+		{
+			/* Pad the file to a multiple of the sector size */
+			_raf.seek(_raf.length());
+			_raf.write(EMPTY_SECTOR, 0, (int) (SECTOR_SIZE - (_raf.length() % SECTOR_SIZE)));
+		}
+
+		_sectorCount = (int) (_raf.length() / SECTOR_SIZE);
+		_usedSectors.set(0);
+
+		_raf.seek(0);
+		for (int i = 0; i < _offsets.length; ++i)
+		{
+			int offset = _raf.readInt();
+			_offsets[i] = offset;
+			if (offset != 0)
+			{
+				int sector = offset >>> 8;
+				int count = offset & 0xFF;
+				if (sector + count <= _sectorCount)
+				{
+					_usedSectors.set(sector, sector + count);
+				} else
+				{
+					System.err.println("Corrupt header entry in " + file + " for chunk index " + i);
+					_offsets[i] = 0;
+				}
+			}
+		}
+	}
+
+	public static int toRegionCoordinate(int chunkCoordinate)
+	{
+		return chunkCoordinate >> 5;
+	}
+
+	private static int getHeaderIndex(int chunkX, int chunkZ)
+	{
+		return (chunkX & (REGION_SIZE - 1)) + (chunkZ & (REGION_SIZE - 1)) * REGION_SIZE;
+	}
+
+	public synchronized boolean hasChunk(int chunkX, int chunkZ)
+	{
+		return _offsets[getHeaderIndex(chunkX, chunkZ)] != 0;
+	}
+
+	/**
+	 * Reads the data of the given chunk into a heap buffer, or returns null if
+	 * the chunk isn't stored in this region.
+	 */
+	public synchronized ByteBuffer readChunkData(int chunkX, int chunkZ) throws IOException
+	{
+		int offset = _offsets[getHeaderIndex(chunkX, chunkZ)];
+		if (offset == 0)
+		{
+			return null;
+		}
+		int sector = offset >>> 8;
+		int count = offset & 0xFF;
+
+		_raf.seek((long) sector * SECTOR_SIZE);
+		int length = _raf.readInt();
+		if (length < 0 || length > count * SECTOR_SIZE - CHUNK_HEADER_SIZE)
+		{
+			System.err.println("Corrupt chunk length in " + _file + " for chunk (" + chunkX + ", " + chunkZ + "): " + length);
+			return null;
+		}
+		byte[] data = new byte[length];
+		_raf.readFully(data);
+		return ByteBuffer.wrap(data);
+	}
+
+	/**
+	 * Returns the data of the given chunk as a part of the mapped region, or
+	 * null if the chunk isn't stored in this region. The whole region is
+	 * mapped once, and mapped again when the file grew. The data stays valid
+	 * after the region is closed.
+	 */
+	public synchronized ByteBuffer mapChunkData(int chunkX, int chunkZ) throws IOException
+	{
+		int offset = _offsets[getHeaderIndex(chunkX, chunkZ)];
+		if (offset == 0)
+		{
+			return null;
+		}
+		int sector = offset >>> 8;
+		int count = offset & 0xFF;
+
+		int end = (sector + count) * SECTOR_SIZE;
+		if (_mapping == null || _mapping.capacity() < end)
+		{
+			_mapping = _raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, (long) _sectorCount * SECTOR_SIZE);
+		}
+		int start = sector * SECTOR_SIZE;
+		int length = _mapping.getInt(start);
+		if (length < 0 || length > count * SECTOR_SIZE - CHUNK_HEADER_SIZE)
+		{
+			System.err.println("Corrupt chunk length in " + _file + " for chunk (" + chunkX + ", " + chunkZ + "): " + length);
+			return null;
+		}
+		ByteBuffer data = _mapping.duplicate();
+		data.limit(start + CHUNK_HEADER_SIZE + length);
+		data.position(start + CHUNK_HEADER_SIZE);
+		return data.slice();
+	}
+
+	public synchronized void write(int chunkX, int chunkZ, byte[] data, int length) throws IOException
+	{
+		int index = getHeaderIndex(chunkX, chunkZ);
+		int offset = _offsets[index];
+		int oldSector = offset >>> 8;
+		int oldCount = offset & 0xFF;
+
+		int sectorsNeeded = (length + CHUNK_HEADER_SIZE + SECTOR_SIZE - 1) / SECTOR_SIZE;
+		if (sectorsNeeded > MAX_SECTORS_PER_CHUNK)
+		{
+			throw new IOException("Chunk (" + chunkX + ", " + chunkZ + ") is too big to store in a region: " + length + " bytes");
+		}
+
+		int sector;
+		if (offset != 0 && sectorsNeeded <= oldCount)
+		{
+			/* The data still fits in the old sectors */
+			sector = oldSector;
+			_usedSectors.clear(oldSector + sectorsNeeded, oldSector + oldCount);
+		} else
+		{
+			if (offset != 0)
+			{
+				_usedSectors.clear(oldSector, oldSector + oldCount);
+			}
+			sector = findFreeSectors(sectorsNeeded);
+			_usedSectors.set(sector, sector + sectorsNeeded);
+		}
+
+		_raf.seek((long) sector * SECTOR_SIZE);
+		_raf.writeInt(length);
+		_raf.write(data, 0, length);
+
+		/* Make sure the file is a multiple of the sector size */
+		int padding = sectorsNeeded * SECTOR_SIZE - length - CHUNK_HEADER_SIZE;
+		if (sector + sectorsNeeded > _sectorCount)
+		{
+			_raf.write(EMPTY_SECTOR, 0, padding);
+			_sectorCount = sector + sectorsNeeded;
+		}
+
+		setOffset(index, (sector << 8) | sectorsNeeded);
+	}
+
+	private int findFreeSectors(int count)
+	{
+		int run = 0;
+		for (int i = 1; i < _sectorCount; ++i)
+		{
+			if (_usedSectors.get(i))
+			{
+				run = 0;
+			} else if (++run == count)
+			{
+				return i - count + 1;
+			}
+		}
+		/* Append at the end of the file, reusing the free tail */
+		return _sectorCount - run;
+	}
+
+	private void setOffset(int index, int offset) throws IOException
+	{
+		_offsets[index] = offset;
+		_raf.seek(index * 4);
+		_raf.writeInt(offset);
+	}
+
+	public synchronized void close() throws IOException
+	{
+		_mapping = null;
+		_raf.close();
+	}
+
+	public File getFile()
+	{
+		return _file;
+	}
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the most recently used region files open, so loading and saving a
+ * chunk doesn't have to open and close a file each time.
+ * 
+ * @author martijncourteaux
+ * 
+ */
+public class RegionFileCache
+{
+	public static final int MAX_OPEN_REGIONS = 32;
+
+	private File _directory;
+	private LinkedHashMap<Long, RegionFile> _regions;
+
+	public RegionFileCache(File directory)
+	{
+		_directory = directory;
+		_regions = new LinkedHashMap<Long, RegionFile>(MAX_OPEN_REGIONS, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, RegionFile> eldest)
+			{
+				if (size() > MAX_OPEN_REGIONS)
+				{
+					closeRegion(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public static File getRegionFile(File directory, int regionX, int regionZ)
+	{
+		return new File(directory, "r." + regionX + "." + regionZ + ".cmr");
+	}
+
+	/**
+	 * Returns the stored data of the given chunk, or null if the chunk was
+	 * never saved.
+	 */
+	public synchronized ByteBuffer readChunk(int chunkX, int chunkZ) throws IOException
+	{
+		RegionFile region = getRegionForChunk(chunkX, chunkZ, false);
+		if (region == null)
+		{
+			return null;
+		}
+		return region.readChunkData(chunkX, chunkZ);
+	}
+
+	/**
+	 * Returns the stored data of the given chunk mapped into memory, or null
+	 * if the chunk was never saved.
+	 */
+	public synchronized ByteBuffer mapChunk(int chunkX, int chunkZ) throws IOException
+	{
+		RegionFile region = getRegionForChunk(chunkX, chunkZ, false);
+		if (region == null)
+		{
+			return null;
+		}
+		return region.mapChunkData(chunkX, chunkZ);
+	}
+
+	public synchronized void writeChunk(int chunkX, int chunkZ, byte[] data, int length) throws IOException
+	{
+		getRegionForChunk(chunkX, chunkZ, true).write(chunkX, chunkZ, data, length);
+	}
+
+	/*
+	 * Regions can get closed by this cache at any time, so they may only be
+	 * used while holding the lock of this cache.
+	 */
+	private RegionFile getRegionForChunk(int chunkX, int chunkZ, boolean createIfNecessary) throws IOException
+	{
+		int regionX = RegionFile.toRegionCoordinate(chunkX);
+		int regionZ = RegionFile.toRegionCoordinate(chunkZ);
+		Long key = Long.valueOf(((long) regionX << 32) | (regionZ & 0xFFFFFFFFL));
+
+		RegionFile region = _regions.get(key);
+		if (region == null)
+		{
+			File file = getRegionFile(_directory, regionX, regionZ);
+			if (!file.exists())
+			{
+				if (!createIfNecessary)
+				{
+					return null;
+				}
+				_directory.mkdirs();
+			}
+			region = new RegionFile(file);
+			_regions.put(key, region);
+		}
+		return region;
+	}
+
+	public synchronized void closeAll()
+	{
+		List<RegionFile> regions = new ArrayList<RegionFile>(_regions.values());
+		_regions.clear();
+		for (Iterator<RegionFile> it = regions.iterator(); it.hasNext();)
+		{
+			closeRegion(it.next());
+		}
+	}
+
+	private void closeRegion(RegionFile region)
+	{
+		try
+		{
+			region.close();
+		} catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	public File getDirectory()
+	{
+		return _directory;
+	}
+}
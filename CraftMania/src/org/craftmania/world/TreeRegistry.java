@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright 2012 Martijn Courteaux <martijn.courteaux@skynet.be>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.craftmania.world;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.craftmania.math.MathHelper;
+import org.craftmania.world.WorldProvider.TreeDefinition;
+
+/**
+ * The roots of all generated trees, bucketed per chunk, so looking for trees
+ * around a point only checks the buckets within the radius.
+ * 
+ * @author martijncourteaux
+ * 
+ */
+public class TreeRegistry
+{
+	private static final int BUCKET_SIZE = Chunk.CHUNK_SIZE_HORIZONTAL;
+
+	private Map<Long, List<TreeDefinition>> _buckets;
+	private int _treeCount;
+
+	public TreeRegistry()
+	{
+		_buckets = new HashMap<Long, List<TreeDefinition>>();
+	}
+
+	private static Long key(int bucketX, int bucketZ)
+	{
+		return Long.valueOf(((long) bucketX << 32) | (bucketZ & 0xFFFFFFFFL));
+	}
+
+	public synchronized void add(TreeDefinition tree)
+	{
+		Long key = key(MathHelper.floorDivision(tree.x, BUCKET_SIZE), MathHelper.floorDivision(tree.z, BUCKET_SIZE));
+		List<TreeDefinition> bucket = _buckets.get(key);
+		if (bucket == null)
+		{
+			bucket = new ArrayList<TreeDefinition>(4);
+			_buckets.put(key, bucket);
+		}
+		bucket.add(tree);
+		_treeCount++;
+	}
+
+	/**
+	 * Returns true if there is a tree closer than the given squared distance
+	 * to the column.
+	 */
+	public synchronized boolean hasTreeWithin(int x, int z, float distanceSq)
+	{
+		int radius = MathHelper.ceil((float) Math.sqrt(distanceSq));
+		int minX = MathHelper.floorDivision(x - radius, BUCKET_SIZE);
+		int maxX = MathHelper.floorDivision(x + radius, BUCKET_SIZE);
+		int minZ = MathHelper.floorDivision(z - radius, BUCKET_SIZE);
+		int maxZ = MathHelper.floorDivision(z + radius, BUCKET_SIZE);
+		for (int bucketX = minX; bucketX <= maxX; ++bucketX)
+		{
+			for (int bucketZ = minZ; bucketZ <= maxZ; ++bucketZ)
+			{
+				List<TreeDefinition> bucket = _buckets.get(key(bucketX, bucketZ));
+				if (bucket == null)
+				{
+					continue;
+				}
+				for (int i = 0; i < bucket.size(); ++i)
+				{
+					TreeDefinition tree = bucket.get(i);
+					float xDiff = x - tree.x;
+					float zDiff = z - tree.z;
+					if (xDiff * xDiff + zDiff * zDiff < distanceSq)
+					{
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds the tree unless there is already a tree closer than the given
+	 * squared distance to it. Returns true if the tree was added.
+	 */
+	public synchronized boolean addIfNoTreeWithin(TreeDefinition tree, float distanceSq)
+	{
+		if (hasTreeWithin(tree.x, tree.z, distanceSq))
+		{
+			return false;
+		}
+		add(tree);
+		return true;
+	}
+
+	public synchronized int size()
+	{
+		return _treeCount;
+	}
+
+	/**
+	 * Writes the trees per bucket: the bucket position and the number of
+	 * trees, followed by three bytes per tree: the position in the bucket,
+	 * the height and the type.
+	 */
+	public synchronized void write(DataOutputStream dos) throws IOException
+	{
+		dos.writeInt(_buckets.size());
+		for (Map.Entry<Long, List<TreeDefinition>> entry : _buckets.entrySet())
+		{
+			long key = entry.getKey().longValue();
+			int bucketX = (int) (key >> 32);
+			int bucketZ = (int) key;
+			List<TreeDefinition> bucket = entry.getValue();
+			dos.writeInt(bucketX);
+			dos.writeInt(bucketZ);
+			dos.writeShort(bucket.size());
+			for (int i = 0; i < bucket.size(); ++i)
+			{
+				TreeDefinition tree = bucket.get(i);
+				dos.writeByte(((tree.x - bucketX * BUCKET_SIZE) << 4) | (tree.z - bucketZ * BUCKET_SIZE));
+				dos.writeByte(tree.y);
+				dos.writeByte(tree.type);
+			}
+		}
+	}
+
+	public synchronized void read(DataInputStream dis) throws IOException
+	{
+		int bucketCount = dis.readInt();
+		for (int b = 0; b < bucketCount; ++b)
+		{
+			int bucketX = dis.readInt();
+			int bucketZ = dis.readInt();
+			int size = dis.readUnsignedShort();
+			for (int i = 0; i < size; ++i)
+			{
+				int position = dis.readUnsignedByte();
+				int y = dis.readUnsignedByte();
+				int type = dis.readByte();
+				add(new TreeDefinition(bucketX * BUCKET_SIZE + (position >>> 4), y, bucketZ * BUCKET_SIZE + (position & 0xF), type));
+			}
+		}
+	}
+}
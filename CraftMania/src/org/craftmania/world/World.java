@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import org.craftmania.Side;
 import org.craftmania.blocks.Block;
 import org.craftmania.blocks.customblocks.Redstone;
 import org.craftmania.datastructures.AABB;
@@ -40,12 +41,16 @@ import org.craftmania.inventory.Inventory.InventoryPlace;
 import org.craftmania.math.MathHelper;
 import org.craftmania.math.Vec3f;
 import org.craftmania.math.Vec3i;
+import org.craftmania.rendering.BufferManager;
+import org.craftmania.rendering.ChunkMeshBuilder;
 import org.craftmania.rendering.ChunkMeshBuilder.MeshType;
+import org.craftmania.rendering.ChunkMeshRenderer;
 import org.craftmania.rendering.GLFont;
 import org.craftmania.rendering.GLUtils;
 import org.craftmania.utilities.FastArrayList;
 import org.craftmania.utilities.IntList;
 import org.craftmania.world.characters.Player;
+import org.craftmania.world.generators.ChunkGenerator;
 import org.lwjgl.input.Keyboard;
 import org.lwjgl.input.Mouse;
 import org.lwjgl.opengl.GL11;
@@ -81,6 +86,11 @@ public class World
 
 	private AABB _chunkVisibilityTestingAABB;
 	private ChunkDistanceComparator _chunkDistanceComparator;
+	private List<Chunk> _occlusionQueue;
+	private IntList _occlusionSections;
+	private AABB _occlusionSectionAABB;
+	private int _occlusionFrame;
+	private int _occludedChunks;
 
 	private boolean _checkForNewChunks;
 
@@ -98,6 +108,9 @@ public class World
 		_redstoneRefeedPoints = new ArrayList<Vec3i>();
 		_chunkVisibilityTestingAABB = new AABB(new Vec3f(), new Vec3f());
 		_chunkDistanceComparator = new ChunkDistanceComparator();
+		_occlusionQueue = new ArrayList<Chunk>();
+		_occlusionSections = new IntList();
+		_occlusionSectionAABB = new AABB(new Vec3f(), new Vec3f(Chunk.CHUNK_SIZE_HORIZONTAL * 0.5f, Chunk.SECTION_HEIGHT * 0.5f, Chunk.CHUNK_SIZE_HORIZONTAL * 0.5f));
 		_fogColor = new Vec3f();
 		_time = SECONDS_IN_DAY * 0.3f;
 		
@@ -151,6 +164,8 @@ public class World
 			_chunkManager.saveAndUnloadChunk(chunk, false);
 		}
 		_localChunks.clear();
+		_chunkManager.getBlockChunkLoader().close();
+		_chunkManager.getPendingBlockWrites().save();
 		
 		/* Save the seed */
 		{
@@ -186,23 +201,27 @@ public class World
 		GL11.glFogf(GL11.GL_FOG_END, configuration.getViewingDistance());
 
 		/* Select the visible blocks */
-		selectVisibleChunks(_player.getFirstPersonCamera().getViewFrustum());
+		ViewFrustum frustum = _player.getFirstPersonCamera().getViewFrustum();
+		selectVisibleChunks(frustum);
 
-		/* Bind the terrain texture */
-		GL11.glEnable(GL11.GL_TEXTURE_2D);
-		TextureStorage.getTexture("terrain").bind();
+		/* Upload the meshes built by the worker threads */
+		BufferManager.getInstance().uploadQueuedMeshes(_player.getPosition().x(), _player.getPosition().z(), (long) (configuration.getMeshUploadBudget() * 1000000.0f));
 
 		PerformanceMonitor.getInstance().start(Operation.RENDER_OPAQUE);
+		ChunkMeshRenderer.beginPass(MeshType.OPAQUE, _sunlight);
 		for (int i = 0; i < _visibleChunks.size(); ++i)
 		{
-			_visibleChunks.get(i).render(MeshType.OPAQUE);
+			_visibleChunks.get(i).render(MeshType.OPAQUE, frustum);
 		}
+		ChunkMeshRenderer.endPass();
 		PerformanceMonitor.getInstance().stop(Operation.RENDER_OPAQUE);
 		PerformanceMonitor.getInstance().start(Operation.RENDER_TRANSLUCENT);
+		ChunkMeshRenderer.beginPass(MeshType.TRANSLUCENT, _sunlight);
 		for (int i = 0; i < _visibleChunks.size(); ++i)
 		{
-			_visibleChunks.get(i).render(MeshType.TRANSLUCENT);
+			_visibleChunks.get(i).render(MeshType.TRANSLUCENT, frustum);
 		}
+		ChunkMeshRenderer.endPass();
 		PerformanceMonitor.getInstance().stop(Operation.RENDER_TRANSLUCENT);
 		PerformanceMonitor.getInstance().start(Operation.RENDER_MANUAL);
 		for (int i = 0; i < _visibleChunks.size(); ++i)
@@ -236,13 +255,26 @@ public class World
 			/* Down Left Info */
 			infoFont.print(4, 4, "CraftMania");
 			infoFont.print(4, 30, _player.coordinatesToString());
-			infoFont.print(4, 45, "Visible Chunks:      " + _visibleChunks.size());
+			infoFont.print(4, 45, "Visible Chunks:      " + _visibleChunks.size() + " (" + _occludedChunks + " occluded)");
 			infoFont.print(4, 60, "Updading Blocks:     " + _updatingBlocks);
 			infoFont.print(4, 75, "Total Chunks in RAM: " + _chunkManager.getTotalChunkCount());
 			infoFont.print(4, 90, "Local Chunks:        " + _localChunks.size());
 			infoFont.print(4, 105, "Total Local Blocks:  " + _localBlockCount);
 			infoFont.print(4, 120, "Time:  " + _time);
 			infoFont.print(4, 135, "Sunlight:  " + _sunlight);
+			infoFont.print(4, 150, "Chunk Data in RAM:   " + (_chunkManager.getTotalChunkDataSize() >> 10) + " KB");
+			infoFont.print(4, 165, "Light Nodes:         " + LightEngine.getTotalNodeCount() + " (" + (LightEngine.getTotalTime() / 1000000L) + " ms)");
+			infoFont.print(4, 180, "Queued Mesh Uploads: " + BufferManager.getInstance().getQueuedUploads());
+			infoFont.print(4, 195, "Mesh Vertices:       " + ChunkMeshBuilder.getBuiltVertexCount() + " / " + ChunkMeshBuilder.getNaiveVertexCount() + (ChunkMeshBuilder.isGreedyMeshing() ? " (greedy)" : ""));
+			infoFont.print(4, 210, "Mesh Build Time:     " + String.format("%.3f ms", ChunkMeshBuilder.getAverageBuildTime() / 1000000.0d));
+			infoFont.print(4, 225, "Queued Chunk Loads:  " + _chunkManager.getQueuedChunkLoadCount() + " (" + _chunkManager.getCancelledChunkLoadCount() + " cancelled)");
+			infoFont.print(4, 240, "Chunk Map Locks:     " + _chunkManager.getChunkMap().getContendedLockCount() + " / " + _chunkManager.getChunkMap().getLockCount() + " contended");
+			long[] stageTimes = ChunkGenerator.getAverageStageTimes();
+			infoFont.print(4, 255, "Chunk Generation:    " + String.format("%.1f chunks/s (%.2f + %.2f + %.2f ms)", ChunkGenerator.getChunksPerSecond(), stageTimes[0] / 1000000.0d, stageTimes[1] / 1000000.0d, stageTimes[2] / 1000000.0d));
+			long climateHits = _worldProvider.getClimateCacheHits();
+			long climateLookups = Math.max(1, climateHits + _worldProvider.getClimateCacheMisses());
+			infoFont.print(4, 270, "Climate Cache:       " + climateHits + " / " + climateLookups + " hits (" + (climateHits * 100 / climateLookups) + "%)");
+			infoFont.print(4, 285, "Pending Writes:      " + _chunkManager.getPendingBlockWrites().getWriteCount() + " in " + _chunkManager.getPendingBlockWrites().getChunkCount() + " chunks");
 
 		}
 		/** RENDER **/
@@ -383,9 +415,9 @@ public class World
 		_sunlight = -MathHelper.cos(todNew * MathHelper.f_2PI) * 0.5f + 0.5f;
 		_sunlight = Math.max(0.15f, _sunlight);
 
-		if (oldSunlight != MathHelper.floor(_sunlight * 29.99f))
+		if (oldSunlight != MathHelper.floor(_sunlight * 29.99f) && !ChunkMeshBuilder.isSunlightSeparated())
 		{
-			/* Update chunk lights */
+			/* Update chunk lights, they are baked in the meshes */
 
 			for (Chunk c : _localChunks)
 			{
@@ -484,7 +516,7 @@ public class World
 						if (distSq <= 1 || frustum.intersects(_chunkVisibilityTestingAABB))
 						{
 							Chunk chunk = _chunkManager.getChunk(centerX + x, centerZ + z, false, false, false);
-							if (chunk == null || (!chunk.isGenerated() && !chunk.isLoading()))
+							if (chunk == null || (!chunk.isGenerated() && !chunk.isLoading() && !chunk.isDestroying()))
 							{
 								generate = true;
 								xToGenerate = x;
@@ -560,6 +592,10 @@ public class World
 				{
 					/* Unload it if it is free */
 					_chunkManager.saveAndUnloadChunk(chunkI, true);
+				} else if (chunkI.isLoading() && _chunkManager.cancelChunkLoading(chunkI))
+				{
+					/* It was still waiting to be loaded, so it is dropped */
+					continue;
 				} else
 				{
 					/*
@@ -583,6 +619,10 @@ public class World
 	private void selectVisibleChunks(ViewFrustum frustum)
 	{
 		_visibleChunks.clear(true);
+		_occlusionFrame++;
+
+		/* Mark the chunks that the occlusion pass is allowed to walk through */
+		int chunksInFrustum = 0;
 		Chunk chunk = null;
 		for (int chunkIndex = 0; chunkIndex < _localChunks.size(); ++chunkIndex)
 		{
@@ -592,16 +632,122 @@ public class World
 				continue;
 			}
 
-			if (frustum.intersects(chunk.getVisibleContentAABB()))
+			if (frustum.intersects(chunk.getAABB()))
 			{
-				_visibleChunks.add(chunk);
+				chunk.markForOcclusion(_occlusionFrame);
+				if (frustum.intersects(chunk.getVisibleContentAABB()))
+				{
+					chunksInFrustum++;
+				}
 			}
 		}
 
+		Vec3f eye = _player.getFirstPersonCamera().getPosition();
+		Chunk eyeChunk = _chunkManager.getChunkContaining(MathHelper.floor(eye.x()), 0, MathHelper.floor(eye.z()), false, false, false);
+		if (!Game.getInstance().getConfiguration().getOcclusionCulling() || eyeChunk == null || eyeChunk.getOcclusionFrame() != _occlusionFrame)
+		{
+			for (int chunkIndex = 0; chunkIndex < _localChunks.size(); ++chunkIndex)
+			{
+				chunk = _localChunks.get(chunkIndex);
+				if (chunk.getOcclusionFrame() == _occlusionFrame && frustum.intersects(chunk.getVisibleContentAABB()))
+				{
+					chunk.setVisibleSections(Chunk.ALL_SECTIONS);
+					_visibleChunks.add(chunk);
+				}
+			}
+		} else
+		{
+			int eyeSection = MathHelper.clamp(MathHelper.floor(eye.y()) / Chunk.SECTION_HEIGHT, 0, Chunk.SECTION_COUNT - 1);
+			walkVisibleChunks(frustum, eyeChunk, eyeSection);
+		}
+		_occludedChunks = chunksInFrustum - _visibleChunks.size();
+
 		_chunkDistanceComparator.setCenter(_player.getPosition().x(), _player.getPosition().y());
 		Collections.sort(_visibleChunks, _chunkDistanceComparator);
 	}
 
+	/**
+	 * Walks breadth first from the section of the camera to the sections of
+	 * the marked chunks that can be seen through the sections in between. A
+	 * section is left only through a side that is connected to the side it
+	 * was entered by, and never back towards the camera. The chunks of which
+	 * a section is reached are the visible chunks.
+	 */
+	private void walkVisibleChunks(ViewFrustum frustum, Chunk eyeChunk, int eyeSection)
+	{
+		Side[] sides = Side.getSides();
+		_occlusionQueue.clear();
+		_occlusionSections.clear();
+		_occlusionQueue.add(eyeChunk);
+		_occlusionSections.add(eyeSection);
+		eyeChunk.reachSection(eyeSection, -1, 0);
+		if (frustum.intersects(eyeChunk.getVisibleContentAABB()))
+		{
+			_visibleChunks.add(eyeChunk);
+		}
+
+		for (int i = 0; i < _occlusionQueue.size(); ++i)
+		{
+			Chunk chunk = _occlusionQueue.get(i);
+			int section = _occlusionSections.get(i);
+			int entrySide = chunk.getOcclusionEntrySide(section);
+			int directions = chunk.getOcclusionDirections(section);
+			long connectivity = chunk.getConnectivity(section);
+			for (int s = 0; s < sides.length; ++s)
+			{
+				Side side = sides[s];
+				Side opposite = Side.getOppositeSide(side);
+				if ((directions & (1 << opposite.ordinal())) != 0)
+				{
+					continue;
+				}
+				if (entrySide != -1 && !ChunkConnectivity.isConnected(connectivity, sides[entrySide], side))
+				{
+					continue;
+				}
+
+				Chunk neighbor = chunk;
+				int neighborSection = section;
+				if (side == Side.TOP)
+				{
+					neighborSection++;
+				} else if (side == Side.BOTTOM)
+				{
+					neighborSection--;
+				} else
+				{
+					neighbor = chunk.getNeighborChunk(side);
+				}
+				if (neighbor == null || neighborSection < 0 || neighborSection >= Chunk.SECTION_COUNT || neighbor.getOcclusionFrame() != _occlusionFrame)
+				{
+					continue;
+				}
+				int visibleSections = neighbor.getVisibleSections();
+				if ((visibleSections & (1 << neighborSection)) != 0 || !frustum.intersects(getOcclusionSectionAABB(neighbor, neighborSection)))
+				{
+					continue;
+				}
+				if (visibleSections == 0 && frustum.intersects(neighbor.getVisibleContentAABB()))
+				{
+					_visibleChunks.add(neighbor);
+				}
+				neighbor.reachSection(neighborSection, opposite.ordinal(), directions | (1 << side.ordinal()));
+				_occlusionQueue.add(neighbor);
+				_occlusionSections.add(neighborSection);
+			}
+		}
+		_occlusionQueue.clear();
+		_occlusionSections.clear();
+	}
+
+	private AABB getOcclusionSectionAABB(Chunk chunk, int section)
+	{
+		float halfSize = Chunk.CHUNK_SIZE_HORIZONTAL * 0.5f;
+		_occlusionSectionAABB.getPosition().set(chunk.getAbsoluteX() + halfSize, (section + 0.5f) * Chunk.SECTION_HEIGHT, chunk.getAbsoluteZ() + halfSize);
+		_occlusionSectionAABB.recalcVertices();
+		return _occlusionSectionAABB;
+	}
+
 	public Player getActivePlayer()
 	{
 		return _player;
@@ -652,7 +798,7 @@ public class World
 		_sunlight = -MathHelper.cos(todNew * MathHelper.f_2PI) * 0.5f + 0.5f;
 		_sunlight = Math.max(0.15f, _sunlight);
 
-		if (oldSunlight != MathHelper.round(_sunlight))
+		if (oldSunlight != MathHelper.round(_sunlight) && !ChunkMeshBuilder.isSunlightSeparated())
 		{
 			/* Update chunk lights */
 			for (Chunk c : _localChunks)
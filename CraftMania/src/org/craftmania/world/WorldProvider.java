@@ -15,15 +15,101 @@
  ******************************************************************************/
 package org.craftmania.world;
 
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.craftmania.math.MathHelper;
 import org.craftmania.math.Vec3f;
 
 
 public abstract class WorldProvider
 {
+	private static final int CLIMATE_CACHE_SIZE = 1024;
+
+	private Map<Long, ClimateTile> _climateTiles;
+	private AtomicLong _climateHits = new AtomicLong();
+	private AtomicLong _climateMisses = new AtomicLong();
+
+	@SuppressWarnings("serial")
+	public WorldProvider()
+	{
+		_climateTiles = new LinkedHashMap<Long, ClimateTile>(CLIMATE_CACHE_SIZE, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, ClimateTile> eldest)
+			{
+				return size() > CLIMATE_CACHE_SIZE;
+			}
+		};
+	}
+
+	/**
+	 * Returns the climate of the chunk at the given chunk coordinates. The
+	 * last used tiles are cached.
+	 */
+	public ClimateTile getClimateTile(int chunkX, int chunkZ)
+	{
+		Long key = Long.valueOf(((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL));
+		ClimateTile tile;
+		synchronized (_climateTiles)
+		{
+			tile = _climateTiles.get(key);
+		}
+		if (tile != null)
+		{
+			_climateHits.incrementAndGet();
+			return tile;
+		}
+		_climateMisses.incrementAndGet();
+
+		/* Don't keep the cache locked while computing */
+		tile = new ClimateTile(chunkX, chunkZ);
+		tile.compute(this);
+		synchronized (_climateTiles)
+		{
+			_climateTiles.put(key, tile);
+		}
+		return tile;
+	}
+
+	/**
+	 * Returns the climate tile of the chunk containing the given absolute
+	 * block coordinates.
+	 */
+	public ClimateTile getClimateTileContaining(int x, int z)
+	{
+		return getClimateTile(MathHelper.floorDivision(x, Chunk.CHUNK_SIZE_HORIZONTAL), MathHelper.floorDivision(z, Chunk.CHUNK_SIZE_HORIZONTAL));
+	}
+
+	public long getClimateCacheHits()
+	{
+		return _climateHits.get();
+	}
+
+	public long getClimateCacheMisses()
+	{
+		return _climateMisses.get();
+	}
+
 	/* 2D Map */
 	public abstract int getHeightAt(int x, int z);
+
+	/**
+	 * Fills the output with the heights of a grid of columns. Column (x + i, z
+	 * + j) is stored at index i * depth + j.
+	 */
+	public void getHeights(int x, int z, int width, int depth, int[] output)
+	{
+		for (int i = 0; i < width; ++i)
+		{
+			for (int j = 0; j < depth; ++j)
+			{
+				output[i * depth + j] = getHeightAt(x + i, z + j);
+			}
+		}
+	}
+
 	public abstract int getTemperatureAt(int x, int z);
 	public abstract int getHumidityAt(int x, int z);
 	
@@ -36,10 +122,11 @@ public abstract class WorldProvider
 	/* Calculate methods */
 	public abstract Biome calculateBiome(int temperature, int humidity);
 	public abstract int calculateTemperature(int temperature, int y);
+	public abstract int calculateHumidity(int humidity, int temperature);
 	
 	
 	public abstract Vec3f getSpawnPoint();
-	public abstract List<TreeDefinition> getTrees();
+	public abstract TreeRegistry getTreeRegistry();
 	
 	public abstract void save() throws Exception;
 	public abstract void load() throws Exception;
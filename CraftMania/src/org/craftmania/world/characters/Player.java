@@ -21,7 +21,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.List;
 
 import org.craftmania.GameObject;
 import org.craftmania.blocks.Block;
@@ -38,11 +37,11 @@ import org.craftmania.inventory.InventoryItem;
 import org.craftmania.inventory.SharedInventoryContent;
 import org.craftmania.items.ItemManager;
 import org.craftmania.math.MathHelper;
-import org.craftmania.math.RayBlockIntersection;
 import org.craftmania.math.Vec3f;
 import org.craftmania.math.Vec3i;
 import org.craftmania.rendering.Camera;
 import org.craftmania.utilities.IOUtilities;
+import org.craftmania.world.BlockRayCast;
 import org.craftmania.world.Chunk;
 import org.craftmania.world.Chunk.LightType;
 import org.craftmania.world.ChunkManager;
@@ -85,13 +84,12 @@ public class Player extends GameObject
 	private CharacterBody _body;
 	/* Editing */
 	private float _rayCastLength;
-	private AABB _intersectionTestingAABB;
+	private BlockRayCast _rayCast;
 	private AABB _aimedBlockAABB;
 	private byte _aimedBlockType;
 	private Vec3i _aimedBlockPosition;
 	private Vec3i _aimedAdjacentBlockPosition;
 	private float _aimedBlockHealth;
-	private AABB _rayAABB;
 	private ChunkManager _chunkManager;
 	private InventoryItem _selectedItem;
 	private int _selectedInventoryItemIndex = 0;
@@ -120,10 +118,9 @@ public class Player extends GameObject
 		_inventory.setSharedContent(_sharedInventoryContent);
 
 		_rayCastLength = Game.getInstance().getConfiguration().getMaximumPlayerEditingDistance();
-		_rayAABB = new AABB(new Vec3f(), new Vec3f());
+		_rayCast = new BlockRayCast();
 		_aimedBlockPosition = new Vec3i(0, -1, 0);
 		_aimedBlockAABB = new AABB(new Vec3f(), new Vec3f());
-		_intersectionTestingAABB = new AABB(new Vec3f(), new Vec3f());
 
 		setSelectedInventoryItemIndex(0);
 	}
@@ -475,112 +472,46 @@ public class Player extends GameObject
 
 	private void rayCastBlock()
 	{
-		float rayLenSquared = _rayCastLength * _rayCastLength;
-
 		Vec3f rayDirection = _camera.getLookDirection();
 		Vec3f rayOrigin = _camera.getPosition();
 
 		rayDirection.normalise();
 
-		/* Construct the AABB for the ray cast */
-		_rayAABB.getPosition().set(rayOrigin);
-		_rayAABB.getPosition().addFactor(rayDirection, _rayCastLength * 0.5f);
-		_rayAABB.getDimensions().set(Math.abs(rayDirection.x()), Math.abs(rayDirection.y()), Math.abs(rayDirection.z()));
-		_rayAABB.getDimensions().scale(_rayCastLength * 0.5f);
-
-		int aabbX = MathHelper.round(_rayAABB.getPosition().x());
-		int aabbY = MathHelper.round(_rayAABB.getPosition().y());
-		int aabbZ = MathHelper.round(_rayAABB.getPosition().z());
-
-		RayBlockIntersection.Intersection closestIntersection = null;
-		byte closestBlock = 0;
-
-		/* Iterate over all possible candidates for the raycast */
-		Vec3f v = new Vec3f();
-		Vec3i newAimedBlockPosition = new Vec3i();
-		byte bl = 0;
-		boolean special = false;
-		Chunk chunk = Game.getInstance().getWorld().getChunkManager().getChunkContaining(aabbX, aabbY, aabbZ, false, false, false);
+		Chunk chunk = _chunkManager.getChunkContaining(MathHelper.floor(rayOrigin.x()), MathHelper.floor(rayOrigin.y()), MathHelper.floor(rayOrigin.z()), false, false, false);
 		if (chunk == null)
 			return;
 
-		for (int x = MathHelper.floor(_rayAABB.minX()); x <= MathHelper.ceil(_rayAABB.maxX()); ++x)
-			for (int y = MathHelper.floor(_rayAABB.minY()); y <= MathHelper.ceil(_rayAABB.maxY()); ++y)
-				for (int z = MathHelper.floor(_rayAABB.minZ()); z <= MathHelper.ceil(_rayAABB.maxZ()); ++z)
-				{
-					bl = chunk.getBlockTypeAbsolute(x, y, z, false, false, false);
-					if (bl == 0 || bl == -1)
-						continue;
-
-					special = chunk.isBlockSpecialAbsolute(x, y, z);
-					Block block = null;
-					if (special)
-					{
-						block = chunk.getSpecialBlockAbsolute(x, y, z);
-						if (block.isMoving())
-						{
-							continue;
-						}
-						_intersectionTestingAABB.set(block.getAABB());
-					}
-
-					v.set(x + 0.5f, y + 0.5f, z + 0.5f);
-
-					v.sub(getPosition());
-					float lenSquared = v.lengthSquared();
-					if (lenSquared < rayLenSquared)
-					{
-						if (!special)
-						{
-							_intersectionTestingAABB.getPosition().set(x + 0.5f, y + 0.5f, z + 0.5f);
-							_intersectionTestingAABB.getDimensions().set(_blockManager.getBlockType(bl).getDimensions());
-							_intersectionTestingAABB.recalcVertices();
-						}
-						/* Perform the raycast */
-						List<RayBlockIntersection.Intersection> intersections = RayBlockIntersection.executeIntersection(x, y, z, _intersectionTestingAABB, rayOrigin, rayDirection);
-						if (!intersections.isEmpty())
-						{
-							if (closestIntersection == null || intersections.get(0).getDistance() < closestIntersection.getDistance())
-							{
-								closestIntersection = intersections.get(0);
-								closestBlock = bl;
-								newAimedBlockPosition.set(x, y, z);
-
-								if (special)
-								{
-									_aimedBlockAABB.set(block.getAABB());
-								} else
-								{
-									BlockType aimedBlockType = _blockManager.getBlockType(bl);
-									_aimedBlockAABB.getPosition().set(_aimedBlockPosition.x(), _aimedBlockPosition.y(), _aimedBlockPosition.z()).add(aimedBlockType.getCenter());
-									_aimedBlockAABB.getDimensions().set(aimedBlockType.getDimensions());
-								}
-							}
-						}
-					}
-
-				}
-
-		if (closestIntersection != null)
+		if (_rayCast.cast(chunk, rayOrigin, rayDirection, _rayCastLength))
 		{
-			if (!_aimedBlockPosition.equals(newAimedBlockPosition))
+			Vec3i newAimedBlockPosition = _rayCast.getBlockPosition();
+			if (!_aimedBlockPosition.equals(newAimedBlockPosition) || _aimedBlockType != _rayCast.getBlockType())
 			{
-				_aimedBlockHealth = _blockManager.getBlockType(closestBlock).getResistance();
+				_aimedBlockType = _rayCast.getBlockType();
+				_aimedBlockHealth = _blockManager.getBlockType(_aimedBlockType).getResistance();
 				_aimedBlockPosition.set(newAimedBlockPosition);
-				_aimedBlockType = closestBlock;
 
+				Block block = _rayCast.getSpecialBlock();
+				if (block != null)
+				{
+					_aimedBlockAABB.set(block.getAABB());
+				} else
+				{
+					BlockType aimedBlockType = _blockManager.getBlockType(_aimedBlockType);
+					_aimedBlockAABB.getPosition().set(_aimedBlockPosition).add(aimedBlockType.getCenter());
+					_aimedBlockAABB.getDimensions().set(aimedBlockType.getDimensions());
+				}
 				_aimedBlockAABB.recalcVertices();
 			}
-			_aimedAdjacentBlockPosition = closestIntersection.calcAdjacentBlockPos();
+			_aimedAdjacentBlockPosition = _rayCast.getAdjacentBlockPosition();
 		} else
 		{
 			_aimedBlockPosition.setY(-1);
 			_aimedAdjacentBlockPosition = null;
 			_aimedBlockType = 0;
 		}
-		if (closestIntersection != null && _selectedItem != null && _aimedBlockPosition.y() != -1)
+		if (_rayCast.hasHit() && _selectedItem != null)
 		{
-			_body.setBlockDistance(closestIntersection.getDistance());
+			_body.setBlockDistance(_rayCast.getDistance());
 		} else
 		{
 			_body.setBlockDistance(0.0f);
@@ -38,7 +38,7 @@ public class BuildingGenerator extends Generator
 			for (int z = -2; z <= d + 2; ++z)
 			{
 				chunk.removeBlockAbsolute(_x + x, _y, _z + z);
-				chunk.setDefaultBlockAbsolute(_x + x, _y - 1, _z + z, grass, (byte) 0, true, true, false);
+				setBlock(chunk, _x + x, _y - 1, _z + z, grass, (byte) 0);
 			}
 		}
 
@@ -53,14 +53,14 @@ public class BuildingGenerator extends Generator
 
 			for (int i = 0; i <= w; ++i)
 			{
-				chunk.setDefaultBlockAbsolute(_x + i, _y + l, _z, type, (byte) 0, true, true, false);
-				chunk.setDefaultBlockAbsolute(_x + i, _y + l, _z + d, type, (byte) 0, true, true, false);
+				setBlock(chunk, _x + i, _y + l, _z, type, (byte) 0);
+				setBlock(chunk, _x + i, _y + l, _z + d, type, (byte) 0);
 			}
 
 			for (int i = 0; i <= d; ++i)
 			{
-				chunk.setDefaultBlockAbsolute(_x, _y + l, _z + i, type, (byte) 0, true, true, false);
-				chunk.setDefaultBlockAbsolute(_x + w, _y + l, _z + i, type, (byte) 0, true, true, false);
+				setBlock(chunk, _x, _y + l, _z + i, type, (byte) 0);
+				setBlock(chunk, _x + w, _y + l, _z + i, type, (byte) 0);
 			}
 		}
 
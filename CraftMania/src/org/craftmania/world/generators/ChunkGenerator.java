@@ -16,6 +16,7 @@
 package org.craftmania.world.generators;
 
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.craftmania.blocks.BlockConstructor;
 import org.craftmania.blocks.BlockManager;
@@ -23,21 +24,54 @@ import org.craftmania.math.MathHelper;
 import org.craftmania.utilities.SmartRandom;
 import org.craftmania.world.Biome;
 import org.craftmania.world.Chunk;
+import org.craftmania.world.ChunkData;
+import org.craftmania.world.ClimateTile;
 import org.craftmania.world.World;
 import org.craftmania.world.WorldProvider;
 import org.craftmania.world.WorldProvider.TreeDefinition;
 
+/**
+ * Generates a chunk in three stages. The terrain stage only computes noise
+ * into plain arrays, so it can run on a worker without locking the chunk.
+ * The fill stage copies the terrain into the chunk data in bulk. The
+ * decoration stage adds trees, flora and structures, which can reach into
+ * the neighboring chunks.
+ */
 public class ChunkGenerator extends Generator
 {
 
+	private static final int RATE_SAMPLES = 32;
+	private static final long RATE_WINDOW = 5000000000L;
+
+	private static final AtomicLong _terrainTime = new AtomicLong();
+	private static final AtomicLong _fillTime = new AtomicLong();
+	private static final AtomicLong _decorateTime = new AtomicLong();
+	private static final AtomicLong _generateCount = new AtomicLong();
+	private static final long[] _finishTimes = new long[RATE_SAMPLES];
+	private static int _finishIndex;
+
+	/* The density map is a flat array, indexed as (x * SIZE_Y + y) * SIZE_Z + z */
+	private static final int DENSITY_SIZE_Y = Chunk.CHUNK_SIZE_VERTICAL + 1;
+	private static final int DENSITY_SIZE_Z = Chunk.CHUNK_SIZE_HORIZONTAL + 1;
+	private static final int DENSITY_STRIDE_X = DENSITY_SIZE_Y * DENSITY_SIZE_Z;
+	private static final int DENSITY_STRIDE_Y = DENSITY_SIZE_Z;
+	private static final ThreadLocal<float[]> _densityMaps = new ThreadLocal<float[]>()
+	{
+		@Override
+		protected float[] initialValue()
+		{
+			return new float[(Chunk.CHUNK_SIZE_HORIZONTAL + 1) * DENSITY_STRIDE_X];
+		}
+	};
+
 	private WorldProvider _worldProvider;
 	private static int SAMPLE_RATE_HORIZONTAL_DENSITY = 2;
 	private static int SAMPLE_RATE_VERTICAL_DENSITY = 2;
 	private int _x;
 	private int _z;
-	private int[][] _heightMap;
-	private int[][] _temperatureMap;
-	private int[][] _humidityMap;
+	private ClimateTile _climate;
+	private byte[] _blocks;
+	private SmartRandom _random;
 
 	public ChunkGenerator(World world, int x, int z)
 	{
@@ -50,53 +84,57 @@ public class ChunkGenerator extends Generator
 	{
 		System.out.println("---------- Generate chunk: " + _x + ", " + _z);
 
-		SmartRandom random = new SmartRandom(new Random(generateSeedForChunk(_worldSeed, _x, _z)));
+		if (_blocks == null)
+		{
+			computeTerrain();
+		}
 
 		/* Access the new chunk */
 		Chunk chunk = _chunkManager.getChunk(_x, _z, true, false, false);
 		chunk.setGenerated(true);
 		chunk.setLoading(true);
 
-		/* Build the height map */
-		_heightMap = new int[Chunk.CHUNK_SIZE_HORIZONTAL][Chunk.CHUNK_SIZE_HORIZONTAL];
-		for (int x = 0; x < Chunk.CHUNK_SIZE_HORIZONTAL; ++x)
-		{
-			for (int z = 0; z < Chunk.CHUNK_SIZE_HORIZONTAL; ++z)
-			{
-				_heightMap[x][z] = _worldProvider.getHeightAt(x + chunk.getAbsoluteX(), z + chunk.getAbsoluteZ());
-			}
-		}
+		fillTerrain(chunk);
+		decorate(chunk);
 
-		/* Build the temperature map */
-		_temperatureMap = new int[Chunk.CHUNK_SIZE_HORIZONTAL][Chunk.CHUNK_SIZE_HORIZONTAL];
-		for (int x = 0; x < Chunk.CHUNK_SIZE_HORIZONTAL; ++x)
-		{
-			for (int z = 0; z < Chunk.CHUNK_SIZE_HORIZONTAL; ++z)
-			{
-				_temperatureMap[x][z] = _worldProvider.getTemperatureAt(x + chunk.getAbsoluteX(), z + chunk.getAbsoluteZ());
-			}
-		}
+		/* Make it accessible for the game */
+		chunk.setLoading(false);
+		/* Make sure the neighbors are assigned correctly */
+		_chunkManager.assignNeighbors(chunk);
 
-		/* Build the humidity map */
-		_humidityMap = new int[Chunk.CHUNK_SIZE_HORIZONTAL][Chunk.CHUNK_SIZE_HORIZONTAL];
-		for (int x = 0; x < Chunk.CHUNK_SIZE_HORIZONTAL; ++x)
-		{
-			for (int z = 0; z < Chunk.CHUNK_SIZE_HORIZONTAL; ++z)
-			{
-				_humidityMap[x][z] = _worldProvider.getHumidityAt(x + chunk.getAbsoluteX(), z + chunk.getAbsoluteZ());
-			}
-		}
+		registerFinish();
+		return chunk;
+	}
 
-		/* Build a density map */
-		float densityMap[][][] = new float[Chunk.CHUNK_SIZE_HORIZONTAL + 1][Chunk.CHUNK_SIZE_VERTICAL + 1][Chunk.CHUNK_SIZE_HORIZONTAL + 1];
+	/**
+	 * Stage 1: computes the density map and the block types of the terrain.
+	 * Doesn't touch any chunk.
+	 */
+	public void computeTerrain()
+	{
+		long start = System.nanoTime();
+		_random = new SmartRandom(new Random(generateSeedForChunk(_worldSeed, _x, _z)));
+		int absX = _x * Chunk.CHUNK_SIZE_HORIZONTAL;
+		int absZ = _z * Chunk.CHUNK_SIZE_HORIZONTAL;
+
+		/* The height map comes from the climate */
+		_climate = _worldProvider.getClimateTile(_x, _z);
+
+		/*
+		 * Build a density map. The map of the thread is reused: every sample
+		 * is overwritten and only the blocks below the height get
+		 * interpolated, which are the only ones read.
+		 */
+		float[] densityMap = _densityMaps.get();
 
 		for (int x = 0; x < Chunk.CHUNK_SIZE_HORIZONTAL + 1; x += SAMPLE_RATE_HORIZONTAL_DENSITY)
 		{
 			for (int z = 0; z < Chunk.CHUNK_SIZE_HORIZONTAL + 1; z += SAMPLE_RATE_HORIZONTAL_DENSITY)
 			{
+				int column = x * DENSITY_STRIDE_X + z;
 				for (int y = 0; y < Chunk.CHUNK_SIZE_VERTICAL + 1; y += SAMPLE_RATE_VERTICAL_DENSITY)
 				{
-					densityMap[x][y][z] = generateDensity(random, x, y, z);
+					densityMap[column + y * DENSITY_STRIDE_Y] = generateDensity(_random, x, y, z);
 				}
 			}
 		}
@@ -104,63 +142,106 @@ public class ChunkGenerator extends Generator
 		/* Trilerp the density map */
 		triLerpDensityMap(densityMap);
 
-		/* Create the blocks using the density map */
+		/* Choose the blocks using the density map */
+		BlockManager bm = BlockManager.getInstance();
+		byte bedrock = bm.blockID("bedrock");
+		byte sand = bm.blockID("sand");
+		byte snow = bm.blockID("snow");
+		byte grass = bm.blockID("grass");
+		byte gravel = bm.blockID("gravel");
+		byte dirt = bm.blockID("dirt");
+		byte stone = bm.blockID("stone");
+		byte coalOre = bm.blockID("coal_ore");
+		byte ironOre = bm.blockID("iron_ore");
+		byte redstoneOre = bm.blockID("redstone_ore");
+
+		_blocks = new byte[Chunk.BLOCK_COUNT];
 		for (int x = 0; x < Chunk.CHUNK_SIZE_HORIZONTAL; x++)
 		{
 			for (int z = 0; z < Chunk.CHUNK_SIZE_HORIZONTAL; z++)
 			{
-				int baseLevel = _heightMap[x][z];
+				int baseLevel = _climate.getHeight(x + absX, z + absZ);
+				int column = x * DENSITY_STRIDE_X + z;
 
-				Biome topBiome = _worldProvider.calculateBiome(_worldProvider.calculateTemperature(_temperatureMap[x][z], baseLevel), _worldProvider.getHumidityAt(x + chunk.getAbsoluteX(), baseLevel, z + chunk.getAbsoluteZ()));
+				Biome topBiome = _climate.getBiome(x + absX, z + absZ);
 
 				for (int y = 0; y < Chunk.CHUNK_SIZE_VERTICAL && y <= baseLevel; y++)
 				{
+					byte type;
+					int depth = baseLevel - y;
 					if (y < 4)
 					{
 						/* Create a bedrock layer */
-						chunk.setDefaultBlockRelative(x, y, z, BlockManager.getInstance().getBlockType("bedrock"), (byte) 0, true, false, false);
-						continue;
-					}
-					int depth = baseLevel - y;
-					if (topBiome == Biome.DESERT && y >= baseLevel - 3)
+						type = bedrock;
+					} else if (topBiome == Biome.DESERT && y >= baseLevel - 3)
 					{
-						chunk.setDefaultBlockRelative(x, y, z, BlockManager.getInstance().getBlockType("sand"), (byte) 0, true, false, false);
+						type = sand;
 					} else if (topBiome == Biome.SNOW && y == baseLevel)
 					{
-						chunk.setDefaultBlockRelative(x, y, z, BlockManager.getInstance().getBlockType("snow"), (byte) 0, true, false, false);
+						type = snow;
 					} else if ((topBiome == Biome.FOREST || topBiome == Biome.FIELDS) && y == baseLevel)
 					{
-						chunk.setDefaultBlockRelative(x, y, z, BlockManager.getInstance().getBlockType("grass"), (byte) 0, true, false, false);
+						type = grass;
 					} else
 					{
-						float density = densityMap[x][y][z];
+						float density = densityMap[column + y * DENSITY_STRIDE_Y];
 						if (density < 7.3f && depth > 8)
 						{
-							chunk.setDefaultBlockRelative(x, y, z, BlockManager.getInstance().getBlockType("gravel"), (byte) 0, true, false, false);
+							type = gravel;
 						} else if (density < 6.3f)
 						{
-							chunk.setDefaultBlockRelative(x, y, z, BlockManager.getInstance().getBlockType("dirt"), (byte) 0, true, false, false);
+							type = dirt;
 						} else if (density < 9.0f)
 						{
-							chunk.setDefaultBlockRelative(x, y, z, BlockManager.getInstance().getBlockType("stone"), (byte) 0, true, false, false);
+							type = stone;
 						} else if (density < 9.5f && depth > 5)
 						{
-							chunk.setDefaultBlockRelative(x, y, z, BlockManager.getInstance().getBlockType("coal_ore"), (byte) 0, true, false, false);
+							type = coalOre;
 						} else if (density < 10.0f && depth > 10)
 						{
-							chunk.setDefaultBlockRelative(x, y, z, BlockManager.getInstance().getBlockType("iron_ore"), (byte) 0, true, false, false);
+							type = ironOre;
 						} else if (y < 16 && density < 13.0f)
 						{
-							chunk.setDefaultBlockRelative(x, y, z, BlockManager.getInstance().getBlockType("redstone_ore"), (byte) 0, true, false, false);
+							type = redstoneOre;
 						} else
 						{
-							chunk.setDefaultBlockRelative(x, y, z, BlockManager.getInstance().getBlockType("stone"), (byte) 0, true, false, false);
+							type = stone;
 						}
 					}
+					_blocks[ChunkData.positionToIndex(x, y, z)] = type;
 				}
 			}
+		}
+		_terrainTime.addAndGet(System.nanoTime() - start);
+	}
 
+	/**
+	 * Stage 2: puts the terrain straight into the chunk data and builds the
+	 * visibility once. Blocks that neighbors already put in the chunk are
+	 * kept.
+	 */
+	private void fillTerrain(Chunk chunk)
+	{
+		long start = System.nanoTime();
+		ChunkData data = chunk.getChunkData();
+		for (int i = 0; i < Chunk.BLOCK_COUNT; ++i)
+		{
+			if (_blocks[i] != 0 && data.getBlockType(i) == 0)
+			{
+				data.setDefaultBlock(i, _blocks[i], (byte) 0, (byte) 0);
+			}
 		}
+		chunk.finishBulkLoad();
+		_fillTime.addAndGet(System.nanoTime() - start);
+	}
+
+	/**
+	 * Stage 3: adds the trees, the flora and the structures.
+	 */
+	private void decorate(Chunk chunk)
+	{
+		long start = System.nanoTime();
+		SmartRandom random = _random;
 
 		/* Generate trees */
 		{
@@ -171,20 +252,8 @@ public class ChunkGenerator extends Generator
 				int x = chunk.getAbsoluteX() + random.randomInt(Chunk.CHUNK_SIZE_HORIZONTAL);
 				int z = chunk.getAbsoluteZ() + random.randomInt(Chunk.CHUNK_SIZE_HORIZONTAL);
 
-				/* Check for enough distance from the other trees */
-				for (TreeDefinition treeDef : _worldProvider.getTrees())
-				{
-					float xDiff = x - treeDef.x;
-					float zDiff = z - treeDef.z;
-
-					float distSq = xDiff * xDiff + zDiff * zDiff;
-					if (distSq < 60)
-					{
-						continue trees;
-					}
-				}
 				int type = -1;
-				int y = _heightMap[x - chunk.getAbsoluteX()][z - chunk.getAbsoluteZ()];
+				int y = _climate.getHeight(x, z);
 
 				/*
 				 * Check if the root of the tree is INSIDE THIS blockchunk, to
@@ -193,31 +262,40 @@ public class ChunkGenerator extends Generator
 				// if (chunk.contains(x, y, z))
 				{
 					Biome biome = _worldProvider.getBiomeAt(x, y, z);
-					if (biome == Biome.FIELDS)
-					{
-						continue;
-					}
 					if (biome == Biome.FOREST)
 					{
-						gen.generateNiceBroadLeavedTree(chunk, x, y, z);
-						// gen.generateBroadLeavedTree(chunk, x, y, z, true);
 						type = 0;
 					} else if (biome == Biome.DESERT)
 					{
 						if (random.randomBoolean())
 						{
-							gen.generateCactus(chunk, x, y + 1, z);
-
 							type = 1;
 						}
 					} else if (biome == Biome.SNOW)
 					{
-						gen.generatePinophyta(chunk, x, y, z);
 						type = 2;
 					}
-					if (type != -1)
+					if (type == -1)
 					{
-						_worldProvider.getTrees().add(new TreeDefinition(x, y, z, type));
+						continue trees;
+					}
+
+					/* Check for enough distance from the other trees */
+					if (!_worldProvider.getTreeRegistry().addIfNoTreeWithin(new TreeDefinition(x, y, z, type), 60))
+					{
+						continue trees;
+					}
+
+					if (type == 0)
+					{
+						gen.generateNiceBroadLeavedTree(chunk, x, y, z);
+						// gen.generateBroadLeavedTree(chunk, x, y, z, true);
+					} else if (type == 1)
+					{
+						gen.generateCactus(chunk, x, y + 1, z);
+					} else
+					{
+						gen.generatePinophyta(chunk, x, y, z);
 					}
 				}
 			}
@@ -231,7 +309,7 @@ public class ChunkGenerator extends Generator
 			{
 				int x = chunk.getAbsoluteX() + random.randomInt(0, Chunk.CHUNK_SIZE_HORIZONTAL);
 				int z = chunk.getAbsoluteZ() + random.randomInt(0, Chunk.CHUNK_SIZE_HORIZONTAL);
-				int y = _heightMap[x - chunk.getAbsoluteX()][z - chunk.getAbsoluteZ()];
+				int y = _climate.getHeight(x, z);
 
 				Biome biome = _worldProvider.getBiomeAt(x, y, z);
 				if (biome == Biome.FIELDS || biome == Biome.FOREST)
@@ -250,7 +328,7 @@ public class ChunkGenerator extends Generator
 			{
 				int x = chunk.getAbsoluteX() + random.randomInt(Chunk.CHUNK_SIZE_HORIZONTAL);
 				int z = chunk.getAbsoluteZ() + random.randomInt(Chunk.CHUNK_SIZE_HORIZONTAL);
-				int y = _heightMap[x - chunk.getAbsoluteX()][z - chunk.getAbsoluteZ()];
+				int y = _climate.getHeight(x, z);
 
 				Biome biome = _worldProvider.getBiomeAt(x, y, z);
 				if (biome == Biome.FIELDS || biome == Biome.FOREST)
@@ -275,7 +353,7 @@ public class ChunkGenerator extends Generator
 			FloatingIslandGenerator gen = new FloatingIslandGenerator(_worldProvider);
 			int x = chunk.getAbsoluteX() + random.randomInt(1);// * Chunk.CHUNK_SIZE_HORIZONTAL);
 			int z = chunk.getAbsoluteZ() + random.randomInt(1);// * Chunk.CHUNK_SIZE_HORIZONTAL);
-			int y = _heightMap[x - chunk.getAbsoluteX()][z - chunk.getAbsoluteZ()];
+			int y = _climate.getHeight(x, z);
 
 			gen.generateNiceFloatingIsland(chunk, x, y + random.randomInt(40, 80), z);
 		}
@@ -286,7 +364,7 @@ public class ChunkGenerator extends Generator
 			BuildingGenerator gen = new BuildingGenerator();
 			int x = chunk.getAbsoluteX() + random.randomInt(Chunk.CHUNK_SIZE_HORIZONTAL / 2);
 			int z = chunk.getAbsoluteZ() + random.randomInt(Chunk.CHUNK_SIZE_HORIZONTAL / 2);
-			int y = _heightMap[x - chunk.getAbsoluteX()][z - chunk.getAbsoluteZ()] + 1;
+			int y = _climate.getHeight(x, z) + 1;
 
 			if (_worldProvider.getBiomeAt(x, y, z) == Biome.FIELDS)
 			{
@@ -295,12 +373,51 @@ public class ChunkGenerator extends Generator
 			}
 		}
 
-		/* Make it accessible for the game */
-		chunk.setLoading(false);
-		/* Make sure the neighbors are assigned correctly */
-		_chunkManager.assignNeighbors(chunk);
+		_decorateTime.addAndGet(System.nanoTime() - start);
+	}
 
-		return chunk;
+	private static synchronized void registerFinish()
+	{
+		_generateCount.incrementAndGet();
+		_finishTimes[_finishIndex] = System.nanoTime();
+		_finishIndex = (_finishIndex + 1) % RATE_SAMPLES;
+	}
+
+	/**
+	 * Returns the number of chunks generated per second, over the last few
+	 * generated chunks of the last five seconds.
+	 */
+	public static synchronized float getChunksPerSecond()
+	{
+		long now = System.nanoTime();
+		long oldest = now;
+		int count = 0;
+		for (int i = 0; i < RATE_SAMPLES; ++i)
+		{
+			long time = _finishTimes[i];
+			if (time != 0 && now - time < RATE_WINDOW)
+			{
+				oldest = Math.min(oldest, time);
+				count++;
+			}
+		}
+		if (count == 0)
+		{
+			return 0.0f;
+		}
+		/* Measure over at least a second, so one chunk doesn't count as many */
+		long window = Math.max(now - oldest, RATE_WINDOW / 5);
+		return count * 1000000000.0f / window;
+	}
+
+	/**
+	 * Returns the average time of the terrain, fill and decoration stages, in
+	 * nanoseconds.
+	 */
+	public static long[] getAverageStageTimes()
+	{
+		long count = Math.max(1, _generateCount.get());
+		return new long[] { _terrainTime.get() / count, _fillTime.get() / count, _decorateTime.get() / count };
 	}
 
 	/**
@@ -309,25 +426,39 @@ public class ChunkGenerator extends Generator
 	 * @author Benjamin Glatzel
 	 * @author martijncourteaux
 	 */
-	protected void triLerpDensityMap(float[][][] densityMap)
+	protected void triLerpDensityMap(float[] densityMap)
 	{
+		int absX = _x * Chunk.CHUNK_SIZE_HORIZONTAL;
+		int absZ = _z * Chunk.CHUNK_SIZE_HORIZONTAL;
+		int sampleStepX = SAMPLE_RATE_HORIZONTAL_DENSITY * DENSITY_STRIDE_X;
+		int sampleStepY = SAMPLE_RATE_VERTICAL_DENSITY * DENSITY_STRIDE_Y;
 		for (int x = 0; x < Chunk.CHUNK_SIZE_HORIZONTAL; x++)
 		{
+			int offsetX = (x / SAMPLE_RATE_HORIZONTAL_DENSITY) * SAMPLE_RATE_HORIZONTAL_DENSITY;
 			for (int z = 0; z < Chunk.CHUNK_SIZE_HORIZONTAL; z++)
 			{
-				for (int y = 0; y < _heightMap[x][z]; y++)
+				int offsetZ = (z / SAMPLE_RATE_HORIZONTAL_DENSITY) * SAMPLE_RATE_HORIZONTAL_DENSITY;
+				boolean sampleColumn = x % SAMPLE_RATE_HORIZONTAL_DENSITY == 0 && z % SAMPLE_RATE_HORIZONTAL_DENSITY == 0;
+				int height = _climate.getHeight(x + absX, z + absZ);
+
+				/* The four sample columns around this column */
+				int q00 = offsetX * DENSITY_STRIDE_X + offsetZ;
+				int q01 = q00 + SAMPLE_RATE_HORIZONTAL_DENSITY;
+				int q10 = q00 + sampleStepX;
+				int q11 = q10 + SAMPLE_RATE_HORIZONTAL_DENSITY;
+				int column = x * DENSITY_STRIDE_X + z;
+
+				for (int y = 0; y < height; y++)
 				{
-					if (!(x % SAMPLE_RATE_HORIZONTAL_DENSITY == 0 && y % SAMPLE_RATE_VERTICAL_DENSITY == 0 && z % SAMPLE_RATE_HORIZONTAL_DENSITY == 0))
+					if (sampleColumn && y % SAMPLE_RATE_VERTICAL_DENSITY == 0)
 					{
-						int offsetX = (x / SAMPLE_RATE_HORIZONTAL_DENSITY) * SAMPLE_RATE_HORIZONTAL_DENSITY;
-						int offsetY = (y / SAMPLE_RATE_VERTICAL_DENSITY) * SAMPLE_RATE_VERTICAL_DENSITY;
-						int offsetZ = (z / SAMPLE_RATE_HORIZONTAL_DENSITY) * SAMPLE_RATE_HORIZONTAL_DENSITY;
-						densityMap[x][y][z] = MathHelper.triLerp(x, y, z, densityMap[offsetX][offsetY][offsetZ], densityMap[offsetX][SAMPLE_RATE_VERTICAL_DENSITY + offsetY][offsetZ], densityMap[offsetX][offsetY][offsetZ + SAMPLE_RATE_HORIZONTAL_DENSITY],
-								densityMap[offsetX][offsetY + SAMPLE_RATE_VERTICAL_DENSITY][offsetZ + SAMPLE_RATE_HORIZONTAL_DENSITY], densityMap[SAMPLE_RATE_HORIZONTAL_DENSITY + offsetX][offsetY][offsetZ], densityMap[SAMPLE_RATE_HORIZONTAL_DENSITY + offsetX][offsetY
-										+ SAMPLE_RATE_VERTICAL_DENSITY][offsetZ], densityMap[SAMPLE_RATE_HORIZONTAL_DENSITY + offsetX][offsetY][offsetZ + SAMPLE_RATE_HORIZONTAL_DENSITY],
-								densityMap[SAMPLE_RATE_HORIZONTAL_DENSITY + offsetX][offsetY + SAMPLE_RATE_VERTICAL_DENSITY][offsetZ + SAMPLE_RATE_HORIZONTAL_DENSITY], offsetX, SAMPLE_RATE_HORIZONTAL_DENSITY + offsetX, offsetY, SAMPLE_RATE_VERTICAL_DENSITY + offsetY, offsetZ,
-								offsetZ + SAMPLE_RATE_HORIZONTAL_DENSITY);
+						continue;
 					}
+					int offsetY = (y / SAMPLE_RATE_VERTICAL_DENSITY) * SAMPLE_RATE_VERTICAL_DENSITY;
+					int lower = offsetY * DENSITY_STRIDE_Y;
+					int upper = lower + sampleStepY;
+					densityMap[column + y * DENSITY_STRIDE_Y] = MathHelper.triLerp(x, y, z, densityMap[q00 + lower], densityMap[q00 + upper], densityMap[q01 + lower], densityMap[q01 + upper], densityMap[q10 + lower], densityMap[q10 + upper], densityMap[q11 + lower], densityMap[q11 + upper], offsetX,
+							SAMPLE_RATE_HORIZONTAL_DENSITY + offsetX, offsetY, SAMPLE_RATE_VERTICAL_DENSITY + offsetY, offsetZ, offsetZ + SAMPLE_RATE_HORIZONTAL_DENSITY);
 				}
 			}
 		}
@@ -335,13 +466,15 @@ public class ChunkGenerator extends Generator
 
 	private float generateDensity(SmartRandom random, int x, int y, int z)
 	{
+		int absX = _x * Chunk.CHUNK_SIZE_HORIZONTAL;
+		int absZ = _z * Chunk.CHUNK_SIZE_HORIZONTAL;
 		int baseLevel;
 		if (x >= Chunk.CHUNK_SIZE_HORIZONTAL || z >= Chunk.CHUNK_SIZE_HORIZONTAL)
 		{
-			baseLevel = _heightMap[Chunk.CHUNK_SIZE_HORIZONTAL - 1][Chunk.CHUNK_SIZE_HORIZONTAL - 1];
+			baseLevel = _climate.getHeight(absX + Chunk.CHUNK_SIZE_HORIZONTAL - 1, absZ + Chunk.CHUNK_SIZE_HORIZONTAL - 1);
 		} else
 		{
-			baseLevel = _heightMap[x][z];
+			baseLevel = _climate.getHeight(absX + x, absZ + z);
 		}
 		float depth = baseLevel - y;
 		if (depth < 0)
@@ -46,7 +46,7 @@ public class FloatingIslandGenerator extends Generator
 					float noise = 100.0f * _pNoise.noise((float) x / dimX, (float) y / dimY, (float) z / dimZ);
 					if (noise > 0.25f)
 					{
-						chunk.setDefaultBlockAbsolute(ix + x, iy + y, iz + z, _dirt, (byte) 0, true, true, false);
+						setBlock(chunk, ix + x, iy + y, iz + z, _dirt, (byte) 0);
 					}
 				}
 			}
@@ -97,9 +97,9 @@ public class FloatingIslandGenerator extends Generator
 					int depth = Math.abs(MathHelper.round((MathHelper.cos(x * z / 4.0f) * MathHelper.sin(x * z / 8.0f) * (size - MathHelper.sqrt(x * x + z * z) - 2))));
 					for (int i = -depth - 2; i < height; ++i)
 					{
-						chunk.setDefaultBlockAbsolute(ix + x, iy + i, iz + z, _dirt, (byte) 0, true, true, false);
+						setBlock(chunk, ix + x, iy + i, iz + z, _dirt, (byte) 0);
 					}
-					chunk.setDefaultBlockAbsolute(ix + x, iy + height, iz + z, _grass, (byte) 0, true, true, false);
+					setBlock(chunk, ix + x, iy + height, iz + z, _grass, (byte) 0);
 				
 					if (!treeBuilt && x * x + z * z < size * size - 5)
 					{
@@ -16,8 +16,11 @@
 package org.craftmania.world.generators;
 
 import org.craftmania.blocks.BlockManager;
+import org.craftmania.blocks.BlockType;
 import org.craftmania.game.Game;
+import org.craftmania.world.Chunk;
 import org.craftmania.world.ChunkManager;
+import org.craftmania.world.PendingBlockWrites;
 
 public class Generator
 {
@@ -32,4 +35,42 @@ public class Generator
 		_blockManager = BlockManager.getInstance();
 		_worldSeed = Game.getInstance().getWorld().getWorldSeed();
 	}
+
+	/**
+	 * Puts a block generated for the given chunk. A block for a neighbor is
+	 * remembered and put when the neighbor gets generated, so generators never
+	 * load or create other chunks. If the neighbor already took its blocks, it
+	 * is put directly. Either way only air gets replaced in the neighbor, so
+	 * the result doesn't depend on which chunk was generated first.
+	 */
+	protected void setBlock(Chunk chunk, int x, int y, int z, BlockType type, byte metadata)
+	{
+		if (y < 0 || y >= Chunk.CHUNK_SIZE_VERTICAL)
+		{
+			return;
+		}
+		Chunk target = chunk.getChunkContaining(x, y, z, false, false, false);
+		if (target == chunk)
+		{
+			target.setDefaultBlockAbsolute(x, y, z, type, metadata, false, false, false);
+			return;
+		}
+		PendingBlockWrites pendingWrites = _chunkManager.getPendingBlockWrites();
+		if (pendingWrites.add(x, y, z, type.getID(), metadata) || target == null)
+		{
+			return;
+		}
+		synchronized (target)
+		{
+			/* The neighbor might have been queued again to be saved meanwhile */
+			if (pendingWrites.add(x, y, z, type.getID(), metadata))
+			{
+				return;
+			}
+			if (target.getBlockTypeAbsolute(x, y, z, false, false, false) == 0)
+			{
+				target.setDefaultBlockAbsolute(x, y, z, type, metadata, false, false, false);
+			}
+		}
+	}
 }
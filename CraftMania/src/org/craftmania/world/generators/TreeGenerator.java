@@ -49,7 +49,7 @@ public class TreeGenerator extends Generator
 		BlockType trunk = BlockManager.getInstance().getBlockType("wood0");
 		for (int i = 0; i < height - 1; ++i)
 		{
-			targetChunk.setDefaultBlockAbsolute(_x, _y + i, _z, trunk, (byte) 0, true, true, false);
+			setBlock(targetChunk, _x, _y + i, _z, trunk, (byte) 0);
 		}
 
 		// Leafs
@@ -76,7 +76,7 @@ public class TreeGenerator extends Generator
 						 * chunks, that contains tree which invokes the
 						 * generation of a new chunk.
 						 */
-						targetChunk.setDefaultBlockAbsolute(_x + x, _y + height - radius + y, _z + z, blLeafs, (byte) 0, true, true, false);
+						setBlock(targetChunk, _x + x, _y + height - radius + y, _z + z, blLeafs, (byte) 0);
 					}
 				}
 			}
@@ -140,7 +140,7 @@ public class TreeGenerator extends Generator
 				{
 					if (x * x + y * y + z * z < radius * radius)
 					{
-						chunk.setDefaultBlockAbsolute(cx + x, cy + y, cz + z, leaves, (byte) 0, true, true, false);
+						setBlock(chunk, cx + x, cy + y, cz + z, leaves, (byte) 0);
 					}
 				}
 			}
@@ -192,7 +192,7 @@ public class TreeGenerator extends Generator
 			Vec3f current = new Vec3f(src);
 			for (int p = 0; p <= len; ++p)
 			{
-				chunk.setDefaultBlockAbsolute(MathHelper.round(current.x()), MathHelper.round(current.y()), MathHelper.round(current.z()), wood, (byte) 0, true, true, false);
+				setBlock(chunk, MathHelper.round(current.x()), MathHelper.round(current.y()), MathHelper.round(current.z()), wood, (byte) 0);
 				current.add(branch);
 			}
 
@@ -242,7 +242,7 @@ public class TreeGenerator extends Generator
 		BlockType bt = BlockManager.getInstance().getBlockType("cactus");
 		for (int i = 0; i < height; ++i)
 		{
-			targetChunk.setDefaultBlockAbsolute(x, y + i, z, bt, (byte) 0, true, true, false);
+			setBlock(targetChunk, x, y + i, z, bt, (byte) 0);
 		}
 	}
 
@@ -275,7 +275,7 @@ public class TreeGenerator extends Generator
 					{
 						continue;
 					}
-					chunk.setDefaultBlockAbsolute(_x + x, _y + h + needlesElevation, _z + z, needles, (byte) 0, true, true, false);
+					setBlock(chunk, _x + x, _y + h + needlesElevation, _z + z, needles, (byte) 0);
 				}
 			}
 		}
@@ -283,7 +283,7 @@ public class TreeGenerator extends Generator
 		// Treetrunk of wood
 		for (int i = 0; i < trunkHeight; ++i)
 		{
-			chunk.setDefaultBlockAbsolute(_x, _y + i, _z, wood, (byte) 0, true, true, false);
+			setBlock(chunk, _x, _y + i, _z, wood, (byte) 0);
 		}
 
 	}